@@ -0,0 +1,143 @@
+package Benchmark;
+
+import PageCompress.PageCompress;
+import Parser.Parser;
+import Parser.StopWords;
+import Parser.TokenSink;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Benchmarks of the hot paths of the whole pipeline, on generated fixtures (see Fixtures):
+ * Parser.Parse, PageCompress.GetPageFile, Retriever.readIndex and Page.calculateScore.
+ *
+ * Parameters:
+ * -b [only run benchmarks whose name contains it] -s [stoplist path]
+ * -w [warm up iterations, default 3] -i [measured iterations, default 5] -t [ms per iteration, default 1000]
+ * -n [text sizes in words, default 1000,10000,100000] -p [postings sizes, default 100,10000,100000]
+ * -o [json result file] -v [version label written into the json, e.g. git commit]
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        String filter = "";
+        String stopWordsPath = "";
+        String outputPath = "";
+        String version = "";
+        String textSizes = "1000,10000,100000";
+        String postingSizes = "100,10000,100000";
+        int warmup = 3;
+        int iterations = 5;
+        int millis = 1000;
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-b".equals(args[i])) {
+                filter = args[i+1];
+                i++;
+            } else if ("-s".equals(args[i])) {
+                stopWordsPath = args[i+1];
+                i++;
+            } else if ("-w".equals(args[i])) {
+                warmup = Integer.valueOf(args[i+1]);
+                i++;
+            } else if ("-i".equals(args[i])) {
+                iterations = Integer.valueOf(args[i+1]);
+                i++;
+            } else if ("-t".equals(args[i])) {
+                millis = Integer.valueOf(args[i+1]);
+                i++;
+            } else if ("-n".equals(args[i])) {
+                textSizes = args[i+1];
+                i++;
+            } else if ("-p".equals(args[i])) {
+                postingSizes = args[i+1];
+                i++;
+            } else if ("-o".equals(args[i])) {
+                outputPath = args[i+1];
+                i++;
+            } else if ("-v".equals(args[i])) {
+                version = args[i+1];
+                i++;
+            }
+        }
+
+        if (iterations <= 0 || millis <= 0) {
+            System.out.println("There are something wrong for your parameters:\n[Iterations], [Iteration time]");
+            System.exit(1);
+        }
+
+        Harness harness = new Harness(warmup, iterations, millis, filter);
+        int[] sizes = ParseSizes(textSizes);
+        StopWords stopWords = "".equals(stopWordsPath) ? StopWords.Empty() : StopWords.Load(stopWordsPath);
+
+        BenchParser(harness, sizes, stopWords);
+        BenchPageCompress(harness, sizes);
+
+        File fixtureDir = Files.createTempDirectory("benchmark_fixtures").toFile();
+        try {
+            RetrieverBenchmark.Run(harness, fixtureDir, ParseSizes(postingSizes), sizes);
+        } finally {
+            Fixtures.DeleteFolder(fixtureDir);
+        }
+
+        if (!"".equals(outputPath)) {
+            harness.WriteJson(new File(outputPath), version);
+            System.out.println("Results are saved in " + outputPath);
+        }
+    }
+
+    /*
+     * old list API and the streaming TokenSink API on the same text
+     */
+    private static void BenchParser(Harness harness, int[] sizes, final StopWords stopWords) throws Exception {
+        if (!harness.Enabled("Parser.Parse")) {
+            return;
+        }
+        for (int size : sizes) {
+            final String content = Fixtures.Text(size, size);
+            harness.Measure("Parser.Parse", "words=" + size + ",api=list", new Harness.Op() {
+                public Object Run() {
+                    Parser parser = new Parser(content, stopWords);
+                    parser.Parse();
+                    return parser.GetResTokens();
+                }
+            });
+            harness.Measure("Parser.Parse", "words=" + size + ",api=sink", new Harness.Op() {
+                public Object Run() {
+                    final int[] count = new int[1];
+                    Parser parser = new Parser(content, stopWords);
+                    parser.Parse(new TokenSink() {
+                        public void Token(CharSequence text, int start, int end, byte type, int position) {
+                            count[0] += end - start;
+                        }
+                    });
+                    return count;
+                }
+            });
+        }
+    }
+
+    private static void BenchPageCompress(Harness harness, int[] sizes) throws Exception {
+        if (!harness.Enabled("PageCompress.GetPageFile")) {
+            return;
+        }
+        for (int size : sizes) {
+            final String html = Fixtures.Html(size, size);
+            harness.Measure("PageCompress.GetPageFile", "words=" + size, new Harness.Op() {
+                public Object Run() throws Exception {
+                    return new PageCompress("1_0_" + size, html).GetPageFile();
+                }
+            });
+        }
+    }
+
+    private static int[] ParseSizes(String sizes) {
+        String[] parts = sizes.split(",");
+        int[] res = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            res[i] = Integer.valueOf(parts[i].trim());
+        }
+        return res;
+    }
+}
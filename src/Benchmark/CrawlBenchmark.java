@@ -0,0 +1,155 @@
+package Benchmark;
+
+import PageStore.PageRecord;
+import PageStore.PageStore;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the crawler against a SyntheticWeb and reports how fast and how well it crawled:
+ * pages saved per second and fetches per second, and from what the server saw, duplicate
+ * fetches, politeness violations, robots violations and throttled requests.
+ *
+ * The crawler runs in its own JVM (it exits when its round ends) with the classpath of this
+ * one, on a new folder under the given path, round 1, with the home pages of all the hosts
+ * as roots. Its output goes to crawler.log in that folder. With -nodes, that many crawler
+ * processes share the crawl, each owning a part of the hosts (crawler_[node].log).
+ *
+ * Parameters:
+ * -path [folder for the crawl folders, default the temporary folder] -time [crawl minutes, default 1]
+ * -keep [keep the crawl folder] -nodes [crawler processes, default 1] -crawler "[more crawler parameters, e.g. -threads 4 -fetches 200]"
+ * and all the parameters of SyntheticWeb (-hosts, -pages, -latency...)
+ * Needs the crawler, jsoup and the classes of the whole project in the classpath.
+ */
+public class CrawlBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        SyntheticWeb web = new SyntheticWeb();
+        List<String> rest = web.ParseArgs(args);
+        String path = System.getProperty("java.io.tmpdir");
+        int minutes = 1;
+        int nodes = 1;
+        boolean keep = false;
+        String crawlerArgs = "";
+        for (int i = 0; i < rest.size(); i++) {
+            if ("-path".equals(rest.get(i)) && i + 1 < rest.size()) {
+                path = rest.get(i+1);
+                i++;
+            } else if ("-time".equals(rest.get(i)) && i + 1 < rest.size()) {
+                minutes = Integer.valueOf(rest.get(i+1));
+                i++;
+            } else if ("-crawler".equals(rest.get(i)) && i + 1 < rest.size()) {
+                crawlerArgs = rest.get(i+1);
+                i++;
+            } else if ("-nodes".equals(rest.get(i)) && i + 1 < rest.size()) {
+                nodes = Integer.valueOf(rest.get(i+1));
+                i++;
+            } else if ("-keep".equals(rest.get(i))) {
+                keep = true;
+            }
+        }
+        if (minutes <= 0 || nodes <= 0) {
+            System.out.println("There are something wrong for your parameters:\n[Crawl minutes] [Crawler processes]");
+            System.exit(1);
+        }
+
+        File crawlDir = Files.createTempDirectory(new File(path).toPath(), "crawl_benchmark").toFile();
+        File rootDir = new File(crawlDir, "roots");
+        rootDir.mkdirs();
+        PrintWriter roots = new PrintWriter(new FileWriter(new File(rootDir, "root_1")));
+        for (String root : web.Roots()) {
+            roots.println(root);
+        }
+        roots.close();
+
+        web.Start();
+        long crawlMillis;
+        try {
+            System.out.println("Crawling " + web.hosts + " hosts x " + web.pages + " pages for " + minutes
+                    + " min in " + crawlDir.getPath() + (nodes > 1 ? " with " + nodes + " crawlers" : ""));
+            List<Process> crawlers = new ArrayList<Process>();
+            long start = System.currentTimeMillis();
+            for (int node = 0; node < nodes; node++) {
+                List<String> command = new ArrayList<String>();
+                command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add("WebCrawler.Crawler");
+                command.add("-path");
+                command.add(crawlDir.getPath());
+                command.add("-time");
+                command.add(String.valueOf(minutes));
+                command.add("-id");
+                command.add("1");
+                if (nodes > 1) {
+                    command.add("-nodes");
+                    command.add(String.valueOf(nodes));
+                    command.add("-node");
+                    command.add(String.valueOf(node));
+                }
+                for (String arg : crawlerArgs.trim().split("\\s+")) {
+                    if (arg.length() > 0) {
+                        command.add(arg);
+                    }
+                }
+                ProcessBuilder builder = new ProcessBuilder(command);
+                builder.redirectErrorStream(true);
+                builder.redirectOutput(new File(crawlDir, nodes > 1 ? "crawler_" + node + ".log" : "crawler.log"));
+                crawlers.add(builder.start());
+            }
+            for (int node = 0; node < nodes; node++) {
+                int exit = crawlers.get(node).waitFor();
+                if (exit != 0) {
+                    System.out.println("Crawler " + node + " exited with " + exit + ", see its log in " + crawlDir);
+                }
+            }
+            crawlMillis = System.currentTimeMillis() - start;
+        } finally {
+            web.Stop();
+        }
+
+        int saved = 0;
+        for (int node = 0; node < nodes; node++) {
+            File nodeDir = nodes > 1 ? new File(crawlDir, "node_" + node) : crawlDir;
+            saved += CountPages(new File(nodeDir, "pages" + File.separator + "result_1"));
+        }
+        double seconds = crawlMillis / 1000.0;
+        System.out.println(web.Report());
+        System.out.println(String.format("pages saved %d in %.1f s: %.2f pages/s, %.2f fetches/s",
+                saved, seconds, saved / seconds, web.PagesServed() / seconds));
+        System.out.println(String.format("duplicate fetches %d, politeness violations %d, robots violations %d, throttled %d",
+                web.DuplicateFetches(), web.PolitenessViolations(), web.RobotsViolations(), web.Throttled()));
+        if (keep) {
+            System.out.println("The crawl is kept in " + crawlDir.getPath());
+        } else {
+            Fixtures.DeleteFolder(crawlDir);
+        }
+    }
+
+    /*
+     * pages the crawler saved, in all the thread folders of its round
+     */
+    private static int CountPages(File resultDir) throws IOException {
+        File[] dirs = resultDir.listFiles();
+        if (dirs == null) {
+            return 0;
+        }
+        final int[] count = new int[1];
+        for (File dir : dirs) {
+            if (dir.isDirectory()) {
+                PageStore.scan(dir, new PageStore.Visitor() {
+                    public void visit(PageRecord page) {
+                        count[0]++;
+                    }
+                });
+            }
+        }
+        return count[0];
+    }
+}
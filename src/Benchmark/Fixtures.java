@@ -0,0 +1,179 @@
+package Benchmark;
+
+import Indexter.PostingsCodec;
+import Parser.TermNormalizer;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Generated inputs for the benchmarks. Everything comes from a fixed seed, so two runs
+ * (or two versions of the code) measure exactly the same data.
+ *
+ * Text looks like crawled university pages: common words are much more frequent than rare
+ * ones, with capital letters, punctuation, numbers, emails and URLs mixed in.
+ */
+public class Fixtures {
+    private static final String[] VOCABULARY = {
+            "the", "of", "and", "to", "in", "a", "for", "is", "on", "that", "by", "with", "at", "from",
+            "university", "student", "students", "research", "program", "programs", "course", "courses",
+            "science", "computer", "engineering", "school", "faculty", "department", "graduate", "search",
+            "engine", "information", "retrieval", "index", "page", "pages", "New", "York", "NYU", "Manhattan",
+            "library", "learning", "teaching", "class", "classes", "professor", "lecture", "lectures",
+            "application", "applications", "admission", "campus", "events", "news", "contact", "office",
+            "building", "running", "studies", "studying", "systems", "networks", "algorithms", "data",
+            "analysis", "mathematics", "physics", "biology", "history", "economics", "policy", "center",
+            "fall", "spring", "summer", "semester", "2016", "2015", "10:30", "212-998-1212", "100,000",
+            "e-mail", "don't", "o'clock", "well-known", "U.S.", "Ph.D.", "(see", "below)", "\"quoted\"",
+            "info@nyu.edu", "admissions@cs.nyu.edu", "http://www.nyu.edu/", "https://cs.nyu.edu/courses?id=12",
+            "na\u00efve", "caf\u00e9", "ABC123456789", "x86_64", "a/b", "and/or", "C++", "Q&A", "#1", "50%", "<tag>",
+    };
+
+    /*
+     * words separated by spaces, with a line break now and then
+     */
+    public static String Text(int words, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(i % 23 == 0 ? '\n' : ' ');
+            }
+            sb.append(Word(random));
+            if (i % 17 == 16) {
+                sb.append('.');
+            }
+        }
+        return sb.toString();
+    }
+
+    /*
+     * a page as the crawler downloads it: head with title, style and script,
+     * body with paragraphs, links, lists, code and escaped punctuation
+     */
+    public static String Html(int words, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(words * 12);
+        sb.append("<!DOCTYPE html>\n<html><head><title>").append(Text(6, seed + 1)).append("</title>\n");
+        sb.append("<style>body { font-family: Arial; } .nav a { color: #57068c; }</style>\n");
+        sb.append("<script>var page = { id: 12, name: \"index\" }; function go(x) { return x < 3; }</script>\n");
+        sb.append("</head><body>\n<div class=\"nav\">");
+        for (int i = 0; i < 10; i++) {
+            sb.append("<a href=\"http://www.nyu.edu/page").append(random.nextInt(50)).append(".html\">")
+                    .append(Word(random)).append("</a> ");
+        }
+        sb.append("</div>\n");
+        int written = 0;
+        while (written < words) {
+            int length = Math.min(words - written, 20 + random.nextInt(60));
+            sb.append("<p>").append(Text(length, random.nextLong()));
+            if (random.nextInt(3) == 0) {
+                sb.append(" <a href=\"/courses/").append(random.nextInt(1000)).append("\">more</a>");
+            }
+            sb.append("</p>\n");
+            if (random.nextInt(10) == 0) {
+                sb.append("<select><option>fall</option><option>spring</option></select>\n");
+            }
+            if (random.nextInt(20) == 0) {
+                sb.append("<code>for (int i = 0; i &lt; n; i++) {}</code>\n");
+            }
+            written += length;
+        }
+        sb.append("<script>go(1);</script>\n</body></html>\n");
+        return sb.toString();
+    }
+
+    private static String Word(Random random) {
+        // cube makes the first words of the vocabulary the most frequent ones
+        double r = random.nextDouble();
+        return VOCABULARY[(int) (r * r * r * VOCABULARY.length)];
+    }
+
+    /*
+     * write a page file in crawler's format to [pagePath]/result_1/1_0/[pageID].page,
+     * the layout Retriever.Page reads
+     */
+    public static String WritePage(File pagePath, int number, int words, long seed) throws IOException {
+        String pageID = "1_0_" + number;
+        File dir = new File(pagePath, "result_1" + File.separator + "1_0");
+        dir.mkdirs();
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(dir, pageID + ".page")), "UTF-8"));
+        writer.write("#ThisURL#\nhttp://www.nyu.edu/page" + number + ".html\n");
+        writer.write("#SubURL#\nhttp://www.nyu.edu/\n");
+        writer.write("#Length#\n" + words + "\n");
+        writer.write("#Title#\nNew York University page " + number + "\n");
+        // content is a single line
+        writer.write("#Content#\n" + Text(words, seed).replace('\n', ' ') + "\n");
+        writer.close();
+        return pageID;
+    }
+
+    /*
+     * write the postings of one word in both formats Retriever reads:
+     * [indexPath]/imp/[hash]/[term].imp (with page rank) and [indexPath]/post/[hash]/[term].post
+     * pages are 1_0_0 .. 1_0_(size-1), term frequency and page rank are random
+     * return the term, i.e. the normalized word
+     */
+    public static String WriteIndex(File indexPath, String word, int size, long seed) throws IOException {
+        Random random = new Random(seed);
+        long[] docs = new long[size];
+        int[] tfs = new int[size];
+        double[] ranks = new double[size];
+        for (int i = 0; i < size; i++) {
+            docs[i] = PostingsCodec.PackPageID("1_0_" + i);
+            tfs[i] = 1 + (int) (20 * Math.pow(random.nextDouble(), 3));
+            ranks[i] = random.nextDouble();
+        }
+        String term = TermNormalizer.Normalize(word);
+        WriteFile(new File(indexPath, "post"), term, ".post", PostingsCodec.EncodeRun(docs, tfs, size));
+
+        // impact order: page rank descending
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        final double[] unsorted = ranks;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer one, Integer two) {
+                return Double.compare(unsorted[two], unsorted[one]);
+            }
+        });
+        long[] impactDocs = new long[size];
+        int[] impactTfs = new int[size];
+        double[] impactRanks = new double[size];
+        for (int i = 0; i < size; i++) {
+            impactDocs[i] = docs[order[i]];
+            impactTfs[i] = tfs[order[i]];
+            impactRanks[i] = ranks[order[i]];
+        }
+        WriteFile(new File(indexPath, "imp"), term, ".imp",
+                PostingsCodec.EncodeImpactRun(impactDocs, impactTfs, impactRanks, size));
+        return term;
+    }
+
+    private static void WriteFile(File dir, String term, String extension, byte[] content) throws IOException {
+        // must be the same with the MODULE in Retriever.readIndex()
+        File hashDir = new File(dir, String.valueOf(Math.abs(term.hashCode()) % 500));
+        hashDir.mkdirs();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(hashDir, term + extension)));
+        out.write(content);
+        out.close();
+    }
+
+    public static void DeleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    DeleteFolder(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        folder.delete();
+    }
+}
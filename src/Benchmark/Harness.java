@@ -0,0 +1,242 @@
+package Benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small measuring harness for the hot paths, in the spirit of JMH "avgt" mode:
+ * warm up iterations first, then each measured iteration calls the operation again and again
+ * for a fixed time, and the score is the average time of one call.
+ *
+ * Besides time, every iteration records what JMH's GC profiler reports: bytes allocated by the
+ * benchmark thread per call, allocation rate, and count and time of garbage collections.
+ * Results can be saved as JSON in the same layout as JMH's "-rf json", so tools and scripts
+ * written for JMH can read them.
+ */
+public class Harness {
+    /*
+     * one call of the measured code, the returned value is consumed so that
+     * the JIT cannot drop the work as dead code
+     */
+    public interface Op {
+        Object Run() throws Exception;
+    }
+
+    public static class Result {
+        public final String benchmark;
+        public final String params;
+        public final int iterations;
+        public final double nanosPerOp;     // mean of all measured iterations
+        public final double nanosError;     // standard deviation between iterations
+        public final double bytesPerOp;     // -1 if the JVM cannot count allocated bytes
+        public final double allocMBPerSec;
+        public final long gcCount;
+        public final long gcMillis;
+
+        Result(String b, String p, int n, double time, double error, double bytes, double rate,
+               long count, long millis) {
+            benchmark = b;
+            params = p;
+            iterations = n;
+            nanosPerOp = time;
+            nanosError = error;
+            bytesPerOp = bytes;
+            allocMBPerSec = rate;
+            gcCount = count;
+            gcMillis = millis;
+        }
+    }
+
+    private int WARMUP_ITERATIONS;
+    private int ITERATIONS;
+    private long ITERATION_MILLIS;
+    private String filter;      // only run benchmarks whose name contains it, "" runs all
+    private List<Result> results;
+    private int blackhole;
+
+    public Harness(int warmup, int iterations, long iterationMillis, String f) {
+        WARMUP_ITERATIONS = warmup;
+        ITERATIONS = iterations;
+        ITERATION_MILLIS = iterationMillis;
+        filter = f == null ? "" : f;
+        results = new ArrayList<Result>();
+    }
+
+    public boolean Enabled(String benchmark) {
+        return benchmark.contains(filter);
+    }
+
+    public List<Result> GetResults() {
+        return results;
+    }
+
+    /*
+     * params describe the fixture, e.g. "words=1000,api=sink"
+     * return null if the benchmark is filtered out
+     */
+    public Result Measure(String benchmark, String params, Op op) throws Exception {
+        if (!Enabled(benchmark)) {
+            return null;
+        }
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            RunIteration(op);
+        }
+        double[] nanosPerOp = new double[ITERATIONS];
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long[] iteration = RunIteration(op);
+            nanosPerOp[i] = (double) iteration[1] / iteration[0];
+            ops += iteration[0];
+            nanos += iteration[1];
+            bytes = bytes < 0 || iteration[2] < 0 ? -1 : bytes + iteration[2];
+            gcCount += iteration[3];
+            gcMillis += iteration[4];
+        }
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value;
+        }
+        mean /= ITERATIONS;
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean);
+        }
+        double error = ITERATIONS > 1 ? Math.sqrt(variance / (ITERATIONS - 1)) : 0;
+        double bytesPerOp = bytes < 0 ? -1 : (double) bytes / ops;
+        double rate = bytes < 0 ? -1 : bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+
+        Result result = new Result(benchmark, params, ITERATIONS, mean, error, bytesPerOp, rate,
+                gcCount, gcMillis);
+        results.add(result);
+        System.out.println(Describe(result));
+        return result;
+    }
+
+    /*
+     * return {ops, nanos, allocated bytes, gc count, gc millis}
+     */
+    private long[] RunIteration(Op op) throws Exception {
+        long gcCountBefore = GcCount();
+        long gcMillisBefore = GcMillis();
+        long bytesBefore = AllocatedBytes();
+        long begin = System.nanoTime();
+        long deadline = begin + ITERATION_MILLIS * 1000000L;
+        long ops = 0;
+        do {
+            Object res = op.Run();
+            blackhole ^= res == null ? 0 : System.identityHashCode(res);
+            ops++;
+        } while (System.nanoTime() < deadline);
+        long nanos = System.nanoTime() - begin;
+        long bytesAfter = AllocatedBytes();
+        long bytes = bytesBefore < 0 ? -1 : bytesAfter - bytesBefore;
+        return new long[] {ops, nanos, bytes, GcCount() - gcCountBefore, GcMillis() - gcMillisBefore};
+    }
+
+    /*
+     * bytes allocated by the current thread so far, -1 if the JVM does not support it
+     */
+    private static long AllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long GcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long GcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+
+    public static String Describe(Result result) {
+        return String.format("%-28s %-28s %14.1f +- %10.1f ns/op %12.1f B/op %9.1f MB/s gc=%d (%d ms)",
+                result.benchmark, result.params, result.nanosPerOp, result.nanosError, result.bytesPerOp,
+                result.allocMBPerSec, result.gcCount, result.gcMillis);
+    }
+
+    /*
+     * same fields as JMH json result, "scoreError" is the standard deviation here,
+     * params are split at "," and "="
+     */
+    public void WriteJson(File file, String version) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            sb.append("  {\n");
+            sb.append("    \"benchmark\" : ").append(Quote(result.benchmark)).append(",\n");
+            sb.append("    \"mode\" : \"avgt\",\n");
+            sb.append("    \"version\" : ").append(Quote(version)).append(",\n");
+            sb.append("    \"jvm\" : ").append(Quote(System.getProperty("java.version"))).append(",\n");
+            sb.append("    \"measurementIterations\" : ").append(result.iterations).append(",\n");
+            sb.append("    \"measurementTime\" : ").append(Quote(ITERATION_MILLIS + " ms")).append(",\n");
+            sb.append("    \"params\" : {");
+            String[] params = result.params.isEmpty() ? new String[0] : result.params.split(",");
+            for (int j = 0; j < params.length; j++) {
+                String[] pair = params[j].split("=", 2);
+                sb.append(j == 0 ? " " : ", ").append(Quote(pair[0])).append(" : ")
+                        .append(Quote(pair.length > 1 ? pair[1] : ""));
+            }
+            sb.append(params.length == 0 ? "},\n" : " },\n");
+            sb.append("    \"primaryMetric\" : ")
+                    .append(Metric(result.nanosPerOp, result.nanosError, "ns/op")).append(",\n");
+            sb.append("    \"secondaryMetrics\" : {\n");
+            sb.append("      \"gc.alloc.rate.norm\" : ").append(Metric(result.bytesPerOp, 0, "B/op")).append(",\n");
+            sb.append("      \"gc.alloc.rate\" : ").append(Metric(result.allocMBPerSec, 0, "MB/sec")).append(",\n");
+            sb.append("      \"gc.count\" : ").append(Metric(result.gcCount, 0, "counts")).append(",\n");
+            sb.append("      \"gc.time\" : ").append(Metric(result.gcMillis, 0, "ms")).append("\n");
+            sb.append("    }\n");
+            sb.append(i == results.size() - 1 ? "  }\n" : "  },\n");
+        }
+        sb.append("]\n");
+        FileWriter writer = new FileWriter(file);
+        writer.write(sb.toString());
+        writer.close();
+    }
+
+    private static String Metric(double score, double error, String unit) {
+        return String.format("{ \"score\" : %s, \"scoreError\" : %s, \"scoreUnit\" : %s }",
+                Double.toString(score), Double.toString(error), Quote(unit));
+    }
+
+    private static String Quote(String str) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
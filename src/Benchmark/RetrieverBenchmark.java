@@ -0,0 +1,88 @@
+package Benchmark;
+
+import Retriever.Page;
+import Retriever.Retriever;
+import Retriever.Sequence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Benchmarks of the query side hot paths, run by Benchmarks, through Retriever.open() and Retriever.readWord().
+ */
+class RetrieverBenchmark {
+    private static final String WORD = "search";
+
+    /**
+     * Retriever.readIndex: read the postings of one word with Retriever.readWord(), from an impact ordered (.imp)
+     * and from a compressed (.post) index, for each postings list size
+     * Page.calculateScore: score a page with the term frequency from the index, and
+     * by counting the word in the page content, for each page length
+     */
+    static void Run(Harness harness, File fixturePath, int[] postingSizes, int[] pageSizes)
+            throws Exception {
+        File indexPath = new File(fixturePath, "index");
+        File pagePath = new File(fixturePath, "pages");
+        int maxPage = 0;
+        for (int size : pageSizes) {
+            maxPage = Math.max(maxPage, size);
+        }
+
+        if (harness.Enabled("Retriever.readIndex")) {
+            for (int size : postingSizes) {
+                final String word = WORD + size;
+                Fixtures.WriteIndex(indexPath, word, size, size);
+                for (String format : new String[] {"imp", "post"}) {
+                    Retriever.open(new File(indexPath, format).getPath(), pagePath.getPath(), 960000);
+                    harness.Measure("Retriever.readIndex", "postings=" + size + ",format=" + format,
+                            new Harness.Op() {
+                                public Object Run() {
+                                    return Retriever.readWord(word);
+                                }
+                            });
+                }
+            }
+        }
+
+        if (harness.Enabled("Page.calculateScore")) {
+            // the pages are 1_0_[page length], all of them are in the postings of WORD
+            for (int size : pageSizes) {
+                Fixtures.WritePage(pagePath, size, size, size);
+            }
+            Fixtures.WriteIndex(indexPath, WORD, maxPage + 1, 0);
+            Retriever.open(new File(indexPath, "imp").getPath(), pagePath.getPath(), 960000);
+            List<String> queryWords = new ArrayList<String>();
+            queryWords.add(WORD);
+            final Sequence seq = new Sequence(queryWords, 0, 0);
+            for (int size : pageSizes) {
+                HashSet<Page> pages = Retriever.readWord(WORD);
+                Page indexed = null;
+                for (Page page : pages) {
+                    if (page.getID().equals("1_0_" + size)) {
+                        indexed = page;
+                    }
+                }
+                Page scanned = new Page("1_0_" + size, 0, pagePath.getPath() + File.separator);
+                indexed.parsePage();
+                scanned.parsePage();
+                if (!indexed.isValid() || !scanned.isValid()) {
+                    throw new IOException("Cannot read benchmark page 1_0_" + size);
+                }
+                for (final Page page : new Page[] {indexed, scanned}) {
+                    harness.Measure("Page.calculateScore",
+                            "words=" + size + ",tf=" + (page == indexed ? "index" : "scan"),
+                            new Harness.Op() {
+                                public Object Run() {
+                                    page.addSeq(seq);
+                                    page.calculateScore();
+                                    return page;
+                                }
+                            });
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package Benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the web, so the crawler can be run and measured without the internet.
+ *
+ * Host h (0 <= h < hosts) is 127.0.0.[h + 1], each host is a server on the same port of its
+ * own loopback address, so the crawler sees as many hosts as there are (Linux routes the
+ * whole 127.0.0.0/8 to loopback). Page i of a host is /p/i, and /p/0 is its home page.
+ * Everything about a page comes from seed, host and i, so the graph is the same every run:
+ * its text (Fixtures.Text) and length, its links (most to its own host), whether it answers
+ * 500 or 404, and how long it takes to answer.
+ *
+ * Every robotsEvery-th host has a robots.txt disallowing /private/, and some of its pages link
+ * there; the others have none (404). A host answers 503 to a page asked for less than throttle ms
+ * after its last answer.
+ *
+ * The server watches the crawler: a page of a host asked for less than politeness ms after its
+ * last answer, or while another page of it is being answered, is a politeness violation; a page
+ * asked for again without If-None-Match / If-Modified-Since is a duplicate fetch; a /private/
+ * page of a host with robots.txt is a robots violation.
+ *
+ * Parameters:
+ * -port [default 8090] -hosts [default 8] -pages [pages per host, default 200] -links [links per page, default 10]
+ * -cross [share of links to other hosts, default 0.2] -words [min,max words per page, default 200,2000]
+ * -latency [ms, default 20] -jitter [ms, default 20] -errors [share of pages answering 500, default 0.02]
+ * -missing [share answering 404, default 0.02] -robots [every n-th host has robots.txt, default 2]
+ * -throttle [ms, default 500] -politeness [ms, default 1000] -seed [default 1]
+ */
+public class SyntheticWeb {
+    private static final String PRIVATE = "/private/";
+    private static final String ROBOTS = "/robots.txt";
+
+    public int port = 8090;
+    public int hosts = 8;
+    public int pages = 200;
+    public int links = 10;
+    public double cross = 0.2;
+    public int minWords = 200;
+    public int maxWords = 2000;
+    public int latency = 20;
+    public int jitter = 20;
+    public double errors = 0.02;
+    public double missing = 0.02;
+    public int robotsEvery = 2;
+    public int throttle = 500;
+    public int politeness = 1000;
+    public long seed = 1;
+
+    private final List<HttpServer> servers = new ArrayList<HttpServer>();
+    private ExecutorService executor;
+    private ScheduledExecutorService delays;
+    private HostState[] states;
+    // how many times each page was asked for, without a validator
+    private final ConcurrentHashMap<String, AtomicInteger> fetchCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicLong firstRequest = new AtomicLong(0);
+    private final AtomicLong lastRequest = new AtomicLong(0);
+    private final AtomicInteger requests = new AtomicInteger(0);
+    private final AtomicInteger robotsRequests = new AtomicInteger(0);
+    private final AtomicInteger ok = new AtomicInteger(0);
+    private final AtomicInteger serverErrors = new AtomicInteger(0);
+    private final AtomicInteger notFound = new AtomicInteger(0);
+    private final AtomicInteger throttled = new AtomicInteger(0);
+    private final AtomicInteger politenessViolations = new AtomicInteger(0);
+    private final AtomicInteger robotsViolations = new AtomicInteger(0);
+    private final AtomicInteger duplicates = new AtomicInteger(0);
+    private final AtomicLong bytes = new AtomicLong(0);
+
+    public static void main(String[] args) throws Exception {
+        SyntheticWeb web = new SyntheticWeb();
+        web.ParseArgs(args);
+        web.Start();
+        System.out.println("Synthetic web of " + web.hosts + " hosts x " + web.pages + " pages, roots:");
+        for (String root : web.Roots()) {
+            System.out.println(root);
+        }
+        System.out.println("Press Enter to stop and print what the crawler did");
+        System.in.read();
+        System.out.println(web.Report());
+        web.Stop();
+    }
+
+    /*
+     * reads the parameters listed above, and returns the ones it does not know
+     */
+    public List<String> ParseArgs(String[] args) {
+        List<String> rest = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                rest.add(args[i]);
+            } else if ("-port".equals(args[i])) {
+                port = Integer.valueOf(args[++i]);
+            } else if ("-hosts".equals(args[i])) {
+                hosts = Integer.valueOf(args[++i]);
+            } else if ("-pages".equals(args[i])) {
+                pages = Integer.valueOf(args[++i]);
+            } else if ("-links".equals(args[i])) {
+                links = Integer.valueOf(args[++i]);
+            } else if ("-cross".equals(args[i])) {
+                cross = Double.valueOf(args[++i]);
+            } else if ("-words".equals(args[i])) {
+                String[] range = args[++i].split(",");
+                minWords = Integer.valueOf(range[0].trim());
+                maxWords = Integer.valueOf(range[range.length - 1].trim());
+            } else if ("-latency".equals(args[i])) {
+                latency = Integer.valueOf(args[++i]);
+            } else if ("-jitter".equals(args[i])) {
+                jitter = Integer.valueOf(args[++i]);
+            } else if ("-errors".equals(args[i])) {
+                errors = Double.valueOf(args[++i]);
+            } else if ("-missing".equals(args[i])) {
+                missing = Double.valueOf(args[++i]);
+            } else if ("-robots".equals(args[i])) {
+                robotsEvery = Integer.valueOf(args[++i]);
+            } else if ("-throttle".equals(args[i])) {
+                throttle = Integer.valueOf(args[++i]);
+            } else if ("-politeness".equals(args[i])) {
+                politeness = Integer.valueOf(args[++i]);
+            } else if ("-seed".equals(args[i])) {
+                seed = Long.valueOf(args[++i]);
+            } else {
+                rest.add(args[i]);
+            }
+        }
+        if (hosts <= 0 || hosts > 250 || pages <= 0 || links < 0 || minWords <= 0 || maxWords < minWords) {
+            System.out.println("There are something wrong for your parameters:\n[hosts 1-250], [pages], [links], [words]");
+            System.exit(1);
+        }
+        return rest;
+    }
+
+    public void Start() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        delays = Executors.newScheduledThreadPool(4);
+        states = new HostState[hosts];
+        for (int h = 0; h < hosts; h++) {
+            states[h] = new HostState();
+            final int host = h;
+            HttpServer server = HttpServer.create(new InetSocketAddress(HostName(h), port), 0);
+            server.createContext("/", new HttpHandler() {
+                public void handle(HttpExchange exchange) throws IOException {
+                    Serve(host, exchange);
+                }
+            });
+            server.setExecutor(executor);
+            server.start();
+            servers.add(server);
+        }
+    }
+
+    public void Stop() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+        delays.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /*
+     * the home pages of all the hosts, one url each, as a root file of the crawler
+     */
+    public List<String> Roots() {
+        List<String> roots = new ArrayList<String>();
+        for (int h = 0; h < hosts; h++) {
+            roots.add(Url(h, 0));
+        }
+        return roots;
+    }
+
+    /*
+     * what the crawler did, from the requests it sent
+     */
+    public String Report() {
+        long seconds = Math.max(1, lastRequest.get() - firstRequest.get()) / 1000;
+        StringBuilder sb = new StringBuilder();
+        sb.append("requests ").append(requests.get()).append(" (robots.txt ").append(robotsRequests.get())
+                .append(") in ").append(seconds).append(" s\n");
+        sb.append("pages served ").append(ok.get()).append(", ").append(bytes.get()).append(" bytes\n");
+        sb.append("500 ").append(serverErrors.get()).append(", 404 ").append(notFound.get())
+                .append(", 503 throttled ").append(throttled.get()).append('\n');
+        sb.append("distinct pages fetched ").append(fetchCounts.size()).append(" of ").append(hosts * pages).append('\n');
+        sb.append("duplicate fetches ").append(duplicates.get()).append('\n');
+        sb.append("politeness violations ").append(politenessViolations.get()).append('\n');
+        sb.append("robots violations ").append(robotsViolations.get()).append('\n');
+        return sb.toString();
+    }
+
+    public int PagesServed() {
+        return ok.get();
+    }
+
+    public int DuplicateFetches() {
+        return duplicates.get();
+    }
+
+    public int PolitenessViolations() {
+        return politenessViolations.get();
+    }
+
+    public int RobotsViolations() {
+        return robotsViolations.get();
+    }
+
+    public int Throttled() {
+        return throttled.get();
+    }
+
+    private void Serve(int host, final HttpExchange exchange) throws IOException {
+        long now = System.currentTimeMillis();
+        firstRequest.compareAndSet(0, now);
+        lastRequest.set(now);
+        requests.incrementAndGet();
+        String path = exchange.getRequestURI().getPath();
+        if (ROBOTS.equals(path)) {
+            robotsRequests.incrementAndGet();
+            if (host % robotsEvery == 0) {
+                Respond(exchange, 200, "text/plain", "User-agent: *\nDisallow: " + PRIVATE + "\n", 0, null);
+            } else {
+                Respond(exchange, 404, "text/plain", "", 0, null);
+            }
+            return;
+        }
+        final HostState state = states[host];
+        boolean conditional = exchange.getRequestHeaders().containsKey("If-None-Match")
+                || exchange.getRequestHeaders().containsKey("If-Modified-Since");
+        synchronized (state) {
+            if (state.active > 0 || (state.lastEnd > 0 && now - state.lastEnd < politeness)) {
+                politenessViolations.incrementAndGet();
+            }
+            if (throttle > 0 && state.active == 0 && state.lastEnd > 0 && now - state.lastEnd < throttle) {
+                throttled.incrementAndGet();
+                state.lastEnd = now;
+                Respond(exchange, 503, "text/plain", "", 0, null);
+                return;
+            }
+            state.active++;
+        }
+        if (path.startsWith(PRIVATE) && host % robotsEvery == 0) {
+            robotsViolations.incrementAndGet();
+        }
+        if (!conditional) {
+            String key = host + path;
+            AtomicInteger count = fetchCounts.putIfAbsent(key, new AtomicInteger(1));
+            if (count != null && count.incrementAndGet() > 1) {
+                duplicates.incrementAndGet();
+            }
+        }
+        int page = PageNumber(path);
+        Random random = PageRandom(host, page);
+        long delay = latency + (jitter > 0 ? random.nextInt(jitter + 1) : 0);
+        double outcome = random.nextDouble();
+        if (page < 0 || page >= pages || outcome < missing) {
+            Respond(exchange, 404, "text/html", "<html><body>Not found</body></html>", delay, state);
+        } else if (outcome < missing + errors) {
+            Respond(exchange, 500, "text/html", "<html><body>Server error</body></html>", delay, state);
+        } else {
+            Respond(exchange, 200, "text/html; charset=utf-8", Html(host, page, random), delay, state);
+        }
+    }
+
+    /*
+     * answers after delay ms without holding a thread, and ends the fetch of state's host then
+     */
+    private void Respond(final HttpExchange exchange, final int status, final String type, String body,
+                         long delay, final HostState state) {
+        final byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        Runnable answer = new Runnable() {
+            public void run() {
+                // the fetch ends as the answer starts, the crawler cannot see it any earlier
+                if (state != null) {
+                    synchronized (state) {
+                        state.active--;
+                        state.lastEnd = System.currentTimeMillis();
+                    }
+                }
+                try {
+                    exchange.getResponseHeaders().set("Content-Type", type);
+                    exchange.sendResponseHeaders(status, content.length == 0 ? -1 : content.length);
+                    if (content.length > 0) {
+                        OutputStream out = exchange.getResponseBody();
+                        out.write(content);
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    // the crawler gave up on it
+                } finally {
+                    exchange.close();
+                }
+                if (status == 200) {
+                    ok.incrementAndGet();
+                    bytes.addAndGet(content.length);
+                } else if (status == 500) {
+                    serverErrors.incrementAndGet();
+                } else if (status == 404 && state != null) {
+                    notFound.incrementAndGet();
+                }
+            }
+        };
+        if (delay > 0) {
+            delays.schedule(answer, delay, TimeUnit.MILLISECONDS);
+        } else {
+            answer.run();
+        }
+    }
+
+    /*
+     * a page with a title, its text in paragraphs and its links in a list;
+     * random must be the one of the page, after the latency and the outcome were drawn
+     */
+    private String Html(int host, int page, Random random) {
+        int words = minWords + random.nextInt(maxWords - minWords + 1);
+        long textSeed = random.nextLong();
+        StringBuilder sb = new StringBuilder(words * 10);
+        sb.append("<!DOCTYPE html>\n<html lang=\"en\"><head><title>Host ").append(host).append(" page ").append(page)
+                .append("</title></head>\n<body>\n<p>").append(Fixtures.Text(words, textSeed).replace("\n", "</p>\n<p>"))
+                .append("</p>\n<ul>\n");
+        for (int i = 0; i < links; i++) {
+            int target = random.nextDouble() < cross ? random.nextInt(hosts) : host;
+            int targetPage = random.nextInt(pages);
+            String url;
+            if (host % robotsEvery == 0 && target == host && random.nextInt(10) == 0) {
+                url = "http://" + HostName(host) + ":" + port + PRIVATE + targetPage;
+            } else {
+                url = Url(target, targetPage);
+            }
+            sb.append("<li><a href=\"").append(url).append("\">link ").append(i).append("</a></li>\n");
+        }
+        sb.append("</ul>\n</body></html>\n");
+        return sb.toString();
+    }
+
+    private Random PageRandom(int host, int page) {
+        return new Random(seed * 1000003L + host * 7919L + page);
+    }
+
+    private String Url(int host, int page) {
+        return "http://" + HostName(host) + ":" + port + "/p/" + page;
+    }
+
+    private static String HostName(int host) {
+        return "127.0.0." + (host + 1);
+    }
+
+    /*
+     * the number of /p/[i] or /private/[i], -1 for anything else
+     */
+    private static int PageNumber(String path) {
+        int slash = path.lastIndexOf('/');
+        try {
+            return Integer.parseInt(path.substring(slash + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /*
+     * what a host is doing: requests being answered, and when the last one ended
+     */
+    private static class HostState {
+        private int active = 0;
+        private long lastEnd = 0;
+    }
+}
@@ -0,0 +1,143 @@
+package Indexter;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Email index, kept apart from the words index because emails are looked up by exact match.
+ *
+ * Each Indexter thread appends its email postings to its own "EMAIL_[threadID].tmp" file,
+ * so no file lock is needed. When all threads finish, Merge() combines them into:
+ * "EMAIL.epost": one compressed run (see PostingsCodec) for each email
+ * "EMAIL.dict": the dictionary, one line for each email: email \t offset \t length
+ *
+ * The postings have their own extension, so RankJoiner does not take them for the word "email".
+ *
+ * Retriever opens the dictionary once, and each email query costs one seek into EMAIL.epost
+ */
+public class EmailIndex {
+    public static final String DICT_FILE = "EMAIL.dict";
+    public static final String POSTINGS_FILE = "EMAIL.epost";
+
+    private File postingsFile;
+    private Map<String, long[]> dictionary;     // email -> {offset, length}
+
+    private EmailIndex(File file, Map<String, long[]> dict) {
+        postingsFile = file;
+        dictionary = dict;
+    }
+
+    public static String ThreadFileName(int threadID) {
+        return "EMAIL_" + threadID + ".tmp";
+    }
+
+    /*
+     * thread file record: email, length of run, run
+     */
+    public static void WriteThreadRecord(DataOutputStream out, String email, byte[] run) throws IOException {
+        out.writeUTF(email);
+        out.writeInt(run.length);
+        out.write(run);
+    }
+
+    /*
+     * combine all thread files into the dictionary and postings files, then delete them
+     */
+    public static void Merge(String resultPath, int threadNum) throws IOException {
+        Map<String, PostingsCodec.PostingList> emails = new TreeMap<String, PostingsCodec.PostingList>();
+        for (int i = 0; i < threadNum; i++) {
+            File file = new File(resultPath + File.separator + ThreadFileName(i));
+            if (!file.exists()) {
+                continue;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                while (true) {
+                    String email;
+                    try {
+                        email = in.readUTF();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    byte[] run = new byte[in.readInt()];
+                    in.readFully(run);
+                    PostingsCodec.PostingList postings = PostingsCodec.DecodePostings(run);
+                    PostingsCodec.PostingList old = emails.get(email);
+                    if (old != null) {
+                        postings = PostingsCodec.PostingList.Merge(Arrays.asList(old, postings));
+                    }
+                    emails.put(email, postings);
+                }
+            } finally {
+                in.close();
+            }
+            file.delete();
+        }
+
+        OutputStream postOut = new BufferedOutputStream(
+                new FileOutputStream(resultPath + File.separator + POSTINGS_FILE));
+        BufferedWriter dictOut = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(resultPath + File.separator + DICT_FILE), "UTF-8"));
+        long offset = 0;
+        for (Map.Entry<String, PostingsCodec.PostingList> entry : emails.entrySet()) {
+            PostingsCodec.PostingList postings = entry.getValue();
+            long[] docs = new long[postings.Size()];
+            int[] tfs = new int[postings.Size()];
+            for (int i = 0; i < postings.Size(); i++) {
+                docs[i] = postings.Doc(i);
+                tfs[i] = postings.Tf(i);
+            }
+            byte[] run = PostingsCodec.EncodeRun(docs, tfs, docs.length);
+            postOut.write(run);
+            dictOut.write(entry.getKey() + "\t" + offset + "\t" + run.length + "\n");
+            offset += run.length;
+        }
+        postOut.close();
+        dictOut.close();
+    }
+
+    /*
+     * load the dictionary in folder indexPath, return null if there is no email index
+     */
+    public static EmailIndex Open(String indexPath) throws IOException {
+        File dictFile = new File(indexPath + File.separator + DICT_FILE);
+        File postFile = new File(indexPath + File.separator + POSTINGS_FILE);
+        if (!dictFile.exists() || !postFile.exists()) {
+            return null;
+        }
+        Map<String, long[]> dict = new HashMap<String, long[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(dictFile), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.split("\t");
+            if (parts.length != 3) {
+                continue;
+            }
+            dict.put(parts[0], new long[]{Long.parseLong(parts[1]), Long.parseLong(parts[2])});
+        }
+        reader.close();
+        return new EmailIndex(postFile, dict);
+    }
+
+    /*
+     * exact match lookup, email must be in lower case, return null if email is unknown
+     */
+    public PostingsCodec.PostingList Lookup(String email) throws IOException {
+        long[] entry = dictionary.get(email);
+        if (entry == null) {
+            return null;
+        }
+        byte[] run = new byte[(int) entry[1]];
+        RandomAccessFile file = new RandomAccessFile(postingsFile, "r");
+        try {
+            file.seek(entry[0]);
+            file.readFully(run);
+        } finally {
+            file.close();
+        }
+        return PostingsCodec.DecodePostings(run);
+    }
+}
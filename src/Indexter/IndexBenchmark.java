@@ -0,0 +1,124 @@
+package Indexter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index a fixed corpus sample several times and print a stable report,
+ * used to catch regressions and to choose the thread number with numbers.
+ *
+ * Parameters (same meaning as Indexter):
+ * -d [sample data folder] -ct [crawler thread num] -cj [crawler job num] -s [stoplist path]
+ * -t [indexter thread nums, e.g. 1,4,16] -w [warm up runs, default 1] -n [measured runs, default 3]
+ *
+ * Every run writes into a new temporary folder which is deleted afterwards. For each thread
+ * num the report gives the median run (by elapsed time) and its stage breakdown.
+ */
+public class IndexBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        String dataPath = "";
+        String stopWordsPath = "";
+        int ctn = 0;
+        int cjn = 0;
+        int warmup = 1;
+        int runs = 3;
+        String threadNums = "1,4";
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-d".equals(args[i])) {
+                dataPath = args[i+1];
+                i++;
+            } else if ("-ct".equals(args[i])) {
+                ctn = Integer.valueOf(args[i+1]);
+                i++;
+            } else if ("-cj".equals(args[i])) {
+                cjn = Integer.valueOf(args[i+1]);
+                i++;
+            } else if ("-s".equals(args[i])) {
+                stopWordsPath = args[i+1];
+                i++;
+            } else if ("-t".equals(args[i])) {
+                threadNums = args[i+1];
+                i++;
+            } else if ("-w".equals(args[i])) {
+                warmup = Integer.valueOf(args[i+1]);
+                i++;
+            } else if ("-n".equals(args[i])) {
+                runs = Integer.valueOf(args[i+1]);
+                i++;
+            }
+        }
+
+        if ("".equals(dataPath) || ctn == 0 || cjn == 0 || runs <= 0) {
+            System.out.println("There are something wrong for your parameters:\n[Data folder path], [Crawler thread num], [Crawler job num]");
+            System.exit(1);
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("index benchmark: ").append(dataPath).append("\n");
+        for (String num : threadNums.split(",")) {
+            int tn = Integer.valueOf(num.trim());
+            for (int i = 0; i < warmup; i++) {
+                RunOnce(dataPath, stopWordsPath, ctn, cjn, tn);
+            }
+            List<IndexStats> results = new ArrayList<IndexStats>();
+            for (int i = 0; i < runs; i++) {
+                results.add(RunOnce(dataPath, stopWordsPath, ctn, cjn, tn));
+            }
+            report.append(Describe(tn, results));
+        }
+        System.out.print(report.toString());
+    }
+
+    private static IndexStats RunOnce(String dataPath, String stopWordsPath, int ctn, int cjn, int tn)
+            throws IOException {
+        File resultDir = Files.createTempDirectory("index_benchmark").toFile();
+        try {
+            Indexter indexter = new Indexter(dataPath, resultDir.getAbsolutePath(), stopWordsPath,
+                    ctn, cjn, tn, true);
+            indexter.Process();
+            return indexter.GetStats();
+        } finally {
+            DeleteFolder(resultDir);
+        }
+    }
+
+    private static String Describe(int tn, List<IndexStats> results) {
+        IndexStats[] sorted = results.toArray(new IndexStats[results.size()]);
+        long[] elapsed = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            elapsed[i] = sorted[i].GetElapsedNanos();
+        }
+        Arrays.sort(elapsed);
+        IndexStats median = sorted[0];
+        for (IndexStats stats : sorted) {
+            if (stats.GetElapsedNanos() == elapsed[elapsed.length / 2]) {
+                median = stats;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("threads=%d runs=%d min=%.2fs median=%.2fs max=%.2fs%n", tn, sorted.length,
+                elapsed[0] / 1e9, elapsed[elapsed.length / 2] / 1e9, elapsed[elapsed.length - 1] / 1e9));
+        sb.append(median.Report());
+        return sb.toString();
+    }
+
+    private static void DeleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    DeleteFolder(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        folder.delete();
+    }
+}
@@ -0,0 +1,134 @@
+package Indexter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and timers of one Indexter run, shared by all threads.
+ *
+ * Each IndexterThread keeps its own numbers while processing a file and adds them here
+ * once per file, so threads do not fight on the counters for every token.
+ * Stages: read page file, parse content, stem words, put into posting maps, flush to disk.
+ */
+public class IndexStats {
+    public static final int READ = 0;
+    public static final int PARSE = 1;
+    public static final int STEM = 2;
+    public static final int ACCUMULATE = 3;
+    public static final int FLUSH = 4;
+    private static final String[] STAGE_NAMES = {"read", "parse", "stem", "accumulate", "flush"};
+
+    private AtomicLongArray stageNanos = new AtomicLongArray(STAGE_NAMES.length);
+    private AtomicLong docs = new AtomicLong(0);
+    private AtomicLong bytes = new AtomicLong(0);
+    private AtomicLong tokens = new AtomicLong(0);
+    private long startTime;
+    private long endTime;
+    private Thread reporter;
+
+    public IndexStats() {
+        startTime = System.nanoTime();
+        endTime = 0;
+    }
+
+    public void AddStage(int stage, long nanos) {
+        stageNanos.addAndGet(stage, nanos);
+    }
+
+    public void AddDoc(long docBytes, long docTokens) {
+        docs.incrementAndGet();
+        bytes.addAndGet(docBytes);
+        tokens.addAndGet(docTokens);
+    }
+
+    public long GetDocs() {
+        return docs.get();
+    }
+
+    public long GetBytes() {
+        return bytes.get();
+    }
+
+    public long GetTokens() {
+        return tokens.get();
+    }
+
+    public long GetStageNanos(int stage) {
+        return stageNanos.get(stage);
+    }
+
+    public static int StageCount() {
+        return STAGE_NAMES.length;
+    }
+
+    public static String StageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /*
+     * wall clock time of the run, until Finish() is called
+     */
+    public long GetElapsedNanos() {
+        return (endTime == 0 ? System.nanoTime() : endTime) - startTime;
+    }
+
+    /*
+     * print a one line summary every intervalSeconds, until Finish()
+     */
+    public void StartReporter(final int intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        reporter = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(intervalSeconds * 1000L);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    System.out.println(Summary());
+                }
+            }
+        });
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    public void Finish() {
+        endTime = System.nanoTime();
+        if (reporter != null) {
+            reporter.interrupt();
+        }
+    }
+
+    /*
+     * e.g. "docs=1200 (400.0 docs/s) MB=35.2 (11.7 MB/s) tokens=...
+     */
+    public String Summary() {
+        double seconds = GetElapsedNanos() / 1e9;
+        double mb = bytes.get() / (1024.0 * 1024.0);
+        return String.format("docs=%d (%.1f docs/s) MB=%.1f (%.2f MB/s) tokens=%d",
+                docs.get(), docs.get() / seconds, mb, mb / seconds, tokens.get());
+    }
+
+    /*
+     * full report, stage times are summed over all threads,
+     * so the percentage shows which stage the run is bound by
+     */
+    public String Report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("elapsed: %.2f s%n", GetElapsedNanos() / 1e9));
+        sb.append(Summary()).append(String.format("%n"));
+        long total = 0;
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            total += stageNanos.get(i);
+        }
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            long nanos = stageNanos.get(i);
+            sb.append(String.format("  %-10s %10.1f ms  %5.1f%%%n", STAGE_NAMES[i], nanos / 1e6,
+                    total == 0 ? 0.0 : 100.0 * nanos / total));
+        }
+        return sb.toString();
+    }
+}
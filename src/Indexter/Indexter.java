@@ -2,7 +2,12 @@ package Indexter;
 
 
 import Parser.Parser;
-import org.tartarus.snowball.ext.englishStemmer;
+import Parser.StopWords;
+import Parser.TermNormalizer;
+import Parser.TokenSink;
+import Parser.TokenType;
+import PageStore.PageRecord;
+import PageStore.PageStore;
 
 import java.io.*;
 import java.nio.channels.FileChannel;
@@ -19,28 +24,34 @@ public class Indexter {
     private String resultPath;      // path to result folder
     private String stopWordsPath;
 
-    private static Set<String> StopWordList;   // for each thread, read only
+    private static StopWords StopWordList;   // for each thread, read only
 
     private int     CRAWLER_THREADS_NUM;  // how many threads Crawler created
     private int     CRAWLER_JOB_NUM;      // how many jobs Crawler created
     private int     THREAD_NUM;         // how many threads you want to create
     private boolean NO_NUM_MODEL;    // when do index, this model decide whether save number into index file
     private boolean STOP_WORDS_MODEL;
+    private int     REPORT_INTERVAL;    // seconds between two progress reports, 0 means no report
+
+    private IndexStats stats;
 
     private static final int    WORDS_MAP_THRESHOLD = 10000;
     private static final int    EMAIL_MAP_THRESHOLD = 1000;
+    // stem and accumulate time is measured token by token in one page of TIMED_PAGE_EVERY only
+    private static final int    TIMED_PAGE_EVERY = 16;
 
     Indexter(String mp, String rp, String sp, int ctn, int cjn, int tn, boolean numModel) {
         mainPath = mp;
         resultPath = rp;
         stopWordsPath = sp;
-        StopWordList = new HashSet<String>();
+        StopWordList = StopWords.Empty();
 
         CRAWLER_THREADS_NUM = ctn;
         CRAWLER_JOB_NUM = cjn;
         THREAD_NUM = tn;
         NO_NUM_MODEL = numModel;
-
+        REPORT_INTERVAL = 0;
+        stats = new IndexStats();
 
         if ("".equals(stopWordsPath)) {
             STOP_WORDS_MODEL = false;
@@ -49,7 +60,15 @@ public class Indexter {
         }
     }
 
-    private void Process() {
+    public void SetReportInterval(int seconds) {
+        REPORT_INTERVAL = seconds;
+    }
+
+    public IndexStats GetStats() {
+        return stats;
+    }
+
+    void Process() {
         File mainDir = new File(mainPath);
         File resultDir = new File(resultPath);
         if (!mainDir.exists() || !mainDir.isDirectory() || !resultDir.exists() || !resultDir.isDirectory()) {
@@ -61,6 +80,14 @@ public class Indexter {
             ReadStopWordList();
         }
 
+        // email files left by an earlier run would be merged again
+        for (int i = 0; i < THREAD_NUM; i++) {
+            new File(resultPath + File.separator + EmailIndex.ThreadFileName(i)).delete();
+        }
+
+        stats = new IndexStats();
+        stats.StartReporter(REPORT_INTERVAL);
+
         Thread[] threads = new Thread[THREAD_NUM];
         for (int i = 0; i < THREAD_NUM; i++) {
             IndexterThread indexterThread = new IndexterThread(i, CRAWLER_JOB_NUM, mainPath);
@@ -79,23 +106,24 @@ public class Indexter {
                 System.out.println("Thread_" + i + ": meet other exception!");
             }
         }
+
+        // combine emails of all threads into the email index
+        long mergeStart = System.nanoTime();
+        try {
+            EmailIndex.Merge(resultPath, THREAD_NUM);
+        } catch (IOException e) {
+            System.out.println("Cannot build email index");
+        }
+        stats.AddStage(IndexStats.FLUSH, System.nanoTime() - mergeStart);
+        stats.Finish();
     }
 
     /*
      * read stop words list from dist
      */
     private void ReadStopWordList() {
-        String curline = "";
         try {
-            InputStreamReader read = new InputStreamReader(new FileInputStream(new File(stopWordsPath)),"UTF-8");
-            BufferedReader bufferedReader = new BufferedReader(read);
-            while((curline = bufferedReader.readLine()) != null){
-                if (!curline.equals("")) {
-                    StopWordList.add(curline);
-                }
-            }
-            bufferedReader.close();
-            read.close();
+            StopWordList = StopWords.Load(stopWordsPath);
         } catch (FileNotFoundException e) {
             System.out.println("Stop words list file doesn't exit!");
             System.exit(1);
@@ -112,22 +140,36 @@ public class Indexter {
      * The reason I choose to use inner class not indepedent class for IndexterThread
      * is that inner class can use outter class's member and method directly
      */
-    private class IndexterThread implements Runnable {
+    private class IndexterThread implements Runnable, TokenSink {
         private int threadID;
         private String mainPath;    // path of main folder (data)
         private int jobIDUpper;     // upper bound for job index
         private int beginID;        // beginID and endID is for threads folders
         private int endID;
         // each thread has its own WordsToDocs and EmailToDocs maps
-        private Map<String, Set<String>> wordsToDocs;
-        private Map<String, Set<String>> emailToDocs;
+        // WordsToDocs keeps packed pageID -> term frequency for each word
+        private Map<String, Map<Long, Integer>> wordsToDocs;
+        private Map<String, Map<Long, Integer>> emailToDocs;
+        // time spent by the current file, added to stats once per file
+        private long stemNanos;
+        private long accumulateNanos;
+        private long flushNanos;
+        // whether the tokens of the current file are timed, and the totals of the timed files
+        private boolean timing;
+        private int pageNum;
+        private long timedTokens;
+        private long timedStemNanos;
+        private long timedAccumulateNanos;
+        // the file being parsed, Parser pushes its tokens into Token()
+        private long currentPageID;
+        private int tokenNum;
 
         public IndexterThread(int tid, int upper, String path) {
             threadID = tid;
             jobIDUpper = upper;
             mainPath = path;
-            wordsToDocs = new HashMap<String, Set<String>>();
-            emailToDocs = new HashMap<String, Set<String>>();
+            wordsToDocs = new HashMap<String, Map<Long, Integer>>();
+            emailToDocs = new HashMap<String, Map<Long, Integer>>();
         }
 
         public void Initialize(int CrawlerThreadsNum, int threadsNum) {
@@ -163,9 +205,10 @@ public class Indexter {
                         String ext = GetExtension(name);
                         if (ext.equals("")) {
                             ProcessOneFile(file);
-                            System.out.println("Thread_" + threadID + " builded indexer for file:\t" + name);
                         }
                     }
+                    // pages the crawler appended to segment files are streamed one by one
+                    ProcessSegments(curFolder);
                 }
             }
             if (!emailToDocs.isEmpty()) {
@@ -200,46 +243,118 @@ public class Indexter {
         }
 
         /*
-         * key method, in this method, transfer a token to a valid term in index file
+         * read and parse one page file, its tokens are handled by Token()
          */
         private void ProcessOneFile(File file) {
-            String pageID = file.getName();
+            long begin = System.nanoTime();
             String content = GetFileContent(file);
+            ProcessOnePage(file.getName(), content, file.length(), System.nanoTime() - begin);
+        }
+
+        /*
+         * read and parse the pages in the segment files of a crawler thread folder,
+         * read time of a page is the time between two pages given by the scan
+         */
+        private void ProcessSegments(File folder) {
+            final long[] begin = new long[]{System.nanoTime()};
+            try {
+                PageStore.scanSegments(folder, new PageStore.Visitor() {
+                    public void visit(PageRecord page) {
+                        String content = page.getContent();
+                        ProcessOnePage(page.getPageID(), content, page.getSize(), System.nanoTime() - begin[0]);
+                        begin[0] = System.nanoTime();
+                    }
+                });
+            } catch (IOException e) {
+                System.out.println("Thread_" + threadID + " cannot read segments in " + folder.getName());
+            }
+        }
+
+        /*
+         * parse the content of one page, its tokens are handled by Token()
+         */
+        private void ProcessOnePage(String pageID, String content, long size, long readNanos) {
+            long packedID;
+            try {
+                packedID = PostingsCodec.PackPageID(pageID);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Thread_" + threadID + " skip file with invalid pageID: " + pageID);
+                return;
+            }
+            long parseBegin = System.nanoTime();
+            stats.AddStage(IndexStats.READ, readNanos);
             if (content == null || "".equals(content)) {
                 return;
             }
 
+            // tokens go into the posting maps while parsing, stem and accumulate time are
+            // measured by Token() in the timed files, and estimated from their time per token
+            // in the others, a timer around every token would cost as much as a stem
+            currentPageID = packedID;
+            tokenNum = 0;
+            stemNanos = 0;
+            accumulateNanos = 0;
+            flushNanos = 0;
+            timing = pageNum++ % TIMED_PAGE_EVERY == 0;
             Parser parser = new Parser(content, StopWordList);
-            parser.Parse();
-            List<String> resTokens = parser.GetResTokens();
-            List<String> tokensType = parser.GetTokensType();
-            for (int i = 0; i < resTokens.size(); i++) {
-                if (tokensType.get(i).equals("NUM")) {
-                    if (NO_NUM_MODEL) {
-                        continue;
-                    } else {
-                        PutIntoWordsPostingList(resTokens.get(i), pageID);
+            parser.Parse(this);
+            // flush time is already counted by WriteWordsMap() and WriteEmailMap()
+            long loopNanos = System.nanoTime() - parseBegin;
+            if (timing) {
+                timedTokens += tokenNum;
+                timedStemNanos += stemNanos;
+                timedAccumulateNanos += accumulateNanos;
+            }
+            else if (timedTokens > 0) {
+                stemNanos = timedStemNanos * tokenNum / timedTokens;
+                accumulateNanos = timedAccumulateNanos * tokenNum / timedTokens;
+            }
+            stats.AddStage(IndexStats.STEM, stemNanos);
+            stats.AddStage(IndexStats.ACCUMULATE, accumulateNanos);
+            stats.AddStage(IndexStats.PARSE, Math.max(0, loopNanos - stemNanos - accumulateNanos - flushNanos));
+            stats.AddDoc(size, tokenNum);
+        }
+
+        /*
+         * key method, transfer a token to a valid term in index file
+         * only tokens which are really indexed are copied out of content
+         */
+        public void Token(CharSequence text, int start, int end, byte type, int position) {
+            tokenNum++;
+            switch (type) {
+                case TokenType.NUM:
+                    if (!NO_NUM_MODEL) {
+                        PutIntoWordsPostingList(text.subSequence(start, end).toString(), currentPageID);
                     }
-                } else if (tokensType.get(i).equals("EMAIL")) {
-                    PutIntoEmailPostingList(resTokens.get(i).toLowerCase(), pageID);
-                } else if (tokensType.get(i).equals("WORD")) {
-                    String tempStr = resTokens.get(i).toLowerCase();
-                    tempStr = StemEnglishWord(tempStr);
-                    PutIntoWordsPostingList(tempStr, pageID);
-                } else if (tokensType.get(i).equals("URL")) {
+                    break;
+                case TokenType.EMAIL:
+                    PutIntoEmailPostingList(TermNormalizer.ToLowerCase(text.subSequence(start, end).toString()),
+                            currentPageID);
+                    break;
+                case TokenType.WORD:
+                    PutIntoWordsPostingList(Normalize(text.subSequence(start, end).toString()), currentPageID);
+                    break;
+                case TokenType.URL:
                     // do nothing
-                } else if (tokensType.get(i).equals("STOPWORD")) {
-                    if (STOP_WORDS_MODEL) {
-                        continue;
-                    } else {
-                        String tempStr = resTokens.get(i).toLowerCase();
-                        tempStr = StemEnglishWord(tempStr);
-                        PutIntoWordsPostingList(tempStr, pageID);
+                    break;
+                case TokenType.STOPWORD:
+                    if (!STOP_WORDS_MODEL) {
+                        PutIntoWordsPostingList(Normalize(text.subSequence(start, end).toString()), currentPageID);
                     }
-                } else {
-                    System.out.println("Token type is wrong: " + tokensType.get(i));
-                }
+                    break;
+                default:
+                    System.out.println("Token type is wrong: " + type);
+            }
+        }
+
+        private String Normalize(String token) {
+            if (!timing) {
+                return TermNormalizer.Normalize(token);
             }
+            long begin = System.nanoTime();
+            String term = TermNormalizer.Normalize(token);
+            stemNanos += System.nanoTime() - begin;
+            return term;
         }
 
         /*
@@ -275,30 +390,21 @@ public class Indexter {
             return content;
         }
 
-        /*
-         * stermming
-         * use snawball.jar to transfer english word back to its prototype
-         */
-        private String StemEnglishWord(String token) {
-            englishStemmer stemmer = new englishStemmer();
-            stemmer.setCurrent(token);
-            if (stemmer.stem()) {
-                return stemmer.getCurrent();
-            }
-            return token;
-        }
-
         /*
          * insert email and related pageID into map
          * if map size is bigger than threshold, store them back to email file
          */
-        private void PutIntoEmailPostingList(String email, String pageID) {
-            if (!emailToDocs.containsKey(email)) {
-                Set<String> tempSet = new HashSet<String>();
-                tempSet.add(pageID);
-                emailToDocs.put(email, tempSet);
-            } else {
-                emailToDocs.get(email).add(pageID);
+        private void PutIntoEmailPostingList(String email, long pageID) {
+            long begin = timing ? System.nanoTime() : 0;
+            Map<Long, Integer> postingList = emailToDocs.get(email);
+            if (postingList == null) {
+                postingList = new HashMap<Long, Integer>();
+                emailToDocs.put(email, postingList);
+            }
+            Integer tf = postingList.get(pageID);
+            postingList.put(pageID, tf == null ? 1 : tf + 1);
+            if (timing) {
+                accumulateNanos += System.nanoTime() - begin;
             }
 
             if (emailToDocs.size() >= EMAIL_MAP_THRESHOLD) {
@@ -308,16 +414,20 @@ public class Indexter {
 
 
         /*
-         * insert token and related pageID into map
+         * insert token and related pageID into map, and count term frequency
          * if map size is bigger than threshold, store them back to words file
          */
-        private void PutIntoWordsPostingList(String token, String pageID) {
-            if (!wordsToDocs.containsKey(token)) {
-                Set<String> tempSet = new HashSet<String>();
-                tempSet.add(pageID);
-                wordsToDocs.put(token, tempSet);
-            } else {
-                wordsToDocs.get(token).add(pageID);
+        private void PutIntoWordsPostingList(String token, long pageID) {
+            long begin = timing ? System.nanoTime() : 0;
+            Map<Long, Integer> postingList = wordsToDocs.get(token);
+            if (postingList == null) {
+                postingList = new HashMap<Long, Integer>();
+                wordsToDocs.put(token, postingList);
+            }
+            Integer tf = postingList.get(pageID);
+            postingList.put(pageID, tf == null ? 1 : tf + 1);
+            if (timing) {
+                accumulateNanos += System.nanoTime() - begin;
             }
 
             if (wordsToDocs.size() >= WORDS_MAP_THRESHOLD) {
@@ -326,67 +436,33 @@ public class Indexter {
         }
 
         /*
-         * use file lock to deal with concurrency problem
+         * each thread appends emails to its own file, so there is no need of file lock
+         * EmailIndex.Merge() combines these files when all threads finish
          */
         private void WriteEmailMap() {
-            RandomAccessFile emailFile = null;
-            FileChannel emailFileChannel = null;
-            FileLock emailFileLock = null;
+            long begin = System.nanoTime();
             String emailFilePath = BuildEmailFilePath();
-            String emailContent = "";
-            for (String key : emailToDocs.keySet()) {
-                Set<String> postingList = emailToDocs.get(key);
-                emailContent = key + "\t";
-                for (String pageID : postingList) {
-                    emailContent += pageID + "\t";
-                }
-                emailContent += "\n";
-            }
-            if (!"".equals(emailContent)) {
-                // use trylock()
-                try {
-                    emailFile = new RandomAccessFile(emailFilePath, "rw");
-                    emailFileChannel = emailFile.getChannel();
-
-                    while (true) {
-                        try {
-                            emailFileLock = emailFileChannel.tryLock();
-                            break;
-                        } catch (Exception e) {
-                            System.out.println("Thread: " + threadID + " sleep 20ms (Other thread is using the file)");
-                            sleep(20);
-                        }
-                    }
-
-                    emailFile.seek(emailFile.length());
-                    emailFile.write(emailContent.getBytes());
-                    emailFileLock.release();
-                    emailFileChannel.close();
-                    emailFile.close();
-                } catch (FileNotFoundException e) {
-                    System.out.println("There is no EMAIL file");
-                    return;
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                } catch (Exception e) {
-                    e.printStackTrace();
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(emailFilePath, true)));
+                for (String key : emailToDocs.keySet()) {
+                    EmailIndex.WriteThreadRecord(out, key, EncodePostingList(emailToDocs.get(key)));
                 }
+                out.close();
+            } catch (IOException e) {
+                System.out.println("Thread: " + threadID + " cannot write email file");
             }
             emailToDocs.clear();
+            AddFlushTime(System.nanoTime() - begin);
         }
 
         /*
          * use file lock to deal with concurrency problem
          */
         private void WriteWordsMap() {
+            long begin = System.nanoTime();
             for (String key : wordsToDocs.keySet()) {
-                Set<String> postingList = wordsToDocs.get(key);
-                String content = "";
-                for (String pageID : postingList) {
-                    content += pageID + "\n";
-                }
+                byte[] content = EncodePostingList(wordsToDocs.get(key));
                 String filePath = BuildWordFilePath(key);
                 RandomAccessFile file = null;
                 FileChannel fileChannel = null;
@@ -408,7 +484,7 @@ public class Indexter {
                     }
 
                     file.seek(file.length());
-                    file.write(content.getBytes());
+                    file.write(content);
                     fileLock.release();
                     fileChannel.close();
                     file.close();
@@ -424,15 +500,39 @@ public class Indexter {
                 }
             }
             wordsToDocs.clear();
+            AddFlushTime(System.nanoTime() - begin);
+        }
+
+        private void AddFlushTime(long nanos) {
+            flushNanos += nanos;
+            stats.AddStage(IndexStats.FLUSH, nanos);
+        }
+
+        /*
+         * sort one word's postings by pageID and encode them as a compressed run
+         */
+        private byte[] EncodePostingList(Map<Long, Integer> postingList) {
+            int size = postingList.size();
+            long[] docs = new long[size];
+            int i = 0;
+            for (long pageID : postingList.keySet()) {
+                docs[i++] = pageID;
+            }
+            Arrays.sort(docs);
+            int[] tfs = new int[size];
+            for (i = 0; i < size; i++) {
+                tfs[i] = postingList.get(docs[i]);
+            }
+            return PostingsCodec.EncodeRun(docs, tfs, size);
         }
 
         private String BuildEmailFilePath() {
-            return resultPath + File.separator + "EMAIL.ema";
+            return resultPath + File.separator + EmailIndex.ThreadFileName(threadID);
         }
 
-        // each word file has a special extension ".word"
+        // each word file has a special extension ".post", see PostingsCodec for its format
         private String BuildWordFilePath(String word) {
-            return resultPath + File.separator + word + ".word";
+            return resultPath + File.separator + word + ".post";
         }
     }
 
@@ -444,6 +544,7 @@ public class Indexter {
         int cjn = 0;
         int tn = 100;
         boolean numModle = true;
+        int reportInterval = 10;
 
         for (int i = 0; i < args.length; i++) {
             if ("-d".equals(args[i])) {
@@ -474,6 +575,10 @@ public class Indexter {
             } else if ("-s".equals(args[i])) {
                 stopWordsPath = args[i+1];
                 i++;
+            } else if ("-p".equals(args[i])) {
+                // seconds between two progress reports
+                reportInterval = Integer.valueOf(args[i+1]);
+                i++;
             } else {
                 // for the freature funtions
             }
@@ -486,7 +591,9 @@ public class Indexter {
 
         Indexter indexter = new Indexter(dataPath, resultPath, stopWordsPath, ctn, cjn, tn, numModle);
 
+        indexter.SetReportInterval(reportInterval);
         indexter.Process();
+        System.out.print(indexter.GetStats().Report());
         System.out.println("FINISH");
     }
 }
\ No newline at end of file
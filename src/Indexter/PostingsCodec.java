@@ -0,0 +1,392 @@
+package Indexter;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Binary postings format shared by Indexter (writer) and Retriever (reader).
+ *
+ * A postings file ("word.post") is a sequence of runs, each thread flush appends one run.
+ * Inside a run pageIDs are sorted, delta encoded and stored with their term frequency
+ * in blocks of BLOCK_SIZE postings, all numbers use variable-byte encoding:
+ *
+ * run:     [docCount][blockCount] block*
+ * block:   [lastDoc - previous lastDoc][payload length] payload
+ * payload: ([doc - previous doc][tf])*
+ *
+ * the block header lets a reader jump over a whole block by looking only at its last doc
+ * and payload length, NextRun() skips the rest of a run this way
+ *
+ * RankJoiner rewrites postings into impact order ("word.imp"), a single run sorted by
+ * page rank descending, pageIDs cannot be delta encoded there so they are stored as is:
+ *
+ * impact run: [docCount] ([doc][tf][rank (8 bytes)])*
+ *
+ * Retriever reads a whole impact run, it has no blocks because the page order of Retriever
+ * depends on the title of a page, which no score bound taken from the postings covers
+ */
+public class PostingsCodec {
+    public static final int BLOCK_SIZE = 128;
+
+    // pageID is "jobID_threadID_count", pack it into a long so that it can be delta encoded
+    private static final int THREAD_BITS = 16;
+    private static final int COUNT_BITS = 27;
+
+    /*
+     * "12_345_6789" -> 12 << 43 | 345 << 27 | 6789
+     */
+    public static long PackPageID(String pageID) {
+        int first = pageID.indexOf('_');
+        int second = pageID.indexOf('_', first + 1);
+        if (first <= 0 || second <= first + 1 || second == pageID.length() - 1) {
+            throw new IllegalArgumentException("Invalid pageID: " + pageID);
+        }
+        long job = Long.parseLong(pageID.substring(0, first));
+        long thread = Long.parseLong(pageID.substring(first + 1, second));
+        long count = Long.parseLong(pageID.substring(second + 1));
+        if (job < 0 || job >= (1L << (64 - THREAD_BITS - COUNT_BITS)) || thread < 0 || thread >= (1L << THREAD_BITS)
+                || count < 0 || count >= (1L << COUNT_BITS)) {
+            throw new IllegalArgumentException("PageID is out of range: " + pageID);
+        }
+        return (job << (THREAD_BITS + COUNT_BITS)) | (thread << COUNT_BITS) | count;
+    }
+
+    public static String UnpackPageID(long id) {
+        long job = id >>> (THREAD_BITS + COUNT_BITS);
+        long thread = (id >>> COUNT_BITS) & ((1L << THREAD_BITS) - 1);
+        long count = id & ((1L << COUNT_BITS) - 1);
+        return job + "_" + thread + "_" + count;
+    }
+
+    /*
+     * encode one run, docs must be sorted ascending and have no duplicates
+     */
+    public static byte[] EncodeRun(long[] docs, int[] tfs, int size) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size * 3 + 16);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(BLOCK_SIZE * 3);
+        int blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        WriteVInt(out, size);
+        WriteVInt(out, blockCount);
+
+        long lastDoc = 0;
+        for (int begin = 0; begin < size; begin += BLOCK_SIZE) {
+            int end = Math.min(size, begin + BLOCK_SIZE);
+            long prev = lastDoc;
+            payload.reset();
+            for (int i = begin; i < end; i++) {
+                WriteVLong(payload, docs[i] - prev);
+                WriteVInt(payload, tfs[i]);
+                prev = docs[i];
+            }
+            WriteVLong(out, docs[end - 1] - lastDoc);
+            WriteVInt(out, payload.size());
+            out.write(payload.toByteArray(), 0, payload.size());
+            lastDoc = docs[end - 1];
+        }
+        return out.toByteArray();
+    }
+
+    /*
+     * encode postings which are already sorted by rank descending
+     */
+    public static byte[] EncodeImpactRun(long[] docs, int[] tfs, double[] ranks, int size) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size * 14 + 8);
+        WriteVInt(out, size);
+        for (int i = 0; i < size; i++) {
+            WriteVLong(out, docs[i]);
+            WriteVInt(out, tfs[i]);
+            WriteDouble(out, ranks[i]);
+        }
+        return out.toByteArray();
+    }
+
+    /*
+     * read an impact ordered file, postings keep the order they were written in
+     */
+    public static ImpactList ReadImpactPostings(File file) throws IOException {
+        PostingsReader reader = new PostingsReader(ReadAllBytes(file));
+        int size = (int) reader.ReadVLong();
+        ImpactList list = new ImpactList(size);
+        for (int i = 0; i < size; i++) {
+            long doc = reader.ReadVLong();
+            int tf = (int) reader.ReadVLong();
+            list.Add(doc, tf, reader.ReadDouble());
+        }
+        return list;
+    }
+
+    /*
+     * read the whole postings file and merge all runs into one sorted list
+     */
+    public static PostingList ReadPostings(File file) throws IOException {
+        return DecodePostings(ReadAllBytes(file));
+    }
+
+    /*
+     * decode one or more runs, merged into one sorted list
+     */
+    public static PostingList DecodePostings(byte[] data) {
+        List<PostingList> runs = new ArrayList<PostingList>();
+        PostingsReader reader = new PostingsReader(data);
+        while (reader.NextRun()) {
+            PostingList run = new PostingList(reader.RunSize());
+            while (reader.NextDoc()) {
+                run.Add(reader.Doc(), reader.Tf());
+            }
+            runs.add(run);
+        }
+        return PostingList.Merge(runs);
+    }
+
+    private static byte[] ReadAllBytes(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    static void WriteVInt(ByteArrayOutputStream out, int value) {
+        WriteVLong(out, value & 0xFFFFFFFFL);
+    }
+
+    static void WriteDouble(ByteArrayOutputStream out, double value) {
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (bits >>> shift));
+        }
+    }
+
+    static void WriteVLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /*
+     * cursor over the encoded bytes, runs are read one by one
+     */
+    public static class PostingsReader {
+        private byte[] data;
+        private int pos;
+        private int runSize;
+        private int blocksLeft;
+        private long blockLastDoc;
+        private int blockEnd;
+        private long doc;
+        private int tf;
+
+        public PostingsReader(byte[] bytes) {
+            data = bytes;
+            pos = 0;
+            blocksLeft = 0;
+            blockEnd = 0;
+        }
+
+        /*
+         * move to the next run, return false when there is no more run
+         */
+        public boolean NextRun() {
+            // skip what is left of the current run
+            while (blocksLeft > 0 || pos < blockEnd) {
+                pos = blockEnd;
+                if (blocksLeft > 0) {
+                    ReadBlockHeader();
+                }
+            }
+            if (pos >= data.length) {
+                return false;
+            }
+            runSize = (int) ReadVLong();
+            blocksLeft = (int) ReadVLong();
+            blockLastDoc = 0;
+            doc = 0;
+            blockEnd = pos;
+            return true;
+        }
+
+        public int RunSize() {
+            return runSize;
+        }
+
+        public boolean NextDoc() {
+            if (pos >= blockEnd) {
+                if (blocksLeft == 0) {
+                    return false;
+                }
+                ReadBlockHeader();
+            }
+            doc += ReadVLong();
+            tf = (int) ReadVLong();
+            return true;
+        }
+
+        public long Doc() {
+            return doc;
+        }
+
+        public int Tf() {
+            return tf;
+        }
+
+        private void ReadBlockHeader() {
+            // doc keeps the last doc of previous block, which is the base of the first delta
+            doc = blockLastDoc;
+            blockLastDoc += ReadVLong();
+            int length = (int) ReadVLong();
+            blockEnd = pos + length;
+            blocksLeft--;
+        }
+
+        private double ReadDouble() {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (data[pos++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        private long ReadVLong() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                byte b = data[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+    }
+
+    /*
+     * decoded postings: sorted docs and their term frequencies
+     */
+    public static class PostingList {
+        private long[] docs;
+        private int[] tfs;
+        private int size;
+
+        public PostingList(int capacity) {
+            docs = new long[Math.max(capacity, 1)];
+            tfs = new int[Math.max(capacity, 1)];
+            size = 0;
+        }
+
+        public void Add(long doc, int tf) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                tfs = Arrays.copyOf(tfs, size * 2);
+            }
+            docs[size] = doc;
+            tfs[size] = tf;
+            size++;
+        }
+
+        public int Size() {
+            return size;
+        }
+
+        public long Doc(int i) {
+            return docs[i];
+        }
+
+        public int Tf(int i) {
+            return tfs[i];
+        }
+
+        /*
+         * k-way merge of sorted runs through a heap of their heads, a page which appears
+         * in more than one run has its term frequencies added up
+         */
+        static PostingList Merge(List<PostingList> runs) {
+            if (runs.size() == 1) {
+                return runs.get(0);
+            }
+            int total = 0;
+            for (PostingList run : runs) {
+                total += run.size;
+            }
+            PostingList result = new PostingList(total);
+            // each entry is {doc, run index, position}
+            PriorityQueue<long[]> heads = new PriorityQueue<long[]>(runs.size(), new Comparator<long[]>() {
+                public int compare(long[] a, long[] b) {
+                    return Long.compare(a[0], b[0]);
+                }
+            });
+            for (int r = 0; r < runs.size(); r++) {
+                if (runs.get(r).size > 0) {
+                    heads.add(new long[]{runs.get(r).docs[0], r, 0});
+                }
+            }
+            while (!heads.isEmpty()) {
+                long[] head = heads.poll();
+                PostingList run = runs.get((int) head[1]);
+                int position = (int) head[2];
+                long doc = head[0];
+                int tf = run.tfs[position];
+                if (result.size > 0 && result.docs[result.size - 1] == doc) {
+                    result.tfs[result.size - 1] += tf;
+                } else {
+                    result.Add(doc, tf);
+                }
+                if (position + 1 < run.size) {
+                    head[0] = run.docs[position + 1];
+                    head[2] = position + 1;
+                    heads.add(head);
+                }
+            }
+            return result;
+        }
+    }
+
+    /*
+     * decoded impact ordered postings
+     */
+    public static class ImpactList {
+        private long[] docs;
+        private int[] tfs;
+        private double[] ranks;
+        private int size;
+
+        ImpactList(int capacity) {
+            docs = new long[capacity];
+            tfs = new int[capacity];
+            ranks = new double[capacity];
+            size = 0;
+        }
+
+        void Add(long doc, int tf, double rank) {
+            docs[size] = doc;
+            tfs[size] = tf;
+            ranks[size] = rank;
+            size++;
+        }
+
+        public int Size() {
+            return size;
+        }
+
+        public long Doc(int i) {
+            return docs[i];
+        }
+
+        public int Tf(int i) {
+            return tfs[i];
+        }
+
+        public double Rank(int i) {
+            return ranks[i];
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package Indexter;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Join the page rank into the index built by Indexter.
+ *
+ * Reads every "word.post" file from Indexter's result folder and the "pageRank_i.rank" files
+ * saved by PageRank, then writes "word.imp" files into [save path]/[hash of word]/, which is
+ * the layout Retriever reads. Postings inside a file are sorted by page rank descending
+ * (see PostingsCodec), so Retriever can visit the best pages first without sorting.
+ */
+public class RankJoiner {
+    private String indexPath;   // Indexter result folder
+    private String rankPath;    // PageRank result folder
+    private String savePath;
+    private int THREAD_NUM;
+
+    // packed pageID -> page rank, read only after loading
+    private Map<Long, Double> pageRanks;
+
+    // must be the same with the MODULE in Retriever.readIndex()
+    private static final int MODULE = 500;
+
+    RankJoiner(String ip, String rp, String sp, int tn) {
+        indexPath = ip;
+        rankPath = rp;
+        savePath = sp;
+        THREAD_NUM = tn;
+        pageRanks = new HashMap<Long, Double>();
+    }
+
+    private void Process() {
+        File indexDir = new File(indexPath);
+        File rankDir = new File(rankPath);
+        File saveDir = new File(savePath);
+        if (!indexDir.isDirectory() || !rankDir.isDirectory() || !saveDir.isDirectory()) {
+            System.out.println("Index, rank or save path is not a directory!");
+            System.exit(1);
+        }
+
+        ReadPageRanks(rankDir);
+        System.out.println("Read page rank for " + pageRanks.size() + " pages");
+
+        CreateHashFolders(savePath);
+
+        CopyEmailIndex();
+
+        File[] files = indexDir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                // words only, the email postings are "EMAIL.epost"
+                return name.endsWith(".post");
+            }
+        });
+        Thread[] threads = new Thread[THREAD_NUM];
+        for (int i = 0; i < THREAD_NUM; i++) {
+            threads[i] = new Thread(new JoinThread(i, files));
+            threads[i].start();
+        }
+        for (int i = 0; i < THREAD_NUM; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                System.out.println("Thread_" + i + ": cannot stop");
+            }
+        }
+    }
+
+    /*
+     * the email index has no page rank, Retriever looks it up by exact match,
+     * so it is only copied next to the words index
+     */
+    private void CopyEmailIndex() {
+        String[] names = {EmailIndex.DICT_FILE, EmailIndex.POSTINGS_FILE};
+        for (String name : names) {
+            File from = new File(indexPath + File.separator + name);
+            if (!from.exists()) {
+                continue;
+            }
+            try {
+                Files.copy(from.toPath(), new File(savePath + File.separator + name).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                System.out.println("Cannot copy email index file: " + name);
+            }
+        }
+    }
+
+    /*
+     * rank file format (PageRank.saveResult): pageID and its rank, one per line
+     */
+    private void ReadPageRanks(File rankDir) {
+        File[] files = rankDir.listFiles();
+        for (File file : files) {
+            if (!file.getName().endsWith(".rank")) {
+                continue;
+            }
+            try {
+                BufferedReader reader = new BufferedReader(new FileReader(file));
+                String pageID;
+                while ((pageID = reader.readLine()) != null) {
+                    String rank = reader.readLine();
+                    if (rank == null) {
+                        break;
+                    }
+                    try {
+                        pageRanks.put(PostingsCodec.PackPageID(pageID), Double.parseDouble(rank));
+                    } catch (IllegalArgumentException e) {
+                        // also covers NumberFormatException, ignore broken records
+                    }
+                }
+                reader.close();
+            } catch (IOException e) {
+                System.out.println("Cannot read rank file: " + file.getName());
+            }
+        }
+    }
+
+    private class JoinThread implements Runnable {
+        private int threadID;
+        private File[] files;
+
+        public JoinThread(int tid, File[] fs) {
+            threadID = tid;
+            files = fs;
+        }
+
+        public void run() {
+            for (int i = threadID; i < files.length; i += THREAD_NUM) {
+                try {
+                    JoinOneFile(files[i]);
+                } catch (IOException e) {
+                    System.out.println("Thread_" + threadID + " cannot join file: " + files[i].getName());
+                }
+            }
+        }
+
+        private void JoinOneFile(File file) throws IOException {
+            String name = file.getName();
+            String word = name.substring(0, name.length() - ".post".length());
+            JoinWord(word, PostingsCodec.ReadPostings(file), pageRanks, savePath);
+        }
+    }
+
+    /*
+     * join the page rank into the postings of one word and write its "word.imp" file,
+     * pages without page rank were removed (duplicated, incomplete or replaced), drop them,
+     * and the file of a word left without pages is deleted
+     * the file is written under a temporary name and renamed, so Retriever never reads half of it
+     */
+    static void JoinWord(String word, PostingsCodec.PostingList postings, Map<Long, Double> pageRanks,
+                         String savePath) throws IOException {
+        Integer[] order = new Integer[postings.Size()];
+        final double[] ranks = new double[postings.Size()];
+        int size = 0;
+        for (int i = 0; i < postings.Size(); i++) {
+            Double rank = pageRanks.get(postings.Doc(i));
+            if (rank == null) {
+                continue;
+            }
+            ranks[i] = rank;
+            order[size++] = i;
+        }
+        int wordHash = Math.abs(word.hashCode()) % MODULE;
+        String filePath = savePath + File.separator + wordHash + File.separator + word + ".imp";
+        if (size == 0) {
+            new File(filePath).delete();
+            return;
+        }
+        final PostingsCodec.PostingList list = postings;
+        Arrays.sort(order, 0, size, new Comparator<Integer>() {
+            public int compare(Integer one, Integer two) {
+                int res = Double.compare(ranks[two], ranks[one]);
+                if (res != 0) {
+                    return res;
+                }
+                return list.Tf(two) - list.Tf(one);
+            }
+        });
+
+        long[] sortedDocs = new long[size];
+        int[] sortedTfs = new int[size];
+        double[] sortedRanks = new double[size];
+        for (int i = 0; i < size; i++) {
+            sortedDocs[i] = postings.Doc(order[i]);
+            sortedTfs[i] = postings.Tf(order[i]);
+            sortedRanks[i] = ranks[order[i]];
+        }
+        byte[] content = PostingsCodec.EncodeImpactRun(sortedDocs, sortedTfs, sortedRanks, size);
+
+        File tmp = new File(filePath + ".tmp");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+        out.write(content);
+        out.close();
+        Files.move(tmp.toPath(), new File(filePath).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * create the [hash of word] folders Retriever reads under savePath
+     */
+    static void CreateHashFolders(String savePath) {
+        for (int i = 0; i < MODULE; i++) {
+            File dir = new File(savePath + File.separator + i);
+            if (!dir.exists()) {
+                dir.mkdir();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        String indexPath = "";
+        String rankPath = "";
+        String savePath = "";
+        int tn = 10;
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-i".equals(args[i])) {
+                indexPath = args[i+1];
+                i++;
+            } else if ("-r".equals(args[i])) {
+                rankPath = args[i+1];
+                i++;
+            } else if ("-s".equals(args[i])) {
+                savePath = args[i+1];
+                i++;
+            } else if ("-t".equals(args[i])) {
+                tn = Integer.valueOf(args[i+1]);
+                i++;
+            }
+        }
+
+        if ("".equals(indexPath) || "".equals(rankPath) || "".equals(savePath)) {
+            System.out.println("There are something wrong for your 3 parameters:\n[Index path], [Rank path], [Save path]");
+            System.exit(1);
+        }
+
+        RankJoiner joiner = new RankJoiner(indexPath, rankPath, savePath, tn);
+        joiner.Process();
+        System.out.println("FINISH");
+    }
+}
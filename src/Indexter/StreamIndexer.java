@@ -0,0 +1,504 @@
+package Indexter;
+
+import PageRank.LinkGraph;
+import PageStore.PageRecord;
+import Parser.Parser;
+import Parser.StopWords;
+import Parser.TermNormalizer;
+import Parser.TokenSink;
+import Parser.TokenType;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index the pages while the crawler saves them, instead of reading the whole corpus back
+ * with RemoveDuplicates, PageRank, Indexter and RankJoiner after the crawl.
+ *
+ * Pages go through bounded queues, so a stage that falls behind slows down the one before
+ * it, and in the end the crawler:
+ * Add() -> page queue -> index threads: add the page to the link graph, a page of a url indexed
+ *                        before replaces the old one, parse it into posting maps
+ *       -> run queue  -> writer thread: append one run per word to "word.post" in [index]/postings
+ * Every publish interval, page rank is computed on the link graph (see LinkGraph) and saved
+ * to [index]/rank, and the postings of a word are joined with it into "word.imp" in
+ * [index]/search, the folder Retriever reads (see RankJoiner), so a saved page can be found
+ * a few minutes later. Only three kinds of words are joined again: the ones with runs appended
+ * since the last publish, which are compacted into one, the words of the pages which got their
+ * first rank or were replaced, and the words of the pages whose rank moved by more than
+ * RANK_CHANGE since their words were last joined, so a publish costs what changed and not the
+ * whole index. A replaced page has no rank, so the join leaves it out of the "word.imp" files. The words of each page are kept as word numbers for this.
+ * The ranks in the "word.imp" files are multiplied by the number of pages, so files joined at
+ * different publishes can be compared (Retriever only uses ranks to order pages).
+ *
+ * Words are indexed as by Indexter without stop list and without numbers. Emails are left to
+ * Indexter, because Retriever loads the email index only once when it starts.
+ */
+public class StreamIndexer {
+    private String postingsPath;    // words being indexed, "word.post"
+    private String rankPath;        // page rank of the last publish, "pageRank_i.rank"
+    private String searchPath;      // Retriever's index folder, "[hash of word]/word.imp"
+    private int THREAD_NUM;
+    private long PUBLISH_INTERVAL;  // ms
+    private double PAGE_RANK_F;
+
+    private ArrayBlockingQueue<PageRecord> pageQueue;
+    private ArrayBlockingQueue<Map<String, Map<Long, Integer>>> runQueue;
+    private LinkGraph graph;
+    private Map<String, String> urlPages;   // url -> pageID of its last page
+    // the replaced pages whose words are not joined again yet
+    private ConcurrentLinkedQueue<Long> replacedPages;
+    private IndexStats stats;
+    // the writer appends to and the publisher compacts the "word.post" files
+    private final Object postingsLock = new Object();
+    private Set<String> changedWords;   // guarded by postingsLock
+    private boolean published;
+    // the words of every page indexed, as numbers into wordList
+    private Map<Long, int[]> pageWords;
+    private Map<String, Integer> wordNumbers;   // guarded by itself, with wordList
+    private List<String> wordList;
+    // the rank of every page when its words were last joined, only used by Publish()
+    private Map<Long, Double> joinedRanks;
+
+    private Thread[] indexThreads;
+    private Thread writerThread;
+    private Thread publisherThread;
+
+    private static final int    WORDS_MAP_THRESHOLD = 10000;
+    private static final long   FLUSH_INTERVAL = 30 * 1000L;    // ms between two flushes of an index thread
+    private static final long   POLL_WAIT = 1000;
+    private static final int    RUN_QUEUE_SIZE = 16;
+    private static final double RANK_CHANGE = 0.05;         // relative
+    // ends the index threads and the writer thread
+    private static final PageRecord END_OF_PAGES = new PageRecord("", "", new ArrayList<String>(), 0, "", "");
+    private static final Map<String, Map<Long, Integer>> END_OF_RUNS = new HashMap<String, Map<Long, Integer>>();
+
+    public StreamIndexer(String indexPath, int tn, int queueSize, long publishInterval, double f) {
+        postingsPath = indexPath + File.separator + "postings";
+        rankPath = indexPath + File.separator + "rank";
+        searchPath = indexPath + File.separator + "search";
+        THREAD_NUM = tn;
+        PUBLISH_INTERVAL = publishInterval;
+        PAGE_RANK_F = f;
+        pageQueue = new ArrayBlockingQueue<PageRecord>(queueSize);
+        runQueue = new ArrayBlockingQueue<Map<String, Map<Long, Integer>>>(RUN_QUEUE_SIZE);
+        graph = new LinkGraph();
+        urlPages = new ConcurrentHashMap<String, String>();
+        replacedPages = new ConcurrentLinkedQueue<Long>();
+        stats = new IndexStats();
+        changedWords = new HashSet<String>();
+        published = false;
+        pageWords = new ConcurrentHashMap<Long, int[]>();
+        wordNumbers = new HashMap<String, Integer>();
+        wordList = new ArrayList<String>();
+        joinedRanks = new HashMap<Long, Double>();
+    }
+
+    /*
+     * create the folders and start the threads, the postings of an earlier run are removed,
+     * the index is made of the pages given to Add() from now on
+     */
+    public void Start() throws IOException {
+        for (String path : new String[]{postingsPath, rankPath, searchPath}) {
+            File dir = new File(path);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + path);
+            }
+        }
+        File[] files = new File(postingsPath).listFiles();
+        for (File file : files) {
+            file.delete();
+        }
+        RankJoiner.CreateHashFolders(searchPath);
+
+        indexThreads = new Thread[THREAD_NUM];
+        for (int i = 0; i < THREAD_NUM; i++) {
+            indexThreads[i] = new Thread(new IndexThread(i), "StreamIndexer-" + i);
+            indexThreads[i].start();
+        }
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                WriteRuns();
+            }
+        }, "StreamIndexer-writer");
+        writerThread.start();
+        publisherThread = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(PUBLISH_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    Publish();
+                }
+            }
+        }, "StreamIndexer-publisher");
+        publisherThread.setDaemon(true);
+        publisherThread.start();
+    }
+
+    /*
+     * hand a saved page to the index threads, waits while the page queue is full
+     */
+    public void Add(PageRecord page) {
+        try {
+            pageQueue.put(page);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * the url is another name of the page pageID (e.g. a near-duplicate of it), links to it count for that page
+     */
+    public void AddAlias(String url, String pageID) {
+        graph.addUrl(url, pageID);
+    }
+
+    /*
+     * index the pages still queued, publish them, and stop all threads
+     */
+    public void Close() {
+        publisherThread.interrupt();
+        try {
+            for (int i = 0; i < THREAD_NUM; i++) {
+                pageQueue.put(END_OF_PAGES);
+            }
+            for (int i = 0; i < THREAD_NUM; i++) {
+                indexThreads[i].join();
+            }
+            runQueue.put(END_OF_RUNS);
+            writerThread.join();
+            publisherThread.join();
+        } catch (InterruptedException e) {
+            System.out.println("StreamIndexer: cannot stop");
+            return;
+        }
+        Publish();
+        stats.Finish();
+        System.out.println("StreamIndexer: " + stats.Summary());
+    }
+
+    /*
+     * compute page rank on the pages indexed so far, and rewrite the index Retriever reads,
+     * words of an earlier index which are not in this one are removed at the first publish
+     */
+    synchronized void Publish() {
+        long begin = System.nanoTime();
+        HashMap<String, Double> ranks = graph.rank(PAGE_RANK_F);
+        try {
+            LinkGraph.save(ranks, rankPath);
+        } catch (IOException e) {
+            System.out.println("StreamIndexer: cannot save page rank");
+        }
+        // the ranks add up to 1, so all of them shrink as pages are added, times the number
+        // of pages they keep their scale and a page only moves when it gains or loses links
+        double scale = ranks.size();
+        Map<Long, Double> pageRanks = new HashMap<Long, Double>(ranks.size() * 2);
+        for (Map.Entry<String, Double> entry : ranks.entrySet()) {
+            try {
+                pageRanks.put(PostingsCodec.PackPageID(entry.getKey()), entry.getValue() * scale);
+            } catch (IllegalArgumentException e) {
+                // was checked when the page was indexed
+            }
+        }
+
+        // the words written since the last publish, the words of the pages replaced or ranked
+        // for the first time, and the words of the pages whose rank moved
+        Set<String> words;
+        synchronized (postingsLock) {
+            words = new HashSet<String>(changedWords);
+        }
+        Long replaced;
+        while ((replaced = replacedPages.poll()) != null) {
+            AddWords(words, pageWords.remove(replaced));
+            joinedRanks.remove(replaced);
+        }
+        int movedPages = 0;
+        for (Map.Entry<Long, Double> entry : pageRanks.entrySet()) {
+            double rank = entry.getValue();
+            Double joined = joinedRanks.get(entry.getKey());
+            if (joined == null) {
+                // its runs may have been joined before it had a rank, which dropped it
+                AddWords(words, pageWords.get(entry.getKey()));
+                joinedRanks.put(entry.getKey(), rank);
+            }
+            else if (Math.abs(rank - joined) > RANK_CHANGE * joined) {
+                AddWords(words, pageWords.get(entry.getKey()));
+                joinedRanks.put(entry.getKey(), rank);
+                movedPages++;
+            }
+        }
+        for (String word : words) {
+            File file = new File(postingsPath + File.separator + word + ".post");
+            if (!file.exists()) {
+                // still in the map of an index thread
+                continue;
+            }
+            try {
+                PostingsCodec.PostingList postings;
+                synchronized (postingsLock) {
+                    postings = PostingsCodec.ReadPostings(file);
+                    if (changedWords.remove(word)) {
+                        Compact(file, postings);
+                    }
+                }
+                RankJoiner.JoinWord(word, postings, pageRanks, searchPath);
+            } catch (IOException e) {
+                System.out.println("StreamIndexer: cannot publish word " + word);
+            }
+        }
+        if (!published) {
+            RemoveOtherWords();
+            published = true;
+        }
+        long nanos = System.nanoTime() - begin;
+        System.out.println(String.format("StreamIndexer: published %d pages, joined %d words (%d pages moved) in %.1f s",
+                ranks.size(), words.size(), movedPages, nanos / 1e9));
+        if (nanos / 1000000 > PUBLISH_INTERVAL) {
+            System.out.println("StreamIndexer: publish took longer than the publish interval");
+        }
+    }
+
+    /*
+     * add the words of a page, given as word numbers, numbers may be null for a page not parsed yet
+     */
+    private void AddWords(Set<String> words, int[] numbers) {
+        if (numbers == null) {
+            return;
+        }
+        synchronized (wordNumbers) {
+            for (int number : numbers) {
+                words.add(wordList.get(number));
+            }
+        }
+    }
+
+    /*
+     * rewrite the runs of one "word.post" file as a single run
+     */
+    private void Compact(File file, PostingsCodec.PostingList postings) throws IOException {
+        int size = postings.Size();
+        long[] docs = new long[size];
+        int[] tfs = new int[size];
+        for (int i = 0; i < size; i++) {
+            docs[i] = postings.Doc(i);
+            tfs[i] = postings.Tf(i);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+        out.write(PostingsCodec.EncodeRun(docs, tfs, size));
+        out.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * remove the words of an earlier index, the ones which have no "word.post" file
+     */
+    private void RemoveOtherWords() {
+        File[] dirs = new File(searchPath).listFiles();
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(".imp") && !new File(postingsPath + File.separator
+                        + name.substring(0, name.length() - ".imp".length()) + ".post").exists()) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /*
+     * the writer thread appends the runs of the flushed maps, one map at a time
+     */
+    private void WriteRuns() {
+        while (true) {
+            Map<String, Map<Long, Integer>> wordsToDocs;
+            try {
+                wordsToDocs = runQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (wordsToDocs == END_OF_RUNS) {
+                return;
+            }
+            long begin = System.nanoTime();
+            synchronized (postingsLock) {
+                for (Map.Entry<String, Map<Long, Integer>> entry : wordsToDocs.entrySet()) {
+                    String word = entry.getKey();
+                    try {
+                        OutputStream out = new FileOutputStream(postingsPath + File.separator + word + ".post", true);
+                        out.write(EncodePostingList(entry.getValue()));
+                        out.close();
+                        changedWords.add(word);
+                    } catch (IOException e) {
+                        System.out.println("StreamIndexer: cannot write word " + word);
+                    }
+                }
+            }
+            stats.AddStage(IndexStats.FLUSH, System.nanoTime() - begin);
+        }
+    }
+
+    /*
+     * sort one word's postings by pageID and encode them as a compressed run
+     */
+    private static byte[] EncodePostingList(Map<Long, Integer> postingList) {
+        int size = postingList.size();
+        long[] docs = new long[size];
+        int i = 0;
+        for (long pageID : postingList.keySet()) {
+            docs[i++] = pageID;
+        }
+        Arrays.sort(docs);
+        int[] tfs = new int[size];
+        for (i = 0; i < size; i++) {
+            tfs[i] = postingList.get(docs[i]);
+        }
+        return PostingsCodec.EncodeRun(docs, tfs, size);
+    }
+
+    /*
+     * the numbers of words, a word gets the next number the first time it is seen
+     */
+    private int[] WordNumbers(List<String> words) {
+        int[] numbers = new int[words.size()];
+        synchronized (wordNumbers) {
+            for (int i = 0; i < numbers.length; i++) {
+                Integer number = wordNumbers.get(words.get(i));
+                if (number == null) {
+                    number = wordList.size();
+                    wordNumbers.put(words.get(i), number);
+                    wordList.add(words.get(i));
+                }
+                numbers[i] = number;
+            }
+        }
+        return numbers;
+    }
+
+    /*
+     * each index thread has its own posting map, handed to the writer when it is big or old enough
+     */
+    private class IndexThread implements Runnable, TokenSink {
+        private int threadID;
+        private Map<String, Map<Long, Integer>> wordsToDocs;
+        private long lastFlush;
+        private long currentPageID;
+        private int tokenNum;
+        private List<String> currentWords;  // the words of the current page, each once
+
+        public IndexThread(int tid) {
+            threadID = tid;
+            wordsToDocs = new HashMap<String, Map<Long, Integer>>();
+            lastFlush = System.currentTimeMillis();
+        }
+
+        public void run() {
+            while (true) {
+                PageRecord page;
+                try {
+                    page = pageQueue.poll(POLL_WAIT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (page == END_OF_PAGES) {
+                    Flush();
+                    return;
+                }
+                if (page != null) {
+                    // a page that cannot be parsed must not stop the thread, the crawler would wait for it
+                    try {
+                        ProcessOnePage(page);
+                    } catch (RuntimeException e) {
+                        System.out.println("StreamIndexer_" + threadID + " cannot index page " + page.getPageID()
+                                + ": " + e);
+                    }
+                }
+                if (wordsToDocs.size() >= WORDS_MAP_THRESHOLD
+                        || System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL) {
+                    Flush();
+                }
+            }
+        }
+
+        private void ProcessOnePage(PageRecord page) {
+            long parseBegin = System.nanoTime();
+            try {
+                currentPageID = PostingsCodec.PackPageID(page.getPageID());
+            } catch (IllegalArgumentException e) {
+                System.out.println("StreamIndexer_" + threadID + " skip page with invalid pageID: " + page.getPageID());
+                return;
+            }
+            String oldPageID = urlPages.put(page.getUrl(), page.getPageID());
+            if (page.getPageID().equals(oldPageID)) {
+                return;
+            }
+            // in the graph before its words are written, so it has a rank when they are published
+            graph.addPage(page.getPageID(), page.getUrl(), page.getSubUrls(), page.getLength());
+            if (oldPageID != null) {
+                // the url saved again with new content (revisited), the new page replaces the old one
+                graph.replacePage(oldPageID, page.getPageID());
+                try {
+                    replacedPages.add(PostingsCodec.PackPageID(oldPageID));
+                } catch (IllegalArgumentException e) {
+                    // was checked when the old page was indexed
+                }
+            }
+            String content = page.getContent();
+            if (content == null || "".equals(content)) {
+                return;
+            }
+            tokenNum = 0;
+            currentWords = new ArrayList<String>();
+            Parser parser = new Parser(content, StopWords.Empty());
+            parser.Parse(this);
+            pageWords.put(currentPageID, WordNumbers(currentWords));
+            stats.AddStage(IndexStats.PARSE, System.nanoTime() - parseBegin);
+            stats.AddDoc(page.getSize(), tokenNum);
+        }
+
+        public void Token(CharSequence text, int start, int end, byte type, int position) {
+            tokenNum++;
+            if (type == TokenType.WORD || type == TokenType.STOPWORD) {
+                String term = TermNormalizer.Normalize(text.subSequence(start, end).toString());
+                Map<Long, Integer> postingList = wordsToDocs.get(term);
+                if (postingList == null) {
+                    postingList = new HashMap<Long, Integer>();
+                    wordsToDocs.put(term, postingList);
+                }
+                Integer tf = postingList.get(currentPageID);
+                postingList.put(currentPageID, tf == null ? 1 : tf + 1);
+                if (tf == null) {
+                    currentWords.add(term);
+                }
+            }
+        }
+
+        private void Flush() {
+            lastFlush = System.currentTimeMillis();
+            if (wordsToDocs.isEmpty()) {
+                return;
+            }
+            try {
+                runQueue.put(wordsToDocs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            wordsToDocs = new HashMap<String, Map<Long, Integer>>();
+        }
+    }
+}
@@ -8,6 +8,8 @@ import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import PageStore.PageRecord;
+import PageStore.PageStore;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -43,8 +45,21 @@ public class PageIndexer implements Runnable {
   private void indexDocs(Path path) throws IOException {
     if (Files.isDirectory(path)) {
       Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+          try {
+            indexSegments(dir);
+          } catch (IOException ignore) {
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
         @Override
         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          // segment files are indexed page by page when their directory is visited
+          if (PageStore.isStoreFile(file.getFileName().toString())) {
+            return FileVisitResult.CONTINUE;
+          }
           try {
             indexDoc( file, attrs.lastModifiedTime().toMillis());
           } catch (IOException ignore) {
@@ -72,6 +87,23 @@ public class PageIndexer implements Runnable {
     return extension;
   }
 
+  /**
+   * Indexes the pages in the segment files of a directory, the path of a page
+   * is [directory]/[pageID], as if it was a file of its own
+   */
+  private void indexSegments(final Path dir) throws IOException {
+    PageStore.scanSegments(dir.toFile(), new PageStore.Visitor() {
+      @Override
+      public void visit(PageRecord page) {
+        String path = dir.resolve(page.getPageID()).toString();
+        try {
+          addDoc(path, page.getTitle(), page.getContent(), System.currentTimeMillis());
+        } catch (IOException ignore) {
+        }
+      }
+    });
+  }
+
   /** Indexes a single document */
   private void indexDoc(Path file, long lastModified) throws IOException {
 //        String fileExtension = getExtension(file);
@@ -82,7 +114,6 @@ public class PageIndexer implements Runnable {
       //Indexing specific pages
       ParsePage parsePage = new ParsePage();
       String[] parsedInfo = parsePage.getInfos(file.toString());
-      Document doc = new Document();
 
       //Indexing html file using JTidy package.
 //                JTidyParser jTidyParser = new JTidyParser();
@@ -97,24 +128,30 @@ public class PageIndexer implements Runnable {
 //                        parsedInfo[0] = parsedInfo[4];
 //                    }
 //                }
-      doc.add(new StringField("title", parsedInfo[0], Field.Store.YES));
-      Field pathField = new StringField("path", file.toString(), Field.Store.YES);
-      doc.add(pathField);
-      doc.add(new LongField("modified", lastModified, Field.Store.NO));
-      InputStream stream = new ByteArrayInputStream(parsedInfo[1].getBytes(StandardCharsets.UTF_8));
-      doc.add(new TextField("contents", new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))));
-      System.out.println("thread" + threadNumber + " " + file.toString());
-      if (writer.getConfig().getOpenMode() == IndexWriterConfig.OpenMode.CREATE) {
-        System.out.println("adding " + file);
-        writer.addDocument(doc);
-      } else {
-        System.out.println("updating " + file);
-        writer.updateDocument(new Term("path", file.toString()), doc);
-      }
+      addDoc(file.toString(), parsedInfo[0], parsedInfo[1], lastModified);
     }
 //        }
   }
 
+  /** Adds or updates the document of one page */
+  private void addDoc(String path, String title, String contents, long lastModified) throws IOException {
+    Document doc = new Document();
+    doc.add(new StringField("title", title, Field.Store.YES));
+    Field pathField = new StringField("path", path, Field.Store.YES);
+    doc.add(pathField);
+    doc.add(new LongField("modified", lastModified, Field.Store.NO));
+    InputStream stream = new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8));
+    doc.add(new TextField("contents", new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))));
+    System.out.println("thread" + threadNumber + " " + path);
+    if (writer.getConfig().getOpenMode() == IndexWriterConfig.OpenMode.CREATE) {
+      System.out.println("adding " + path);
+      writer.addDocument(doc);
+    } else {
+      System.out.println("updating " + path);
+      writer.updateDocument(new Term("path", path), doc);
+    }
+  }
+
 
   /** Index all text files under a directory. */
   private void indexStart(String indexPath, String dirPath) {
@@ -9,6 +9,7 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
@@ -26,6 +27,14 @@ public class PageCompress {
         pageHTML = page;
     }
 
+    /*
+     * page as downloaded, bytes [0, length) are decoded once here with the page's charset
+     */
+    public PageCompress(String name, byte[] page, int length, Charset charset) {
+        pageID = name;
+        pageHTML = new String(page, 0, length, charset);
+    }
+
     /*
      * We use "Jsoup" to extract data that we need from HTML
      * "Jsoup" is much more efficient and stable then "Jtidy",
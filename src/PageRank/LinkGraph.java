@@ -0,0 +1,188 @@
+package PageRank;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The link graph of the pages saved so far, kept in memory while crawling, so page rank
+ * can be computed again every few minutes without reading the pages back from disk.
+ *
+ * The rank is the same weighted page rank as PageRank, with its base term and its rank files:
+ * the base of a page comes from the log of its length, a page passes f of its rank to its children through its links, and a
+ * link counts only if its url is mapped to a page. Each computation starts from the ranks
+ * of the previous one, so it usually takes a few rounds, and at most MAX_ROUNDS.
+ * A page replaced by a newer one of the same url (see replacePage) hands its urls to the
+ * newer page and is left out of the ranks.
+ */
+public class LinkGraph {
+    private final static int MAX_ROUNDS = 100;
+
+    private List<String> ids = new ArrayList<String>();
+    private List<Integer> lengths = new ArrayList<Integer>();
+    private List<List<String>> subUrls = new ArrayList<List<String>>();
+    private HashMap<String, Integer> idToIndex = new HashMap<String, Integer>();
+    private HashMap<String, Integer> urlToIndex = new HashMap<String, Integer>();
+    // index of a replaced page -> index of the page replacing it
+    private HashMap<Integer, Integer> replaced = new HashMap<Integer, Integer>();
+    private double[] lastRanks = new double[0];
+
+    /**
+     * This method adds a page and its links, a page already added is ignored
+     */
+    public synchronized void addPage(String id, String url, List<String> pageSubUrls, int length) {
+        if (idToIndex.containsKey(id)) {
+            return;
+        }
+        int index = ids.size();
+        ids.add(id);
+        lengths.add(length);
+        subUrls.add(pageSubUrls);
+        idToIndex.put(id, index);
+        if (!urlToIndex.containsKey(url)) {
+            urlToIndex.put(url, index);
+        }
+    }
+
+    /**
+     * This method maps another url to a page, e.g. the url of a near-duplicate of it
+     */
+    public synchronized void addUrl(String url, String id) {
+        Integer index = idToIndex.get(id);
+        if (index != null && !urlToIndex.containsKey(url)) {
+            urlToIndex.put(url, current(index));
+        }
+    }
+
+    /**
+     * This method replaces page oldId by page newId, e.g. a revisited page saved again with new content,
+     * links to the old page count for the new one, and the old page has no links and no rank any more
+     */
+    public synchronized void replacePage(String oldId, String newId) {
+        Integer oldIndex = idToIndex.get(oldId);
+        Integer newIndex = idToIndex.get(newId);
+        if (oldIndex == null || newIndex == null || oldIndex.equals(newIndex)) {
+            return;
+        }
+        replaced.put(oldIndex, newIndex);
+        lengths.set(oldIndex, 0);
+        subUrls.set(oldIndex, new ArrayList<String>());
+    }
+
+    /**
+     * This method returns the page which replaced the page index, or index itself
+     */
+    private int current(int index) {
+        Integer next;
+        while ((next = replaced.get(index)) != null) {
+            index = next;
+        }
+        return index;
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    /**
+     * This method calculates the page ranks of all the pages added so far, with parameter f,
+     * and returns them by pageID
+     */
+    public HashMap<String, Double> rank(double f) {
+        int n;
+        int[][] parents;
+        int[] outLinks;
+        double[] base;
+        double[] result;
+        String[] pageIds;
+        // the graph is copied, pages are added meanwhile
+        synchronized (this) {
+            n = ids.size();
+            pageIds = ids.toArray(new String[n]);
+            outLinks = new int[n];
+            int[] parentCounts = new int[n];
+            int[][] children = new int[n][];
+            for (int i = 0; i < n; i++) {
+                List<String> links = subUrls.get(i);
+                int[] pageChildren = new int[links.size()];
+                int count = 0;
+                for (String link : links) {
+                    Integer child = urlToIndex.get(link);
+                    if (child == null) {
+                        continue;
+                    }
+                    child = current(child);
+                    pageChildren[count++] = child;
+                    parentCounts[child]++;
+                }
+                outLinks[i] = count;
+                children[i] = pageChildren;
+            }
+            parents = new int[n][];
+            for (int i = 0; i < n; i++) {
+                parents[i] = new int[parentCounts[i]];
+                parentCounts[i] = 0;
+            }
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < outLinks[i]; j++) {
+                    int child = children[i][j];
+                    parents[child][parentCounts[child]++] = i;
+                }
+            }
+            int[] pageLengths = new int[n];
+            for (int i = 0; i < n; i++) {
+                pageLengths[i] = lengths.get(i);
+            }
+            base = PageRank.calculateBase(f, pageLengths);
+            result = new double[n];
+            System.arraycopy(lastRanks, 0, result, 0, Math.min(lastRanks.length, n));
+            // a new page starts from its base
+            for (int i = lastRanks.length; i < n; i++) {
+                result[i] = base[i];
+            }
+        }
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            double[] newResult = new double[n];
+            for (int i = 0; i < n; i++) {
+                double sum = base[i];
+                for (int parent : parents[i]) {
+                    sum += f / outLinks[parent] * result[parent];
+                }
+                newResult[i] = sum;
+            }
+            boolean noDiff = PageRank.noDiff(newResult, result);
+            result = newResult;
+            if (noDiff) {
+                break;
+            }
+        }
+        synchronized (this) {
+            lastRanks = result;
+        }
+        HashMap<String, Double> ranks = new HashMap<String, Double>(n * 2);
+        synchronized (this) {
+            for (int i = 0; i < n; i++) {
+                if (!replaced.containsKey(i)) {
+                    ranks.put(pageIds[i], result[i]);
+                }
+            }
+        }
+        return ranks;
+    }
+
+    /**
+     * This method saves page ranks to savePath in the files of PageRank, pageRank_[i].rank
+     */
+    public static void save(HashMap<String, Double> ranks, String savePath)
+            throws IOException {
+        List<String> ids = new ArrayList<String>(ranks.size());
+        double[] result = new double[ranks.size()];
+        for (Map.Entry<String, Double> entry : ranks.entrySet()) {
+            result[ids.size()] = entry.getValue();
+            ids.add(entry.getKey());
+        }
+        PageRank.saveResult(ids, result, savePath);
+    }
+}
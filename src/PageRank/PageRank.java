@@ -13,6 +13,8 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Scanner;
 import java.util.HashSet;
+import PageStore.PageRecord;
+import PageStore.PageStore;
 
 /**
  * Created by Wenzhao on 4/15/16.
@@ -90,7 +92,7 @@ public class PageRank {
         }
         File dir = new File(filePath);
         File[] jobDirs = dir.listFiles();
-        int count = 0;
+        final int[] count = new int[1];
         for (File job: jobDirs) {
 //            String dirName = job.getName();
 //            int pos = dirName.indexOf('_');
@@ -104,44 +106,19 @@ public class PageRank {
                 continue;
             }
             for (File thread: threadDirs) {
-                File[] pages = thread.listFiles();
-                if (pages == null) {
+                if (!thread.isDirectory()) {
                     continue;
                 }
-                for (File page: pages) {
-                    if (!page.getName().endsWith(".page")) {
-                        continue;
-                    }
-                    Scanner readFile = new Scanner(new FileReader(page));
-                    String id = page.getName();
-                    int extPos = id.indexOf('.', 0);
-                    id = id.substring(0, extPos);
-                    // start parsing
-                    String thisUrl = null;
-                    List<String> subUrls = new ArrayList<String>();
-                    int length = 0;
-                    try {
-                        // ignore #ThisURL# tag
-                        readFile.nextLine();
-                        thisUrl = readFile.nextLine();
-                        // ignore #SubURL# tag
-                        readFile.nextLine();
-                        String line = null;
-                        while (readFile.hasNextLine() && !(line = readFile.nextLine()).equals("#Length#")) {
-                            subUrls.add(line);
+                // the .page files and page segments of one crawler thread
+                PageStore.scan(thread, new PageStore.Visitor() {
+                    public void visit(PageRecord page) {
+                        processPage(page.getPageID(), page.getUrl(), page.getSubUrls(), page.getLength());
+                        count[0]++;
+                        if (count[0] % 10000 == 0) {
+                            System.out.println("processed " + count[0] + " pages");
                         }
-                        length = Integer.parseInt(readFile.nextLine());
-                    } catch (RuntimeException e) {
-                        System.out.println("page " + id + " incomplete, ignore");
-                        continue;
-                    }
-                    processPage(id, thisUrl, subUrls, length);
-                    count++;
-                    if (count % 10000 == 0) {
-                        System.out.println("processed " + count + " pages");
                     }
-                    readFile.close();
-                }
+                });
             }
         }
         System.out.println(pageList.size());
@@ -152,7 +129,11 @@ public class PageRank {
      * with the class handout
      */
     private static double[] calculate(double f) {
-        double[] base = calculateBase(f);
+        int[] lengths = new int[pageList.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = pageList.get(i).getLength();
+        }
+        double[] base = calculateBase(f, lengths);
         calculateParentWeight(f);
         int n = pageList.size();
         System.out.println("n=" + n + " waiting for array");
@@ -190,6 +171,19 @@ public class PageRank {
      */
     private static void saveResult(double[] result, String savePath)
             throws IOException {
+        List<String> ids = new ArrayList<String>(pageList.size());
+        for (Page page: pageList) {
+            ids.add(page.getId());
+        }
+        saveResult(ids, result, savePath);
+    }
+
+    /**
+     * This method saves the page rank result[i] of each page ids[i] to file,
+     * also used by LinkGraph
+     */
+    static void saveResult(List<String> ids, double[] result, String savePath)
+            throws IOException {
         if (!savePath.endsWith(File.separator)) {
             savePath += File.separator;
         }
@@ -199,9 +193,8 @@ public class PageRank {
             FileWriter temp = new FileWriter(new File(savePath + fileName));
             writer[i] = new BufferedWriter(temp);
         }
-        for (int i = 0; i < pageList.size(); i++) {
-            Page current = pageList.get(i);
-            String id = current.getId();
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
             int index = hashId(id);
             writer[index].write(id + "\n" + result[i] + "\n");
             //writer[index].write(id + "\n" + String.format("%.10f", result[i]) + "\n");
@@ -305,7 +298,7 @@ public class PageRank {
         current.put(url, id);
     }
 
-    private static int hashId(String id) {
+    static int hashId(String id) {
         int first = id.indexOf('_', 0);
         int second = id.indexOf('_', first + 1);
         int threadId = Integer.parseInt(id.substring(first + 1, second));
@@ -317,21 +310,21 @@ public class PageRank {
     }
 
     /**
-     * This method calculates the base term (same method with homework)
+     * This method calculates the base term (same method with homework) from the lengths
+     * of the pages, also used by LinkGraph
      */
-    private static double[] calculateBase(double f) {
-        int n = pageList.size();
+    static double[] calculateBase(double f, int[] lengths) {
+        int n = lengths.length;
         double[] base = new double[n];
         double sum = 0;
         for (int i = 0; i < n; i++) {
-            Page current = pageList.get(i);
-            int length = current.getLength();
+            int length = lengths[i];
             if (length > 0) {
                 base[i] = Math.log(length) / Math.log(2);
                 sum += base[i];
             }
         }
-        for (int i = 0; i < n; i++) {
+        for (int i = 0; i < n && sum > 0; i++) {
             base[i] = base[i] / sum * (1 - f);
         }
         return base;
@@ -356,7 +349,7 @@ public class PageRank {
     /**
      * This method checks when to stop the page rank calculation
      */
-    private static boolean noDiff(double[] one, double[] two) {
+    static boolean noDiff(double[] one, double[] two) {
         final double diff = 10E-10;
         for (int i = 0; i < one.length; i++) {
             if (Math.abs(one[i] - two[i]) > diff) {
@@ -1,20 +1,19 @@
 package PageRank;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.file.Files;
 import java.util.HashSet;
-import java.util.Scanner;
+import PageStore.PageRecord;
+import PageStore.PageStore;
 
 /**
  * Created by Wenzhao on 4/25/16.
  */
 public class RemoveDuplicates {
     public static void main(String[] args) {
-        HashSet<URI> set = new HashSet<URI>();
+        final HashSet<URI> set = new HashSet<URI>();
         String filePath = args[0];
         if (!filePath.endsWith(File.separator)) {
             filePath += File.separator;
@@ -22,56 +21,40 @@ public class RemoveDuplicates {
         try {
             File dir = new File(filePath);
             File[] jobDirs = dir.listFiles();
-            int count = 0;
+            final int[] count = new int[1];
             for (File job: jobDirs) {
                 File[] threadDirs = job.listFiles();
                 if (threadDirs == null) {
                     continue;
                 }
-                for (File thread: threadDirs) {
-                    File[] pages = thread.listFiles();
-                    if (pages == null) {
+                for (final File thread: threadDirs) {
+                    if (!thread.isDirectory()) {
                         continue;
                     }
-                    for (File page: pages) {
-                        if (!page.getName().endsWith(".page")) {
-                            continue;
+                    // pages in segments are not deleted from the file, but listed as deleted
+                    PageStore.scan(thread, new PageStore.Visitor() {
+                        public void visit(PageRecord page) {
+                            String thisUrl = page.getUrl();
+                            URI url = null;
+                            try {
+                                url = new URI(thisUrl);
+                            } catch (URISyntaxException e) {
+                                System.out.println("page " + page.getPageID() + " url invalid, ignore");
+                                delete(thread, page.getPageID(), thisUrl);
+                                return;
+                            }
+                            if (set.contains(url)) {
+                                delete(thread, page.getPageID(), thisUrl);
+                            }
+                            else {
+                                set.add(url);
+                            }
+                            count[0]++;
+                            if (count[0] % 10000 == 0) {
+                                System.out.println("processed " + count[0] + " pages");
+                            }
                         }
-                        Scanner readFile = new Scanner(new FileReader(page));
-                        // start parsing
-                        String thisUrl = null;
-                        try {
-                            // ignore #ThisURL# tag
-                            readFile.nextLine();
-                            thisUrl = readFile.nextLine();
-                        } catch (RuntimeException e) {
-                            System.out.println("page " + page.getName() + " not successful, ignore");
-                            Files.deleteIfExists(page.toPath());
-                            System.out.println("deleted page " + page.getName() + " " + thisUrl);
-                            continue;
-                        }
-                        readFile.close();
-                        URI url = null;
-                        try {
-                            url = new URI(thisUrl);
-                        } catch (URISyntaxException e) {
-                            System.out.println("page " + page.getName() + " url invalid, ignore");
-                            Files.deleteIfExists(page.toPath());
-                            System.out.println("deleted page " + page.getName() + " " + thisUrl);
-                            continue;
-                        }
-                        if (set.contains(url)) {
-                            Files.deleteIfExists(page.toPath());
-                            System.out.println("deleted page " + page.getName() + " " + thisUrl);
-                        }
-                        else {
-                            set.add(url);
-                        }
-                        count++;
-                        if (count % 10000 == 0) {
-                            System.out.println("processed " + count + " pages");
-                        }
-                    }
+                    });
                 }
             }
         } catch (IOException e) {
@@ -79,4 +62,13 @@ public class RemoveDuplicates {
         }
         System.out.println("finished, " + set.size());
     }
+
+    private static void delete(File dir, String pageID, String thisUrl) {
+        try {
+            PageStore.delete(dir, pageID);
+            System.out.println("deleted page " + pageID + " " + thisUrl);
+        } catch (IOException e) {
+            System.out.println("delete page " + pageID + " not successful");
+        }
+    }
 }
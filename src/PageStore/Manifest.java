@@ -0,0 +1,117 @@
+package PageStore;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The segments of one crawl (pages/result_[jobID]) that are complete and may be read, so
+ * PageRank, RemoveDuplicates and the indexers can run while the crawler is still writing.
+ *
+ * manifest.log in the result directory has one line per published segment, in the order
+ * they were published:
+ *
+ * [threadDir]/segment_N.seg\t[bytes]\t[publish time in ms]
+ *
+ * A published segment is never written again. A result directory without a manifest was
+ * written before there was one, and all its segments are read.
+ */
+public class Manifest {
+    static final String NAME = "manifest.log";
+
+    private final File resultDir;
+    private final HashSet<String> published = new HashSet<String>();
+
+    public Manifest(File resultDir) throws IOException {
+        this.resultDir = resultDir;
+        for (Entry entry : read(resultDir)) {
+            published.add(entry.path);
+        }
+    }
+
+    /**
+     * One published segment
+     */
+    public static class Entry {
+        public final String path;
+        public final long bytes;
+        public final long time;
+
+        Entry(String path, long bytes, long time) {
+            this.path = path;
+            this.bytes = bytes;
+            this.time = time;
+        }
+
+        public File file(File resultDir) {
+            return new File(resultDir, path);
+        }
+    }
+
+    /**
+     * This method returns whether segment has been published
+     */
+    public synchronized boolean contains(File segment) {
+        return published.contains(relativePath(segment));
+    }
+
+    /**
+     * This method publishes a complete segment, the line is on disk when it returns
+     */
+    public synchronized void publish(File segment) throws IOException {
+        String path = relativePath(segment);
+        if (published.contains(path)) {
+            return;
+        }
+        FileOutputStream out = new FileOutputStream(new File(resultDir, NAME), true);
+        try {
+            out.write((path + "\t" + segment.length() + "\t" + System.currentTimeMillis() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        published.add(path);
+    }
+
+    /**
+     * This method returns the published segments of resultDir in the order they were published,
+     * a consumer that keeps how many it has read gets only the new ones next time
+     */
+    public static List<Entry> read(File resultDir) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        File file = new File(resultDir, NAME);
+        if (!file.exists()) {
+            return entries;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.split("\t");
+            if (fields.length != 3) {
+                // a line cut by a crash
+                continue;
+            }
+            try {
+                entries.add(new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+        }
+        reader.close();
+        return entries;
+    }
+
+    /**
+     * This method returns whether resultDir has a manifest, so only its published segments may be read
+     */
+    public static boolean exists(File resultDir) {
+        return resultDir != null && new File(resultDir, NAME).exists();
+    }
+
+    private String relativePath(File segment) {
+        return segment.getParentFile().getName() + "/" + segment.getName();
+    }
+}
@@ -0,0 +1,141 @@
+package PageStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One saved page: its pageID, its own url, the urls it links to, its length in words,
+ * its title and its body text.
+ * Its text form is the one the crawler has always written to a .page file:
+ * #ThisURL#, #SubURL#, #Length#, #Title# and #Content#, each tag followed by its lines.
+ */
+public class PageRecord {
+    private String pageID;
+    private String url;
+    private List<String> subUrls;
+    private int length;
+    private String title;
+    private String content;
+    // bytes of the text form as it was read or written, 0 if unknown
+    private long size;
+
+    public PageRecord(String pageID, String url, List<String> subUrls, int length, String title, String content) {
+        this.pageID = pageID;
+        this.url = url;
+        this.subUrls = subUrls;
+        this.length = length;
+        this.title = title;
+        this.content = content;
+    }
+
+    public String getPageID() {
+        return pageID;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public List<String> getSubUrls() {
+        return subUrls;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * This method returns the size in bytes of the page as stored: the payload of its segment
+     * record, or its .page file, and 0 for a page that was never read or written
+     */
+    public long getSize() {
+        return size;
+    }
+
+    void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * This method returns the page in the text form of a .page file
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder(content.length() + 256);
+        sb.append("#ThisURL#\n").append(url).append('\n');
+        sb.append("#SubURL#\n");
+        for (String subUrl : subUrls) {
+            sb.append(subUrl).append('\n');
+        }
+        sb.append("#Length#\n").append(length).append('\n');
+        sb.append("#Title#\n").append(title).append('\n');
+        sb.append("#Content#\n").append(content).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * This method parses the text form of a page, and returns null if it is incomplete
+     */
+    public static PageRecord parse(String pageID, String text) {
+        int[] position = new int[]{0};
+        if (!"#ThisURL#".equals(nextLine(text, position))) {
+            return null;
+        }
+        String url = nextLine(text, position);
+        if (url == null || !"#SubURL#".equals(nextLine(text, position))) {
+            return null;
+        }
+        List<String> subUrls = new ArrayList<String>();
+        String line;
+        while ((line = nextLine(text, position)) != null && !line.equals("#Length#")) {
+            subUrls.add(line);
+        }
+        if (line == null) {
+            return null;
+        }
+        int length;
+        try {
+            length = Integer.parseInt(nextLine(text, position));
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (!"#Title#".equals(nextLine(text, position))) {
+            return null;
+        }
+        String title = nextLine(text, position);
+        if (title == null || !"#Content#".equals(nextLine(text, position))) {
+            return null;
+        }
+        // the content is the rest, without the last line break
+        int end = text.length();
+        if (end > position[0] && text.charAt(end - 1) == '\n') {
+            end--;
+        }
+        String content = position[0] <= end ? text.substring(position[0], end) : "";
+        return new PageRecord(pageID, url, subUrls, length, title, content);
+    }
+
+    /**
+     * This method returns the line starting at position[0] and moves position[0] past it,
+     * or returns null at the end of text
+     */
+    private static String nextLine(String text, int[] position) {
+        if (position[0] >= text.length()) {
+            return null;
+        }
+        int end = text.indexOf('\n', position[0]);
+        if (end == -1) {
+            end = text.length();
+        }
+        String line = text.substring(position[0], end);
+        position[0] = end + 1;
+        return line;
+    }
+}
@@ -0,0 +1,384 @@
+package PageStore;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The pages the crawler saved in one directory (pages/result_[jobID]/[jobID]_[threadID]),
+ * for every stage that reads them: PageRank, RemoveDuplicates, Indexter, LuceneIndexing
+ * and Retriever.
+ *
+ * A directory holds segment files written by SegmentWriter, and may also hold the .page
+ * files of older crawls, both are read the same way.
+ * A segment is a sequence of records framed like WARC records:
+ *
+ * WSE-Page/1.0\r\n
+ * Page-ID: 1_3_42\r\n
+ * Target-URI: http://www.nyu.edu/\r\n
+ * Content-Length: [bytes of the payload]\r\n
+ * \r\n
+ * [payload: the page in the text form of a .page file, UTF-8]\r\n\r\n
+ *
+ * Segments are never rewritten, a page removed by RemoveDuplicates is listed in
+ * deleted.ids of its directory and skipped from then on.
+ * When the result directory above has a Manifest, a scan reads only the published segments,
+ * not the ones the crawler is still writing.
+ */
+public class PageStore {
+    public static final String PAGE_SUFFIX = ".page";
+    static final String SEGMENT_PREFIX = "segment_";
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+    static final String DELETED_NAME = "deleted.ids";
+    static final String MAGIC = "WSE-Page/1.0";
+    static final byte[] TRAILER = new byte[]{'\r', '\n', '\r', '\n'};
+
+    // the segment indexes of the directories find() was asked about
+    private static final ConcurrentHashMap<File, DirectoryIndex> directories =
+            new ConcurrentHashMap<File, DirectoryIndex>();
+
+    /**
+     * This interface receives the pages of a scan one by one
+     */
+    public interface Visitor {
+        void visit(PageRecord page);
+    }
+
+    /**
+     * This method reads every page in dir, .page files first and then the segments in the
+     * order they were written, and returns the number of pages read
+     */
+    public static int scan(File dir, Visitor visitor) throws IOException {
+        HashSet<String> deleted = readDeleted(dir);
+        int count = 0;
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!file.getName().endsWith(PAGE_SUFFIX)) {
+                continue;
+            }
+            PageRecord page = readPageFile(file);
+            if (page == null) {
+                System.out.println("page " + file.getName() + " incomplete, ignore");
+                continue;
+            }
+            if (!deleted.contains(page.getPageID())) {
+                visitor.visit(page);
+                count++;
+            }
+        }
+        return count + scanSegments(dir, deleted, true, visitor);
+    }
+
+    /**
+     * This method reads only the pages in the segments of dir, and returns the number of pages read
+     */
+    public static int scanSegments(File dir, Visitor visitor) throws IOException {
+        return scanSegments(dir, readDeleted(dir), true, visitor);
+    }
+
+    /**
+     * This method reads the pages in all the segments of dir, published or not, for the crawler
+     * writing them, and returns the number of pages read
+     */
+    public static int scanAllSegments(File dir, Visitor visitor) throws IOException {
+        return scanSegments(dir, readDeleted(dir), false, visitor);
+    }
+
+    private static int scanSegments(File dir, HashSet<String> deleted, boolean onlyPublished, Visitor visitor)
+            throws IOException {
+        int count = 0;
+        File resultDir = dir.getAbsoluteFile().getParentFile();
+        Manifest manifest = onlyPublished && Manifest.exists(resultDir) ? new Manifest(resultDir) : null;
+        for (File segment : segments(dir)) {
+            if (manifest != null && !manifest.contains(segment)) {
+                continue;
+            }
+            SegmentReader reader = new SegmentReader(segment);
+            try {
+                PageRecord page;
+                while ((page = reader.next()) != null) {
+                    if (!deleted.contains(page.getPageID())) {
+                        visitor.visit(page);
+                        count++;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * This method returns the page with pageID in dir, or null if it is not there.
+     * The segment indexes and the deleted list of dir are loaded once, and then only the
+     * entries appended since are read, so a lookup costs one seek into a segment
+     */
+    public static PageRecord find(File dir, String pageID) throws IOException {
+        File file = new File(dir, pageID + PAGE_SUFFIX);
+        if (file.exists()) {
+            return readPageFile(file);
+        }
+        File key = dir.getAbsoluteFile();
+        DirectoryIndex index = directories.get(key);
+        if (index == null) {
+            DirectoryIndex newIndex = new DirectoryIndex(key);
+            index = directories.putIfAbsent(key, newIndex);
+            if (index == null) {
+                index = newIndex;
+            }
+        }
+        return index.find(pageID);
+    }
+
+    /**
+     * This method removes a page from dir: a .page file is deleted, a page in a segment is
+     * listed in deleted.ids
+     */
+    public static void delete(File dir, String pageID) throws IOException {
+        File file = new File(dir, pageID + PAGE_SUFFIX);
+        if (file.exists()) {
+            Files.delete(file.toPath());
+            return;
+        }
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(dir, DELETED_NAME), true), StandardCharsets.UTF_8));
+        writer.write(pageID + "\n");
+        writer.close();
+    }
+
+    /**
+     * This method returns whether a file in a page directory belongs to the segments
+     * (a segment, its index, the deleted list or the manifest), so it is not a page by itself
+     */
+    public static boolean isStoreFile(String name) {
+        return name.endsWith(SEGMENT_SUFFIX) || name.endsWith(INDEX_SUFFIX) || name.equals(DELETED_NAME)
+                || name.equals(Manifest.NAME);
+    }
+
+    /**
+     * This method reads a .page file, its name is the pageID, and returns null if it is incomplete
+     */
+    public static PageRecord readPageFile(File file) throws IOException {
+        String name = file.getName();
+        String pageID = name.endsWith(PAGE_SUFFIX) ? name.substring(0, name.length() - PAGE_SUFFIX.length()) : name;
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        PageRecord page = PageRecord.parse(pageID, new String(bytes, StandardCharsets.UTF_8));
+        if (page != null) {
+            page.setSize(bytes.length);
+        }
+        return page;
+    }
+
+    /**
+     * This method returns the record header of a page
+     */
+    static byte[] header(String pageID, String url, int length) {
+        return (MAGIC + "\r\n"
+                + "Page-ID: " + pageID + "\r\n"
+                + "Target-URI: " + url + "\r\n"
+                + "Content-Length: " + length + "\r\n"
+                + "\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * This method returns the segment files of dir, in the order they were written
+     */
+    static File[] segments(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(File current, String name) {
+                return segmentID(name) != -1;
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Integer.compare(segmentID(a.getName()), segmentID(b.getName()));
+            }
+        });
+        return files;
+    }
+
+    /**
+     * This method returns the largest segment number in dir, or -1 if there is none
+     */
+    static int lastSegmentID(File dir) {
+        File[] segments = segments(dir);
+        return segments.length == 0 ? -1 : segmentID(segments[segments.length - 1].getName());
+    }
+
+    static int segmentID(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static File indexFile(File segment) {
+        String path = segment.getPath();
+        return new File(path.substring(0, path.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    private static HashSet<String> readDeleted(File dir) throws IOException {
+        HashSet<String> deleted = new HashSet<String>();
+        File file = new File(dir, DELETED_NAME);
+        if (!file.exists()) {
+            return deleted;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.length() > 0) {
+                deleted.add(line);
+            }
+        }
+        reader.close();
+        return deleted;
+    }
+
+    /**
+     * This class is the pageID -> segment and offset map of one directory, for find().
+     * Segments and their indexes are only appended to, so each index is read on from where it
+     * was left; if one got shorter (the crawler cut it back to a checkpoint) or a segment is
+     * gone, everything is read again. deleted.ids is read again when its size or time changes.
+     */
+    private static class DirectoryIndex {
+        private final File dir;
+        private HashMap<String, Location> locations = new HashMap<String, Location>();
+        // for each segment: the bytes of its index read so far, and the offset of its last record
+        private HashMap<File, long[]> indexed = new HashMap<File, long[]>();
+        private HashSet<String> deleted = new HashSet<String>();
+        private long deletedLength = -1;
+        private long deletedModified = -1;
+
+        DirectoryIndex(File dir) {
+            this.dir = dir;
+        }
+
+        synchronized PageRecord find(String pageID) throws IOException {
+            refreshDeleted();
+            if (deleted.contains(pageID)) {
+                return null;
+            }
+            Location location = locations.get(pageID);
+            if (location == null) {
+                refresh();
+                location = locations.get(pageID);
+            }
+            if (location != null) {
+                PageRecord page = read(location.segment, location.offset, pageID, false);
+                if (page != null) {
+                    return page;
+                }
+            }
+            // the index of the last segment may miss the records written just before a crash
+            File[] segments = segments(dir);
+            if (segments.length == 0) {
+                return null;
+            }
+            File last = segments[segments.length - 1];
+            long[] state = indexed.get(last);
+            return read(last, state == null ? 0 : state[1], pageID, true);
+        }
+
+        /**
+         * This method reads the entries appended to the segment indexes since the last time
+         */
+        private void refresh() throws IOException {
+            File[] segments = segments(dir);
+            boolean shrunk = segments.length < indexed.size();
+            for (File segment : segments) {
+                long[] state = indexed.get(segment);
+                if (state != null && indexFile(segment).length() < state[0]) {
+                    shrunk = true;
+                }
+            }
+            if (shrunk) {
+                locations = new HashMap<String, Location>();
+                indexed = new HashMap<File, long[]>();
+            }
+            for (File segment : segments) {
+                File index = indexFile(segment);
+                long[] state = indexed.get(segment);
+                if (state == null) {
+                    state = new long[]{0, 0};
+                    indexed.put(segment, state);
+                }
+                if (!index.exists() || index.length() == state[0]) {
+                    continue;
+                }
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index), 1 << 16));
+                try {
+                    in.skipBytes((int) state[0]);
+                    while (true) {
+                        String id = in.readUTF();
+                        long offset = in.readLong();
+                        locations.put(id, new Location(segment, offset));
+                        state[0] += 2 + id.getBytes(StandardCharsets.UTF_8).length + 8;
+                        state[1] = offset;
+                    }
+                } catch (IOException e) {
+                    // end of the index, or an entry cut by a crash
+                } finally {
+                    in.close();
+                }
+            }
+        }
+
+        private void refreshDeleted() throws IOException {
+            File file = new File(dir, DELETED_NAME);
+            if (file.length() != deletedLength || file.lastModified() != deletedModified) {
+                deletedLength = file.length();
+                deletedModified = file.lastModified();
+                deleted = readDeleted(dir);
+            }
+        }
+
+        /**
+         * This method returns the page pageID at offset of segment, or after it if scan is set
+         */
+        private static PageRecord read(File segment, long offset, String pageID, boolean scan) throws IOException {
+            SegmentReader reader = new SegmentReader(segment, offset);
+            try {
+                PageRecord page;
+                while ((page = reader.next()) != null) {
+                    if (page.getPageID().equals(pageID)) {
+                        return page;
+                    }
+                    if (!scan) {
+                        break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            return null;
+        }
+    }
+
+    private static class Location {
+        final File segment;
+        final long offset;
+
+        Location(File segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package PageStore;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the records of one segment file in order, through a large buffer, so a whole
+ * segment is read sequentially at disk speed.
+ * A record that is cut (the crawler stopped while writing it) or broken ends the segment.
+ */
+public class SegmentReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final File file;
+    private final DataInputStream in;
+    private long position;
+    private byte[] line = new byte[256];
+
+    public SegmentReader(File file) throws IOException {
+        this(file, 0);
+    }
+
+    /**
+     * This method opens the segment at offset, which must be the start of a record
+     */
+    public SegmentReader(File file, long offset) throws IOException {
+        this.file = file;
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        long skipped = 0;
+        while (skipped < offset) {
+            long count = in.skip(offset - skipped);
+            if (count <= 0) {
+                break;
+            }
+            skipped += count;
+        }
+        position = skipped;
+    }
+
+    /**
+     * This method returns the offset of the next record
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * This method returns the next page, or null at the end of the segment
+     */
+    public PageRecord next() throws IOException {
+        while (true) {
+            long start = position;
+            String magic = readLine();
+            if (magic == null) {
+                // a clean end is exactly at a record boundary
+                if (position != start) {
+                    broken(start);
+                }
+                return null;
+            }
+            if (!magic.equals(PageStore.MAGIC)) {
+                broken(start);
+                return null;
+            }
+            String pageID = null;
+            int length = -1;
+            String header;
+            while ((header = readLine()) != null && header.length() > 0) {
+                int colon = header.indexOf(':');
+                if (colon == -1) {
+                    continue;
+                }
+                String name = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Page-ID")) {
+                    pageID = value;
+                }
+                else if (name.equalsIgnoreCase("Content-Length")) {
+                    try {
+                        length = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        length = -1;
+                    }
+                }
+            }
+            if (header == null || pageID == null || length < 0) {
+                broken(start);
+                return null;
+            }
+            byte[] payload = new byte[length];
+            byte[] trailer = new byte[PageStore.TRAILER.length];
+            try {
+                in.readFully(payload);
+                in.readFully(trailer);
+            } catch (EOFException e) {
+                broken(start);
+                return null;
+            }
+            position += length + trailer.length;
+            for (int i = 0; i < trailer.length; i++) {
+                if (trailer[i] != PageStore.TRAILER[i]) {
+                    broken(start);
+                    return null;
+                }
+            }
+            PageRecord page = PageRecord.parse(pageID, new String(payload, StandardCharsets.UTF_8));
+            if (page != null) {
+                page.setSize(length);
+                return page;
+            }
+            // an unreadable page is skipped, the framing is still fine
+            System.out.println("page " + pageID + " in " + file.getName() + " incomplete, ignore");
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * This method reads a header line ending with \r\n, and returns null at the end of the file
+     */
+    private String readLine() throws IOException {
+        int count = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            position++;
+            if (b == '\n') {
+                if (count > 0 && line[count - 1] == '\r') {
+                    count--;
+                }
+                return new String(line, 0, count, StandardCharsets.UTF_8);
+            }
+            if (count == line.length) {
+                byte[] longer = new byte[line.length * 2];
+                System.arraycopy(line, 0, longer, 0, count);
+                line = longer;
+            }
+            line[count++] = (byte) b;
+        }
+        return null;
+    }
+
+    private void broken(long offset) {
+        System.out.println("segment " + file.getPath() + " is cut at offset " + offset + ", ignore the rest");
+    }
+}
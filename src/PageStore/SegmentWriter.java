@@ -0,0 +1,212 @@
+package PageStore;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Appends pages to the segment files of one directory, so that a crawler thread only does
+ * sequential writes instead of creating a file per page.
+ *
+ * Files under dirPath:
+ * segment_N.seg - the pages, one record each (see PageStore for the framing)
+ * segment_N.idx - the pageID and offset of every record in segment_N.seg
+ *
+ * A new segment is started once the current one reaches segmentLimit bytes (or by
+ * rollIfOlder()), and a writer opened on a directory that has segments already starts
+ * after the last one. completedSegments() are the ones that will not be written again.
+ * Only the last segment of a directory can be incomplete after a crash: its .idx may miss
+ * the last records and its .seg may end in a cut record, PageStore handles both.
+ * A writer that keeps checkpoints of its own (the crawler) saves segmentID() and position(),
+ * and truncate() goes back to them before the directory is opened again.
+ */
+public class SegmentWriter {
+    public static final long DEFAULT_LIMIT = 128L * 1024 * 1024;
+
+    private final String dirPath;
+    private final long segmentLimit;
+    private int segmentID;
+    private FileOutputStream segmentFile;
+    private FileOutputStream indexFile;
+    private DataOutputStream segment;
+    private DataOutputStream index;
+    private long position;
+    private long openTime;
+
+    public SegmentWriter(String dirPath, long segmentLimit) throws IOException {
+        if (!dirPath.endsWith(File.separator)) {
+            dirPath += File.separator;
+        }
+        this.dirPath = dirPath;
+        this.segmentLimit = segmentLimit;
+        File dir = new File(dirPath);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        segmentID = PageStore.lastSegmentID(dir) + 1;
+        open();
+    }
+
+    /**
+     * This method appends a page to the current segment
+     */
+    public synchronized void append(PageRecord page) throws IOException {
+        if (segment == null) {
+            throw new IOException("Segment writer of " + dirPath + " is closed");
+        }
+        if (position >= segmentLimit) {
+            roll();
+        }
+        byte[] payload = page.format().getBytes(StandardCharsets.UTF_8);
+        byte[] header = PageStore.header(page.getPageID(), page.getUrl(), payload.length);
+        index.writeUTF(page.getPageID());
+        index.writeLong(position);
+        segment.write(header);
+        segment.write(payload);
+        segment.write(PageStore.TRAILER);
+        position += header.length + payload.length + PageStore.TRAILER.length;
+        page.setSize(payload.length);
+    }
+
+    /**
+     * This method writes the buffered records to disk
+     */
+    public synchronized void flush() throws IOException {
+        if (segment != null) {
+            segment.flush();
+            index.flush();
+        }
+    }
+
+    /**
+     * This method writes the buffered records to disk and waits until they are stored on the device
+     */
+    public synchronized void sync() throws IOException {
+        if (segment != null) {
+            segment.flush();
+            index.flush();
+            segmentFile.getFD().sync();
+            indexFile.getFD().sync();
+        }
+    }
+
+    /**
+     * This method starts a new segment if the current one has records and was started
+     * at least maxAge ms ago, and returns whether it did
+     */
+    public synchronized boolean rollIfOlder(long maxAge) throws IOException {
+        if (segment == null || position == 0 || System.currentTimeMillis() - openTime < maxAge) {
+            return false;
+        }
+        roll();
+        return true;
+    }
+
+    /**
+     * This method returns the segments of the directory that are not written any more,
+     * all of them once the writer is closed
+     */
+    public synchronized File[] completedSegments() {
+        File[] segments = PageStore.segments(new File(dirPath));
+        int count = 0;
+        while (count < segments.length
+                && (segment == null || PageStore.segmentID(segments[count].getName()) < segmentID)) {
+            count++;
+        }
+        File[] completed = new File[count];
+        System.arraycopy(segments, 0, completed, 0, count);
+        return completed;
+    }
+
+    /**
+     * This method returns the number of the segment being written
+     */
+    public synchronized int segmentID() {
+        return segmentID;
+    }
+
+    /**
+     * This method returns the length of the segment being written, which is where the next record goes
+     */
+    public synchronized long position() {
+        return position;
+    }
+
+    /**
+     * This method removes everything written to dirPath after segment segmentID reached position:
+     * later segments are deleted, and the segment and its index are cut back
+     */
+    public static void truncate(String dirPath, int segmentID, long position) throws IOException {
+        File dir = new File(dirPath);
+        for (File segment : PageStore.segments(dir)) {
+            int id = PageStore.segmentID(segment.getName());
+            File index = PageStore.indexFile(segment);
+            if (id > segmentID) {
+                segment.delete();
+                index.delete();
+            }
+            else if (id == segmentID && segment.length() > position) {
+                RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+                raf.setLength(position);
+                raf.close();
+                truncateIndex(index, position);
+            }
+        }
+    }
+
+    /**
+     * This method keeps only the index entries of the records before position
+     */
+    private static void truncateIndex(File index, long position) throws IOException {
+        if (!index.exists()) {
+            return;
+        }
+        long valid = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+        try {
+            while (true) {
+                String pageID = in.readUTF();
+                if (in.readLong() >= position) {
+                    break;
+                }
+                valid += 2 + pageID.getBytes("UTF-8").length + 8;
+            }
+        } catch (IOException e) {
+            // end of the index
+        } finally {
+            in.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(index, "rw");
+        raf.setLength(valid);
+        raf.close();
+    }
+
+    public synchronized void close() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        sync();
+        segment.close();
+        index.close();
+        segment = null;
+        index = null;
+    }
+
+    private void roll() throws IOException {
+        // a completed segment is on disk before anyone is told about it
+        sync();
+        segment.close();
+        index.close();
+        segmentID++;
+        open();
+    }
+
+    private void open() throws IOException {
+        String name = dirPath + PageStore.SEGMENT_PREFIX + segmentID;
+        segmentFile = new FileOutputStream(name + PageStore.SEGMENT_SUFFIX);
+        indexFile = new FileOutputStream(name + PageStore.INDEX_SUFFIX);
+        segment = new DataOutputStream(new BufferedOutputStream(segmentFile, 1 << 16));
+        index = new DataOutputStream(new BufferedOutputStream(indexFile, 1 << 12));
+        position = 0;
+        openTime = System.currentTimeMillis();
+    }
+}
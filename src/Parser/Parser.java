@@ -1,262 +1,899 @@
 package Parser;
 
-import javax.mail.internet.AddressException;
-import javax.mail.internet.InternetAddress;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Created by ChenChen on 4/22/16.
  */
 public class Parser {
     private String content;
-    private Set<String> StopWordList;
+    private StopWords StopWordList;
     private List<String> resTokens;
     private List<String> tokensType;
+    private TokenSink sink;
+    private int position;
 
     private static final int    DIFF_DIGIT_LETTER       = 5;
     private static final int    TOKEN_LENGTH_THRESHOLD  = 30;
-    private static final String DELIMS_1            = "[ \n\r\t ]+";
-    private static final String DELIMS_2            = "[~#%&*{}\\:<>?/|!$=+;_()\"^]+";
-    private static final String IS_ENGLISH_REGEX    = "^[ \\w \\d \\s \\. \\& \\+ \\- \\, \\! \\@ \\# \\$ \\% \\^ \\* \\( \\) \\; \\\\ \\/ \\| \\< \\> \\\" \\' \\? \\= \\: \\[ \\] ]*$";
+    // characters which split content, the last one is no-break space
+    private static final String DELIMS_1            = " \n\r\t\u00A0";
+    // characters which split a token the second time
+    private static final String DELIMS_2            = "~#%&*{}:<>?/|!$=+;_()\"^";
+    // besides letter, digit and "_", an english token can only have these characters
+    private static final String ENGLISH_CHARS       = " \t\n\u000B\f\r.&+-,!@#$%^*();\\/|<>\"'?=:[]";
 
-    public Parser(String str, Set<String> stopwordlist) {
+    // lookup tables for ASCII characters
+    private static final boolean[] IS_DELIM_1  = BuildTable(DELIMS_1);
+    private static final boolean[] IS_DELIM_2  = BuildTable(DELIMS_2);
+    private static final boolean[] IS_ENGLISH  = BuildTable(ENGLISH_CHARS
+            + "_0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ");
+
+    // protocols which java.net.URL has handler for
+    private static final String[] URL_PROTOCOLS = {"http", "https", "ftp", "file", "jar", "mailto"};
+
+    // content longer than PARALLEL_THRESHOLD chars is parsed in chunks of about CHUNK_SIZE chars
+    private static final int    PARALLEL_THRESHOLD  = 1 << 20;
+    private static final int    CHUNK_SIZE          = 1 << 17;
+    private static final int    CHUNK_THREADS       = Runtime.getRuntime().availableProcessors();
+    private static final int    CHUNKS_IN_FLIGHT    = 2 * CHUNK_THREADS;
+
+    // characters cannot be used in local part of email address without quote
+    private static final String EMAIL_SPECIALS = "()<>,;:\\\"[]@";
+
+    public Parser(String str, StopWords stopwordlist) {
         content = str;
         StopWordList = stopwordlist;
         resTokens = new ArrayList<String>();
         tokensType = new ArrayList<String>();
     }
 
-    public void Parse() {
-        // we need use split method twice
-        // first use " " to split whose content
-        // then use special characters to split token
-        // the reason do make this design is that using other character to splic content
-        // might broken a whole token, such as URL
-        // be careful, in DELIMS_1 the first space " " is different with the last space " "
-        String[] tokens = content.split(DELIMS_1);
-        for (String token : tokens) {
-            // delete useless chars at token's head and tail
-            // also can filter those token which are not english word
-            String tempToken = FilterTwoSidePunctuation(token);
-            // it is possible that after filter two side punctuation, temptoken becomes ""
-            if ("".equals(tempToken)) {
-                continue;
+    private static boolean[] BuildTable(String chars) {
+        boolean[] table = new boolean[128];
+        for (int i = 0; i < chars.length(); i++) {
+            if (chars.charAt(i) < 128) {
+                table[chars.charAt(i)] = true;
             }
+        }
+        return table;
+    }
 
-            // stop word list
-            if (StopWordList.contains(tempToken.toLowerCase())) {
-                resTokens.add(tempToken);
-                tokensType.add("STOPWORD");
-                continue;
+    /*
+     * scan content only once, char by char, without regular expression and exception
+     * first use DELIMS_1 to find whole tokens, so that URL and email are not broken,
+     * then tokens which are not URL or email are split again by DELIMS_2
+     * results are kept in GetResTokens() and GetTokensType()
+     */
+    public void Parse() {
+        Parse(new TokenSink() {
+            public void Token(CharSequence text, int start, int end, byte type, int position) {
+                resTokens.add(content.substring(start, end));
+                tokensType.add(TokenType.Name(type));
             }
+        });
+    }
 
-            // check if it is URL
-            if (IsValidURL(tempToken)) {
-                resTokens.add(tempToken);
-                tokensType.add("URL");
-                continue;
+    /*
+     * the same with Parse(), but every token is pushed to tokenSink instead of being kept,
+     * so the caller can consume tokens directly without copying them into lists
+     * very large content is parsed in chunks in parallel, see ParseInChunks()
+     */
+    public void Parse(TokenSink tokenSink) {
+        sink = tokenSink;
+        position = 0;
+        if (content.length() >= PARALLEL_THRESHOLD && CHUNK_THREADS > 1) {
+            ParseInChunks();
+        } else {
+            ParseRange(0, content.length());
+        }
+    }
+
+    /*
+     * parse content[from, to), from and to must not be inside a token
+     */
+    private void ParseRange(int from, int to) {
+        int pos = from;
+        while (pos < to) {
+            while (pos < to && IsDelim1(content.charAt(pos))) {
+                pos++;
+            }
+            int start = pos;
+            while (pos < to && !IsDelim1(content.charAt(pos))) {
+                pos++;
+            }
+            if (start < pos) {
+                ParseToken(start, pos);
             }
+        }
+    }
 
-            // check if it is email address
-            // if it is email address, store it to a special file
-            // which is only for email
-            // the file name is "EMAIL" and the format is:
-            // email    pageID (same line, seperator: \t)
-            if (IsValidEmailAddress(tempToken)) {
-                resTokens.add(tempToken);
-                tokensType.add("EMAIL");
+    /*
+     * tokens never cross DELIMS_1 characters, so content is cut into chunks of about CHUNK_SIZE
+     * at DELIMS_1 characters, and the chunks are parsed independently on the shared pool
+     * the calling thread hands the tokens of each chunk to sink in content order, with positions
+     * counted over the whole content, so sink sees exactly the same calls as with one thread
+     * at most CHUNKS_IN_FLIGHT chunks are buffered at the same time
+     */
+    private void ParseInChunks() {
+        int length = content.length();
+        ArrayDeque<int[]> ranges = new ArrayDeque<int[]>();
+        ArrayDeque<Future<TokenBuffer>> parsing = new ArrayDeque<Future<TokenBuffer>>();
+        int from = 0;
+        while (from < length || !parsing.isEmpty()) {
+            while (from < length && parsing.size() < CHUNKS_IN_FLIGHT) {
+                int to = Math.min(length, from + CHUNK_SIZE);
+                while (to < length && !IsDelim1(content.charAt(to))) {
+                    to++;
+                }
+                final int chunkFrom = from;
+                final int chunkTo = to;
+                parsing.add(ChunkPool.POOL.submit(new Callable<TokenBuffer>() {
+                    public TokenBuffer call() {
+                        Parser chunkParser = new Parser(content, StopWordList);
+                        TokenBuffer buffer = new TokenBuffer();
+                        chunkParser.sink = buffer;
+                        chunkParser.ParseRange(chunkFrom, chunkTo);
+                        return buffer;
+                    }
+                }));
+                ranges.add(new int[] {from, to});
+                from = to;
+            }
+            int[] range = ranges.poll();
+            Future<TokenBuffer> future = parsing.poll();
+            TokenBuffer buffer = null;
+            try {
+                buffer = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // parse it again on this thread below
+            }
+            if (buffer == null) {
+                ParseRange(range[0], range[1]);
                 continue;
             }
+            for (int i = 0; i < buffer.size; i++) {
+                sink.Token(content, buffer.starts[i], buffer.ends[i], buffer.types[i], position);
+                position++;
+            }
+        }
+    }
 
-            // we can use ldpClass to know the statistic value of token for letter, digit and punctuation
-            LDPClass ldpClass = GetLDPClass(tempToken);
+    /*
+     * classify token content[start, end)
+     */
+    private void ParseToken(int start, int end) {
+        // delete useless chars at token's head and tail
+        // also can filter those token which are not english word
+        int begin = SkipHeadPunctuation(start, end);
+        end = SkipTailPunctuation(begin, end);
+        // it is possible that after filter two side punctuation, token becomes ""
+        if (begin == end) {
+            return;
+        }
 
-            // check if doesn't has letter
-            // e.g. 12:30
-            if (!ldpClass.hasLetter) {
-                resTokens.add(tempToken);
-                tokensType.add("NUM");
-                continue;
-            }
+        // stop word list
+        if (IsStopWord(begin, end)) {
+            AddToken(begin, end, TokenType.STOPWORD);
+            return;
+        }
 
-            // check if token only contains english characters, digits and punctuation
-            if (!IsEnglish(tempToken)) {
-                continue;
+        // do statistic analysis for token in the same pass:
+        // letter, digit and punctuation numbers, whether it is english,
+        // whether it has DELIMS_2 characters, and where ":" and "@" are
+        int letterNum = 0;
+        int digitNum = 0;
+        int punctuationNum = 0;
+        boolean isEnglish = true;
+        boolean hasDelim2 = false;
+        int colonPos = -1;
+        int atPos = -1;
+        for (int i = begin; i < end; i++) {
+            char c = content.charAt(i);
+            if (Character.isDigit(c)) {
+                digitNum++;
+            } else if (Character.isLetter(c)) {
+                letterNum++;
+            } else {
+                punctuationNum++;
             }
-
-            // skip the case that token only has digit and letter,
-            // and the number of digit is much more than that of letter
-            // or the length of token is over-long
-            if (!ldpClass.hasPunctuation) {
-                int diff = ldpClass.digitNum - ldpClass.letterNum;
-                if (diff >= DIFF_DIGIT_LETTER) {
-                    continue;
-                }
-                if (ldpClass.letterNum + ldpClass.digitNum > TOKEN_LENGTH_THRESHOLD) {
-                    continue;
+            if (c >= 128 || !IS_ENGLISH[c]) {
+                isEnglish = false;
+            } else if (IS_DELIM_2[c]) {
+                hasDelim2 = true;
+                if (c == ':' && colonPos == -1) {
+                    colonPos = i;
                 }
+            } else if (c == '@' && atPos == -1) {
+                atPos = i;
             }
+        }
+        if (!isEnglish) {
+            colonPos = IndexOf(':', begin, end);
+            atPos = IndexOf('@', begin, end);
+        }
 
-            // second place to use split
-            // since we already make sure that the token is not email and url
-            // use characters are not allowed to use in file or folder name: ~#%&*{}\:<>?/|
-            // and use characters is not valid in english word such as + ;
-            // cannot use ",", because number can have it like 100,000
-            if (ldpClass.hasPunctuation) {
-                String[] smallTokens = tempToken.split(DELIMS_2);
-                if (smallTokens.length > 1) {
-                    for (String smallToken : smallTokens) {
-                        String modifySmallToken = FilterTwoSidePunctuation(smallToken);
-
-                        // stop word list
-                        if (StopWordList.contains(modifySmallToken.toLowerCase())) {
-                            resTokens.add(modifySmallToken);
-                            tokensType.add("STOPWORD");
-                            continue;
-                        }
+        // check if it is URL, a URL must begin with "protocol:"
+        if (colonPos != -1 && IsValidURL(begin, end)) {
+            AddToken(begin, end, TokenType.URL);
+            return;
+        }
 
-                        // email
-                        if (IsValidEmailAddress(modifySmallToken)) {
-                            resTokens.add(modifySmallToken);
-                            tokensType.add("EMAIL");
-                            continue;
-                        }
+        // check if it is email address
+        // if it is email address, store it to a special file
+        // which is only for email
+        if (atPos != -1 && IsValidEmailAddress(begin, end)) {
+            AddToken(begin, end, TokenType.EMAIL);
+            return;
+        }
 
-                        LDPClass tempLDPClass = GetLDPClass(modifySmallToken);
-                        if (!tempLDPClass.hasLetter) {
-                            resTokens.add(modifySmallToken);
-                            tokensType.add("NUM");
-                            continue;
-                        }
+        // check if doesn't has letter
+        // e.g. 12:30
+        if (letterNum == 0) {
+            AddToken(begin, end, TokenType.NUM);
+            return;
+        }
 
-                        if (!tempLDPClass.hasPunctuation) {
-                            int tempDiff = tempLDPClass.digitNum - tempLDPClass.letterNum;
-                            if (tempDiff >= DIFF_DIGIT_LETTER) {
-                                continue;
-                            }
-                            if (tempLDPClass.letterNum + tempLDPClass.digitNum > TOKEN_LENGTH_THRESHOLD) {
-                                continue;
-                            }
-                        } else {
-                            // if token has punctuation (actually only has "-" or "'" now)
-                            // we just consider diff between num of digits and that of letter
-                            int tempDiff = tempLDPClass.digitNum - tempLDPClass.letterNum;
-                            if (tempDiff >= DIFF_DIGIT_LETTER) {
-                                continue;
-                            }
-                        }
+        // check if token only contains english characters, digits and punctuation
+        if (!isEnglish) {
+            return;
+        }
 
-                        resTokens.add(modifySmallToken);
-                        tokensType.add("WORD");
-                    }
-                } else {
-                    // until know, we can sure that punctuations that the token has
-                    // only include "-" or "'"
-                    int tempDiff = ldpClass.digitNum - ldpClass.letterNum;
-                    if (tempDiff >= DIFF_DIGIT_LETTER) {
-                        continue;
-                    }
-                    resTokens.add(smallTokens[0]);
-                    tokensType.add("WORD");
-                }
+        // skip the case that token only has digit and letter,
+        // and the number of digit is much more than that of letter
+        // or the length of token is over-long
+        if (punctuationNum == 0) {
+            if (digitNum - letterNum >= DIFF_DIGIT_LETTER) {
+                return;
+            }
+            if (letterNum + digitNum > TOKEN_LENGTH_THRESHOLD) {
+                return;
+            }
+            AddToken(begin, end, TokenType.WORD);
+            return;
+        }
+
+        // until now, if token has no DELIMS_2 characters, we can sure that
+        // punctuations that the token has only include "-" or "'" (or , . @ [ ] \)
+        if (!hasDelim2) {
+            if (digitNum - letterNum >= DIFF_DIGIT_LETTER) {
+                return;
+            }
+            AddToken(begin, end, TokenType.WORD);
+            return;
+        }
+
+        // second split, since we already make sure that the token is not email and url
+        // use characters are not allowed to use in file or folder name: ~#%&*{}\:<>?/|
+        // and use characters is not valid in english word such as + ;
+        // cannot use ",", because number can have it like 100,000
+        // token begins and ends with letter or digit, so every small token is not empty
+        int pos = begin;
+        while (pos < end) {
+            while (pos < end && IS_DELIM_2[content.charAt(pos)]) {
+                pos++;
+            }
+            int smallStart = pos;
+            while (pos < end && !IS_DELIM_2[content.charAt(pos)]) {
+                pos++;
+            }
+            if (smallStart < pos) {
+                ParseSmallToken(smallStart, pos);
+            }
+        }
+    }
+
+    /*
+     * classify a small token content[start, end) created by the second split
+     * the whole token is english, so the small token only has letter, digit and . , - ' @ [ ] \
+     */
+    private void ParseSmallToken(int start, int end) {
+        int begin = SkipHeadPunctuation(start, end);
+        end = SkipTailPunctuation(begin, end);
+
+        // stop word list
+        if (IsStopWord(begin, end)) {
+            AddToken(begin, end, TokenType.STOPWORD);
+            return;
+        }
+
+        int letterNum = 0;
+        int digitNum = 0;
+        int punctuationNum = 0;
+        int atPos = -1;
+        for (int i = begin; i < end; i++) {
+            char c = content.charAt(i);
+            if (Character.isDigit(c)) {
+                digitNum++;
+            } else if (Character.isLetter(c)) {
+                letterNum++;
             } else {
-                // if second delims doesn't splice the token
-                resTokens.add(tempToken);
-                tokensType.add("WORD");
+                punctuationNum++;
+                if (c == '@' && atPos == -1) {
+                    atPos = i;
+                }
             }
         }
+
+        // email
+        if (atPos != -1 && IsValidEmailAddress(begin, end)) {
+            AddToken(begin, end, TokenType.EMAIL);
+            return;
+        }
+
+        // small token only has punctuation is also a NUM (as before), even if it is ""
+        if (letterNum == 0) {
+            AddToken(begin, end, TokenType.NUM);
+            return;
+        }
+
+        if (digitNum - letterNum >= DIFF_DIGIT_LETTER) {
+            return;
+        }
+        if (punctuationNum == 0 && letterNum + digitNum > TOKEN_LENGTH_THRESHOLD) {
+            return;
+        }
+        AddToken(begin, end, TokenType.WORD);
+    }
+
+    private static boolean IsDelim1(char c) {
+        return c < 128 ? IS_DELIM_1[c] : c == '\u00A0';
     }
 
     /*
      * filter punctuations at token's head and tail
      * e.g. tomorrow. -> tomorrow       "aaa" -> aaa
-     * if token only has punctuation or other language character, return ""
+     * if token only has punctuation or other language character, begin == end
      */
-    private String FilterTwoSidePunctuation(String token) {
-        int begin = 0;
-        int end = token.length() - 1;
-        while (begin < token.length()) {
-            if (!Character.isLetterOrDigit(token.charAt(begin))) {
-                begin++;
-            } else {
+    private int SkipHeadPunctuation(int begin, int end) {
+        while (begin < end && !Character.isLetterOrDigit(content.charAt(begin))) {
+            begin++;
+        }
+        return begin;
+    }
+
+    private int SkipTailPunctuation(int begin, int end) {
+        while (end > begin && !Character.isLetterOrDigit(content.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private int IndexOf(char c, int begin, int end) {
+        for (int i = begin; i < end; i++) {
+            if (content.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean IsStopWord(int begin, int end) {
+        return StopWordList.Contains(content, begin, end);
+    }
+
+    private void AddToken(int begin, int end, byte type) {
+        sink.Token(content, begin, end, type, position);
+        position++;
+    }
+
+    /*
+     * Check whether content[begin, end) is a valid URL, the same rules as new java.net.URL(token):
+     * "protocol:" with a known protocol, and the part after it must be parsable by its handler
+     */
+    private boolean IsValidURL(int begin, int end) {
+        while (begin < end && content.charAt(begin) <= ' ') {
+            begin++;
+        }
+        while (end > begin && content.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        // java.net.URL allows "url:" before the real URL
+        boolean hasPrefix = end - begin >= 4 && content.regionMatches(true, begin, "url:", 0, 4);
+        if (hasPrefix) {
+            begin += 4;
+        }
+        // protocol ends with the first ":", and there must be no "/" before it
+        int colon = -1;
+        for (int i = begin; i < end; i++) {
+            char c = content.charAt(i);
+            if (c == '/' || (i == begin && c == '#')) {
+                return false;
+            }
+            if (c == ':') {
+                colon = i;
                 break;
             }
         }
-        while (end >= 0) {
-            if (!Character.isLetterOrDigit(token.charAt(end))) {
-                end--;
-            } else {
+        if (colon == -1) {
+            return false;
+        }
+        String protocol = null;
+        for (String p : URL_PROTOCOLS) {
+            if (colon - begin == p.length() && content.regionMatches(true, begin, p, 0, p.length())) {
+                protocol = p;
                 break;
             }
         }
-        if (begin <= end) {
-            return token.substring(begin, end+1);
-        } else {
-            return "";
+        if (protocol == null) {
+            return false;
+        }
+        // "#" starts reference, it is not parsed
+        int limit = IndexOf('#', colon + 1, end);
+        if (limit == -1) {
+            limit = end;
+        }
+        if ("jar".equals(protocol)) {
+            // jar:[inner URL]!/[entry], the inner URL is checked too
+            // with "url:" prefix, jar handler only accepts a reference
+            if (hasPrefix) {
+                return limit == colon + 1;
+            }
+            for (int i = limit - 2; i > colon; i--) {
+                if (content.charAt(i) == '!' && content.charAt(i + 1) == '/') {
+                    return IsValidURL(colon + 1, i);
+                }
+            }
+            return false;
         }
+        if ("mailto".equals(protocol)) {
+            // mailto needs a not blank address
+            for (int i = colon + 1; i < limit; i++) {
+                if (!Character.isWhitespace(content.charAt(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // "?" starts query, it is not parsed either
+        int query = IndexOf('?', colon + 1, limit);
+        if (query != -1) {
+            limit = query;
+        }
+        return IsValidAuthority(colon + 1, limit);
     }
 
     /*
-     * Check whether string is valid URL
+     * for hierarchical protocols, authority after "//" must have valid host and port
      */
-    private boolean IsValidURL(String token) {
-        boolean result = true;
-        try {
-            URL url = new URL(token);
-        } catch (MalformedURLException e) {
-            result = false;
-        }
-        return result;
+    private boolean IsValidAuthority(int start, int limit) {
+        if (start + 1 >= limit || content.charAt(start) != '/' || content.charAt(start + 1) != '/') {
+            return true;
+        }
+        int begin = start + 2;
+        int end = IndexOf('/', begin, limit);
+        if (end == -1) {
+            end = limit;
+        }
+        // user info, host is not checked if there are more than one "@"
+        int at = IndexOf('@', begin, end);
+        int hostBegin = begin;
+        if (at != -1) {
+            if (IndexOf('@', at + 1, end) != -1) {
+                return true;
+            }
+            hostBegin = at + 1;
+        }
+        int portColon;
+        if (hostBegin < end && content.charAt(hostBegin) == '[') {
+            int close = IndexOf(']', hostBegin, end);
+            if (close - hostBegin <= 2 || !IsIPv6Literal(hostBegin + 1, close)) {
+                return false;
+            }
+            if (close + 1 == end) {
+                return true;
+            }
+            if (content.charAt(close + 1) != ':') {
+                return false;
+            }
+            portColon = close + 1;
+        } else {
+            portColon = IndexOf(':', hostBegin, end);
+            // host cannot have control characters
+            for (int i = hostBegin; i < (portColon == -1 ? end : portColon); i++) {
+                if (content.charAt(i) < ' ' || content.charAt(i) == 0x7F) {
+                    return false;
+                }
+            }
+            if (portColon == -1) {
+                return true;
+            }
+        }
+        // port can be empty, otherwise it is parsed like Integer.parseInt(), and -1 means no port
+        if (portColon + 1 == end) {
+            return true;
+        }
+        int i = portColon + 1;
+        boolean negative = content.charAt(i) == '-';
+        if (negative || content.charAt(i) == '+') {
+            i++;
+            if (i == end) {
+                return false;
+            }
+        }
+        long port = 0;
+        for (; i < end; i++) {
+            int digit = Character.digit(content.charAt(i), 10);
+            if (digit == -1) {
+                return false;
+            }
+            port = port * 10 + digit;
+            if (port > Integer.MAX_VALUE + 1L) {
+                return false;
+            }
+        }
+        return negative ? port <= 1 : port <= Integer.MAX_VALUE;
     }
 
     /*
-     * Check whether string is a email address
+     * IPv6 address in URL: hex groups separated by ":", at most one "::",
+     * may end with an IPv4 address
      */
-    private boolean IsValidEmailAddress(String token) {
-        boolean result = true;
-        try {
-            InternetAddress emailAddr = new InternetAddress(token);
-            emailAddr.validate();
-        } catch (AddressException ex) {
-            result = false;
-        } catch (Exception e) {
-            result = false;
-        }
-        return result;
+    private boolean IsIPv6Literal(int begin, int end) {
+        int groups = 0;
+        boolean hasDoubleColon = false;
+        int i = begin;
+        if (i == end) {
+            return false;
+        }
+        if (content.charAt(i) == ':') {
+            if (i + 1 >= end || content.charAt(i + 1) != ':') {
+                return false;
+            }
+        }
+        while (i < end) {
+            if (content.charAt(i) == ':') {
+                if (i + 1 < end && content.charAt(i + 1) == ':') {
+                    if (hasDoubleColon) {
+                        return false;
+                    }
+                    hasDoubleColon = true;
+                    i += 2;
+                    continue;
+                }
+                if (i == begin || i + 1 == end) {
+                    return false;
+                }
+                i++;
+                continue;
+            }
+            int groupBegin = i;
+            boolean hasDot = false;
+            while (i < end && content.charAt(i) != ':') {
+                char c = content.charAt(i);
+                if (c == '.') {
+                    hasDot = true;
+                } else if (Character.digit(c, 16) == -1 || c > 'f') {
+                    return false;
+                }
+                i++;
+            }
+            if (hasDot) {
+                // IPv4 part must be the last one
+                if (i != end || !IsIPv4Literal(groupBegin, i)) {
+                    return false;
+                }
+                groups += 2;
+            } else {
+                if (i - groupBegin > 4) {
+                    return false;
+                }
+                groups++;
+            }
+        }
+        return hasDoubleColon ? groups < 8 : groups == 8;
+    }
+
+    private boolean IsIPv4Literal(int begin, int end) {
+        int parts = 0;
+        int i = begin;
+        while (i <= end) {
+            int partBegin = i;
+            int value = 0;
+            while (i < end && IsAsciiDigit(content.charAt(i))) {
+                value = value * 10 + (content.charAt(i) - '0');
+                i++;
+                if (value > 255) {
+                    return false;
+                }
+            }
+            if (i == partBegin || i - partBegin > 3) {
+                return false;
+            }
+            parts++;
+            if (i < end && content.charAt(i) != '.') {
+                return false;
+            }
+            i++;
+        }
+        return parts == 4;
+    }
+
+    private static boolean IsAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
     /*
-     * do statistic analysis for token
+     * Check whether content[begin, end) is a email address, the same rules as
+     * new javax.mail.internet.InternetAddress(token).validate():
+     * first find the address in the token, comments "(...)" are dropped and "<...>" is the address,
+     * there must be only one address, then check the address itself
      */
-    private LDPClass GetLDPClass(String token) {
-        int ln = 0;
-        int dn = 0;
-        int pn = 0;
-        for (int i = 0; i < token.length(); i++) {
-            if (Character.isDigit(token.charAt(i))) {
-                dn++;
-            } else if (Character.isLetter(token.charAt(i))) {
-                ln++;
-            } else {
-                pn++;
+    private boolean IsValidEmailAddress(int begin, int end) {
+        int start = -1;
+        int stop = -1;
+        boolean routeAddr = false;
+        boolean inGroup = false;
+        for (int i = begin; i < end; i++) {
+            char c = content.charAt(i);
+            switch (c) {
+                case '(':
+                    // comment, may be nested
+                    if (start >= 0 && stop == -1) {
+                        stop = i;
+                    }
+                    int nesting = 1;
+                    for (i++; i < end && nesting > 0; i++) {
+                        c = content.charAt(i);
+                        if (c == '\\') {
+                            i++;
+                        } else if (c == '(') {
+                            nesting++;
+                        } else if (c == ')') {
+                            nesting--;
+                        }
+                    }
+                    if (nesting > 0) {
+                        return false;
+                    }
+                    i--;
+                    break;
+                case '<':
+                    // route address
+                    if (routeAddr) {
+                        return false;
+                    }
+                    if (!inGroup) {
+                        start = i + 1;
+                    }
+                    boolean inQuote = false;
+                    for (i++; i < end; i++) {
+                        c = content.charAt(i);
+                        if (c == '\\') {
+                            i++;
+                        } else if (c == '"') {
+                            inQuote = !inQuote;
+                        } else if (c == '>' && !inQuote) {
+                            break;
+                        }
+                    }
+                    if (inQuote || i >= end) {
+                        return false;
+                    }
+                    routeAddr = true;
+                    stop = i;
+                    break;
+                case '"':
+                case '[':
+                    // quoted string or domain literal
+                    if (start == -1) {
+                        start = i;
+                    }
+                    char close = c == '"' ? '"' : ']';
+                    for (i++; i < end; i++) {
+                        c = content.charAt(i);
+                        if (c == '\\') {
+                            i++;
+                        } else if (c == close) {
+                            break;
+                        }
+                    }
+                    if (i >= end) {
+                        return false;
+                    }
+                    break;
+                case ':':
+                    // group, a nested one is not allowed
+                    if (inGroup) {
+                        return false;
+                    }
+                    if (start == -1) {
+                        start = i;
+                    }
+                    inGroup = true;
+                    break;
+                case ',':
+                    if (inGroup) {
+                        routeAddr = false;
+                        break;
+                    }
+                    // token ends with letter or digit, so there must be another address after ","
+                    return false;
+                case ';':
+                    // after a group or not, there must be another address
+                    return false;
+                case ')':
+                case '>':
+                    return false;
+                default:
+                    if (start == -1) {
+                        start = i;
+                    }
+                    break;
             }
         }
-        return new LDPClass(ln, dn, pn);
+        if (start == -1) {
+            return false;
+        }
+        if (stop == -1) {
+            stop = end;
+        }
+        // trim
+        while (start < stop && content.charAt(start) <= ' ') {
+            start++;
+        }
+        while (stop > start && content.charAt(stop - 1) <= ' ') {
+            stop--;
+        }
+        return CheckEmailAddress(start, stop, routeAddr, false) && CheckEmailAddress(start, stop, true, true);
     }
 
     /*
-     * use regular expression to check whether text only contains letter, digit and punctuation
-     * it can filter other language and too special characters
+     * local part: no control, space, non-ASCII or special characters unless quoted or escaped
+     * domain: letter, digit, "-" and ".", no dot-dot, does not begin or end with dot,
+     * or a domain literal "[...]"
      */
-    private boolean IsEnglish(String text) {
-        if (text == null) {
+    private boolean CheckEmailAddress(int begin, int end, boolean routeAddr, boolean validate) {
+        if (begin == end) {
+            return false;
+        }
+        int start = begin;
+        int i;
+        if (routeAddr && content.charAt(begin) == '@') {
+            // source route: "@domain,@domain:"
+            for (; (i = IndexOfRouteEnd(start, end)) >= 0; start = i + 1) {
+                if (content.charAt(start) != '@') {
+                    return false;
+                }
+                if (content.charAt(i) == ':') {
+                    start = i + 1;
+                    break;
+                }
+            }
+        }
+
+        char c = (char) -1;
+        char lastc;
+        boolean inQuote = false;
+        for (i = start; i < end; i++) {
+            lastc = c;
+            c = content.charAt(i);
+            // a quoted-pair is only supposed to occur inside a quoted string
+            if (c == '\\' || lastc == '\\') {
+                continue;
+            }
+            if (c == '"') {
+                if (inQuote) {
+                    if (validate && i + 1 < end && content.charAt(i + 1) != '@') {
+                        return false;
+                    }
+                    inQuote = false;
+                } else {
+                    if (validate && i != begin) {
+                        return false;
+                    }
+                    inQuote = true;
+                }
+                continue;
+            }
+            if (inQuote) {
+                continue;
+            }
+            if (c == '@') {
+                if (i == begin) {
+                    return false;
+                }
+                break;
+            }
+            if (c <= ' ' || c >= 0x7F || EMAIL_SPECIALS.indexOf(c) >= 0) {
+                return false;
+            }
+        }
+        if (inQuote) {
+            return false;
+        }
+        if (c != '@') {
+            return !validate;
+        }
+
+        // domain
+        start = i + 1;
+        if (start >= end || content.charAt(start) == '.') {
             return false;
         }
-        return text.matches(IS_ENGLISH_REGEX);
+        boolean inLiteral = false;
+        lastc = c;
+        for (i = start; i < end; i++) {
+            c = content.charAt(i);
+            if (c == '[') {
+                if (i != start) {
+                    return false;
+                }
+                inLiteral = true;
+            } else if (c == ']') {
+                if (!inLiteral || i != end - 1) {
+                    return false;
+                }
+                inLiteral = false;
+            } else if (c <= ' ' || c >= 0x7F) {
+                return false;
+            } else if (!inLiteral) {
+                if (!(Character.isLetterOrDigit(c) || c == '-' || c == '.')) {
+                    return false;
+                }
+                if (c == '.' && lastc == '.') {
+                    return false;
+                }
+            }
+            lastc = c;
+        }
+        return lastc != '.';
+    }
+
+    private int IndexOfRouteEnd(int begin, int end) {
+        for (int i = begin; i < end; i++) {
+            if (content.charAt(i) == ',' || content.charAt(i) == ':') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * tokens of one chunk, kept as ranges of content until the chunk's turn comes
+     */
+    private static class TokenBuffer implements TokenSink {
+        private int[] starts = new int[1024];
+        private int[] ends = new int[1024];
+        private byte[] types = new byte[1024];
+        private int size = 0;
+
+        public void Token(CharSequence text, int start, int end, byte type, int position) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                types = Arrays.copyOf(types, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            types[size] = type;
+            size++;
+        }
+    }
+
+    /*
+     * one pool of daemon threads shared by all parsers, only created when a large content comes
+     */
+    private static class ChunkPool {
+        private static final ExecutorService POOL = Executors.newFixedThreadPool(CHUNK_THREADS,
+                new ThreadFactory() {
+                    private int count = 0;
+
+                    public synchronized Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "parser-chunk-" + count++);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
     }
 
     /*
@@ -0,0 +1,165 @@
+package Parser;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable, case-insensitive stop word list, shared by Parser, Indexter and Retriever.
+ *
+ * Contains() tests a char range of the content directly: it lower cases char by char
+ * while hashing and comparing, so no lower case copy of the token is made.
+ * Words are kept in one char array and found through an open addressing table.
+ *
+ * Load() reads each stop list file (e.g. source/ShotStopList.txt) only once per JVM,
+ * later calls with the same file get the same instance.
+ */
+public class StopWords {
+    private static final ConcurrentHashMap<String, StopWords> loaded = new ConcurrentHashMap<String, StopWords>();
+    private static final StopWords EMPTY = new StopWords(new ArrayList<String>());
+
+    private char[] chars;       // all words, lower case, one after another
+    private int[] begins;       // word i is chars[begins[i], begins[i + 1])
+    private int[] table;        // word index + 1, 0 means empty slot
+    private int mask;
+    private int maxLength;
+
+    private StopWords(List<String> words) {
+        int total = 0;
+        for (String word : words) {
+            total += word.length();
+        }
+        chars = new char[total];
+        begins = new int[words.size() + 1];
+        int size = 1;
+        while (size < words.size() * 2) {
+            size <<= 1;
+        }
+        table = new int[size];
+        mask = size - 1;
+        maxLength = 0;
+
+        int count = 0;
+        int pos = 0;
+        for (String word : words) {
+            if (Contains(word, 0, word.length())) {
+                continue;
+            }
+            word.getChars(0, word.length(), chars, pos);
+            begins[count] = pos;
+            pos += word.length();
+            begins[count + 1] = pos;
+            maxLength = Math.max(maxLength, word.length());
+            int slot = Hash(word, 0, word.length()) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = count + 1;
+            count++;
+        }
+    }
+
+    public static StopWords Empty() {
+        return EMPTY;
+    }
+
+    /*
+     * words are trimmed and lower cased, empty ones are skipped
+     */
+    public static StopWords Of(Collection<String> words) {
+        List<String> list = new ArrayList<String>();
+        for (String word : words) {
+            word = word.trim();
+            if (!"".equals(word)) {
+                list.add(word.toLowerCase());
+            }
+        }
+        return new StopWords(list);
+    }
+
+    /*
+     * one word per line, the file is read once and the result is shared
+     */
+    public static StopWords Load(String path) throws IOException {
+        String key = new File(path).getCanonicalPath();
+        StopWords stopWords = loaded.get(key);
+        if (stopWords != null) {
+            return stopWords;
+        }
+        List<String> words = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(key), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            words.add(line);
+        }
+        reader.close();
+        stopWords = Of(words);
+        StopWords old = loaded.putIfAbsent(key, stopWords);
+        return old == null ? stopWords : old;
+    }
+
+    public boolean Contains(String word) {
+        return Contains(word, 0, word.length());
+    }
+
+    /*
+     * whether text[start, end) is a stop word, ignoring case
+     */
+    public boolean Contains(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length == 0 || length > maxLength) {
+            return false;
+        }
+        int slot = Hash(text, start, end) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            int begin = begins[entry - 1];
+            if (begins[entry] - begin == length && Matches(text, start, begin, length)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int Size() {
+        int size = 0;
+        for (int entry : table) {
+            if (entry != 0) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private boolean Matches(CharSequence text, int start, int begin, int length) {
+        for (int i = 0; i < length; i++) {
+            if (ToLowerCase(text.charAt(start + i)) != chars[begin + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int Hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + ToLowerCase(text.charAt(i));
+        }
+        // spread high bits, the table is indexed by low bits
+        return hash ^ (hash >>> 16);
+    }
+
+    /*
+     * the same with String.toLowerCase() for single chars, except capital I with dot above,
+     * which String.toLowerCase() turns into two chars, so it is kept and never matches
+     */
+    private static char ToLowerCase(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+        }
+        return c == '\u0130' ? c : Character.toLowerCase(c);
+    }
+}
@@ -0,0 +1,74 @@
+package Parser;
+
+import org.tartarus.snowball.ext.englishStemmer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transfer a token into the term saved in index file: lower case + snowball stemming.
+ * Indexter and Retriever must both use it, otherwise query words cannot find their index file.
+ *
+ * stemming is the most expensive step of indexing, so:
+ * 1. each thread reuses its own stemmer instead of creating one per token
+ * 2. results are cached by the token's original form, most tokens are common words,
+ *    a cache hit costs neither lower case copy nor stemming
+ */
+public class TermNormalizer {
+    private static final int MAX_CACHE_SIZE = 200000;
+
+    private static final ConcurrentHashMap<String, String> cache = new ConcurrentHashMap<String, String>();
+    private static final AtomicInteger cacheSize = new AtomicInteger(0);
+
+    private static final ThreadLocal<englishStemmer> stemmers = new ThreadLocal<englishStemmer>() {
+        @Override
+        protected englishStemmer initialValue() {
+            return new englishStemmer();
+        }
+    };
+
+    /*
+     * lower case and stem a word
+     */
+    public static String Normalize(String token) {
+        String term = cache.get(token);
+        if (term != null) {
+            return term;
+        }
+        term = Stem(ToLowerCase(token));
+        // the cache is bounded: once full, drop everything and start again,
+        // frequent words will come back soon
+        if (cacheSize.incrementAndGet() > MAX_CACHE_SIZE) {
+            cache.clear();
+            cacheSize.set(0);
+        }
+        cache.put(token, term);
+        return term;
+    }
+
+    /*
+     * stemming, use snowball to transfer english word back to its prototype
+     * token must be in lower case already
+     */
+    public static String Stem(String token) {
+        englishStemmer stemmer = stemmers.get();
+        stemmer.setCurrent(token);
+        if (stemmer.stem()) {
+            return stemmer.getCurrent();
+        }
+        return token;
+    }
+
+    /*
+     * only copy the token when it really has upper case letter
+     */
+    public static String ToLowerCase(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (Character.toLowerCase(c) != c) {
+                return token.toLowerCase();
+            }
+        }
+        return token;
+    }
+}
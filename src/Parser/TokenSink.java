@@ -0,0 +1,13 @@
+package Parser;
+
+/**
+ * Consumer of Parser's tokens, called once per token in content order.
+ *
+ * The token is text[start, end), it is not copied: call text.subSequence() or
+ * text.toString() only for tokens which are really kept.
+ * type is one of TokenType's codes, position is the index of the token among
+ * all tokens of this content (stop words included), starting from 0.
+ */
+public interface TokenSink {
+    void Token(CharSequence text, int start, int end, byte type, int position);
+}
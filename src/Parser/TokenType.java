@@ -0,0 +1,19 @@
+package Parser;
+
+/**
+ * Token type codes which Parser pushes to a TokenSink.
+ * Compare codes with ==, Name() gives the old type name ("WORD", "NUM", ...).
+ */
+public class TokenType {
+    public static final byte WORD       = 0;
+    public static final byte NUM        = 1;
+    public static final byte EMAIL      = 2;
+    public static final byte URL        = 3;
+    public static final byte STOPWORD   = 4;
+
+    private static final String[] NAMES = {"WORD", "NUM", "EMAIL", "URL", "STOPWORD"};
+
+    public static String Name(byte type) {
+        return NAMES[type];
+    }
+}
@@ -5,8 +5,11 @@ import java.net.URL;
 import java.net.URLEncoder;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.net.URLEncoder;
 import java.io.UnsupportedEncodingException;
+import PageStore.PageRecord;
+import PageStore.PageStore;
 
 /**
  * Created by Wenzhao on 4/22/16.
@@ -31,6 +34,8 @@ public class Page {
     private boolean seen = false;
     private List<Sequence> currentSeq =
             new ArrayList<Sequence>();
+    private HashMap<Sequence, Integer> termFrequency =
+            new HashMap<Sequence, Integer>();
 
     public Page(String id, double pageRank, String path) {
         this.id = id;
@@ -115,6 +120,14 @@ public class Page {
         return titleContains;
     }
 
+    /**
+     * Term frequency of a single word read from the index, when it is known
+     * calculateScore() uses it instead of counting the word in the content
+     */
+    public void setTermFrequency(Sequence seq, int tf) {
+        termFrequency.put(seq, tf);
+    }
+
     /**
      * This method calculates the score based on the given sequence (because the same page will
      * have different scores for different sequences (i.e. word combination))
@@ -129,6 +142,17 @@ public class Page {
                 setMatch(size);
                 setTitleContains(true);
             }
+            Integer tf = termFrequency.get(seq);
+            if (tf != null && tf > 0) {
+                // the index counts stemmed lower case words, so there is no
+                // original / lower case split, and only one scan for the preview
+                setMatch(size);
+                if (" ".equals(preview)) {
+                    setPreview(token.toLowerCase());
+                }
+                dependencyScore += formula(wordWeight, tf);
+                continue;
+            }
             int lowerCount = getCount(token.toLowerCase(), lowerContent);
             if (lowerCount == 0) {
 //            scoreInfo += "Token: " + token + " Original=0 Lower=0 WordWeight=" + wordWeight + " wordTotal=0\n";
@@ -196,6 +220,11 @@ public class Page {
         String fileName = id + ".page";
         String wholePath = pagePath + firstDir + File.separator + secondDir
                 + File.separator + fileName;
+        if (!new File(wholePath).exists()) {
+            // newer crawls append pages to segment files instead
+            parseRecord(new File(pagePath + firstDir + File.separator + secondDir));
+            return;
+        }
         try {
             BufferedReader reader = new BufferedReader(new FileReader(wholePath));
             String line = null;
@@ -225,6 +254,31 @@ public class Page {
         }
     }
 
+    /**
+     * Read the page from the page segments in dir
+     */
+    private void parseRecord(File dir) {
+        PageRecord page = null;
+        try {
+            page = PageStore.find(dir, id);
+        } catch (IOException e) {
+            // the same as a missing page file
+        }
+        if (page == null) {
+            return;
+        }
+        url = page.getUrl();
+        title = page.getTitle();
+        // only the first line of the content is read from a page file
+        content = page.getContent();
+        int lineEnd = content.indexOf('\n');
+        if (lineEnd != -1) {
+            content = content.substring(0, lineEnd);
+        }
+        lowerContent = content.toLowerCase();
+        valid = true;
+    }
+
     /**
      * Count the number of occurrences of a token among the contents of the page,
      * in order to calculate dependency score later
@@ -250,6 +304,21 @@ public class Page {
         return count;
     }
 
+    /**
+     * Take the text following the first occurrence of the token as preview
+     */
+    private void setPreview(String token) {
+        int index = lowerContent.indexOf(token);
+        if (index == -1) {
+            return;
+        }
+        int end = Math.min(content.length(), index + 200);
+        while (end < content.length() && content.charAt(end) != ' ') {
+            end++;
+        }
+        preview = content.substring(index, end);
+    }
+
     private void setMatch(int match) {
         this.match = match;
     }
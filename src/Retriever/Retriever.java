@@ -1,7 +1,8 @@
 package Retriever;
 
 import Parser.*;
-import org.tartarus.snowball.ext.englishStemmer;
+import Indexter.EmailIndex;
+import Indexter.PostingsCodec;
 
 import java.io.FileReader;
 import java.io.BufferedReader;
@@ -14,6 +15,7 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.HashMap;
 import java.util.Comparator;
 import java.util.Collections;
@@ -46,9 +48,14 @@ public class Retriever {
             new HashMap<Sequence, HashSet<Page>>();
     private static PriorityQueue<Page> results =
             new PriorityQueue<Page>(new PageComp());
-    private static HashSet<String> stopList =
-            new HashSet<String>();
+    private static StopWords stopList = StopWords.Empty();
     private static String warning = null;
+    // true when every word was read from an impact ordered (.imp) file,
+    // then the page sets are already in page rank order and need no sort
+    private static boolean rankOrdered = true;
+    // positions of email tokens in queryWords, they are looked up in the email index
+    private static HashSet<Integer> emailPositions = new HashSet<Integer>();
+    private static EmailIndex emailIndex = null;
 
     /**
      * This is the overall run process, which is used by queryHandler
@@ -91,14 +98,23 @@ public class Retriever {
     * all following queries share the same stop list
     */
     private static void overallInitialize() {
-        n = 960000;
-        max = 50;
-        indexPath = "../results/indexWithRank/";
-        pagePath = "../results/pages/";
+        open("../results/indexWithRank/", "../results/pages/", 960000);
         String stopFile = "../data/ShotStopList.txt";
         loadStop(stopFile);
     }
 
+    /**
+     * This method sets the index folder, the page folder and the total page number,
+     * then run() and readWord() use them instead of the default folders
+     */
+    public static void open(String index, String page, int total) {
+        indexPath = index.endsWith(File.separator) ? index : index + File.separator;
+        pagePath = page.endsWith(File.separator) ? page : page + File.separator;
+        n = total;
+        max = 50;
+        loadEmailIndex();
+    }
+
     /*
     * This method clears the results generated by the last round of query,
     * to make sure when each new query comes, the lists and maps are all empty
@@ -112,6 +128,8 @@ public class Retriever {
         pages = new HashMap<Sequence, HashSet<Page>>();
         results = new PriorityQueue<Page>(new PageComp());
         warning = null;
+        rankOrdered = true;
+        emailPositions = new HashSet<Integer>();
         System.out.println("Initialize successful");
     }
 
@@ -127,6 +145,7 @@ public class Retriever {
             System.exit(1);
         }
         loadStop(stopFile);
+        loadEmailIndex();
         parseQuery(query);
         if (warning != null) {
             System.exit(1);
@@ -143,31 +162,9 @@ public class Retriever {
     */
     private static void parseQuery(String query) {
         Parser parser = new Parser(query, stopList);
-        parser.Parse();
-        List<String> tokens = parser.GetResTokens();
-        List<String> types = parser.GetTokensType();
-        int lastPartition = -1;
-        for (int i = 0; i < tokens.size(); i++) {
-            String type = types.get(i);
-            if (type.equals("WORD")) {
-                queryWords.add(tokens.get(i));
-            }
-            else if (type.equals("EMAIL")) {
-                List<Sequence> temp = genSeq(lastPartition + 1, queryWords.size() - 1);
-                for (Sequence seq: temp) {
-                    seqList.add(seq);
-                }
-                queryWords.add(tokens.get(i));
-                lastPartition = queryWords.size() - 1;
-            }
-            else {
-                List<Sequence> temp = genSeq(lastPartition + 1, queryWords.size() - 1);
-                for (Sequence seq: temp) {
-                    seqList.add(seq);
-                }
-                lastPartition = queryWords.size() - 1;
-            }
-        }
+        QuerySink sink = new QuerySink();
+        parser.Parse(sink);
+        int lastPartition = sink.lastPartition;
         List<Sequence> temp = genSeq(lastPartition + 1, queryWords.size() - 1);
         for (Sequence seq: temp) {
             seqList.add(seq);
@@ -182,6 +179,36 @@ public class Retriever {
         Collections.sort(seqList, new SeqComp());
     }
 
+    /**
+     * Receives the query tokens from Parser. Words are added to queryWords directly, and every
+     * token which is not a word (stop word, number, url, email) ends a partition, sequences are
+     * only generated inside a partition
+     */
+    private static class QuerySink implements TokenSink {
+        private int lastPartition = -1;
+
+        public void Token(CharSequence text, int start, int end, byte type, int position) {
+            if (type == TokenType.WORD) {
+                queryWords.add(text.subSequence(start, end).toString());
+                return;
+            }
+            List<Sequence> temp = genSeq(lastPartition + 1, queryWords.size() - 1);
+            for (Sequence seq: temp) {
+                seqList.add(seq);
+            }
+            if (type == TokenType.EMAIL) {
+                queryWords.add(text.subSequence(start, end).toString());
+                lastPartition = queryWords.size() - 1;
+                // an email is a sequence by itself, never combined with other words
+                emailPositions.add(lastPartition);
+                seqList.add(new Sequence(queryWords, lastPartition, lastPartition));
+            }
+            else {
+                lastPartition = queryWords.size() - 1;
+            }
+        }
+    }
+
     /**
      * This method generate sequences for query, for example, if the query is
      * New York University, there are six sequences generated which are "New", "York", "University",
@@ -221,7 +248,10 @@ public class Retriever {
             if (pages.containsKey(seq)) {
                 continue;
             }
-            if (seq.getRight() == seq.getLeft()) {
+            if (emailPositions.contains(seq.getLeft())) {
+                pages.put(seq, readEmailIndex(seq));
+            }
+            else if (seq.getRight() == seq.getLeft()) {
                 HashSet<Page> result = readIndex(seq);
                 pages.put(seq, result);
 //                System.out.println("Read index for word " + seq.getToken() + " finished, with "
@@ -237,7 +267,8 @@ public class Retriever {
                     shorter = longer;
                     longer = temp;
                 }
-                HashSet<Page> result = new HashSet<Page>();
+                // iterating the shorter set keeps its page rank order
+                HashSet<Page> result = new LinkedHashSet<Page>();
                 for (Page page: shorter) {
                     // use default equals(), which checks the reference
                     if (longer.contains(page)) {
@@ -276,7 +307,7 @@ public class Retriever {
         while (i >= 0) {
 //            System.out.println(i + " round");
             int currentLength = seqList.get(i).getRight() - seqList.get(i).getLeft();
-            List<Page> current = new ArrayList<Page>();
+            List<List<Page>> lists = new ArrayList<List<Page>>();
             while (i >= 0 &&
                     seqList.get(i).getRight() - seqList.get(i).getLeft() == currentLength) {
                 Sequence seq = seqList.get(i);
@@ -287,6 +318,8 @@ public class Retriever {
                     seenSeqs.add(seq);
                 }
                 HashSet<Page> set = pages.get(seq);
+                List<Page> list = new ArrayList<Page>();
+                lists.add(list);
                 for (Page page : set) {
                     if (page.getMatch() != -1) {
                         continue;
@@ -295,15 +328,15 @@ public class Retriever {
                         continue;
                     }
                     if (page.isSeqEmpty()) {
-                        current.add(page);
+                        list.add(page);
                     }
                     page.addSeq(seq);
                 }
             }
+            List<Page> current = mergeByRank(lists);
             if (current.size() == 0) {
                 continue;
             }
-            Collections.sort(current, new PageRankComp());
             for (Page page : current) {
                 if (!page.isSeen()) {
                     page.parsePage();
@@ -351,9 +384,54 @@ public class Retriever {
                     return;
                 }
             }
+            // pages found by a longer sequence always have a bigger match than
+            // the ones left for shorter sequences, so those can never enter the top max
+            if (results.size() >= max) {
+                return;
+            }
         }
     }
 
+    /**
+     * Put the candidate lists of one sequence group into page rank order. When the lists
+     * come from impact ordered index files they are already sorted, and only need a merge
+     */
+    private static List<Page> mergeByRank(List<List<Page>> lists) {
+        List<Page> merged = new ArrayList<Page>();
+        if (!rankOrdered) {
+            for (List<Page> list : lists) {
+                merged.addAll(list);
+            }
+            Collections.sort(merged, new PageRankComp());
+            return merged;
+        }
+        if (lists.size() == 1) {
+            return lists.get(0);
+        }
+        final List<List<Page>> heads = lists;
+        final int[] pos = new int[lists.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(lists.size(), new Comparator<Integer>() {
+            public int compare(Integer one, Integer two) {
+                return Double.compare(heads.get(two).get(pos[two]).getPageRank(),
+                        heads.get(one).get(pos[one]).getPageRank());
+            }
+        });
+        for (int i = 0; i < lists.size(); i++) {
+            if (!lists.get(i).isEmpty()) {
+                queue.add(i);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int index = queue.poll();
+            merged.add(lists.get(index).get(pos[index]));
+            pos[index]++;
+            if (pos[index] < lists.get(index).size()) {
+                queue.add(index);
+            }
+        }
+        return merged;
+    }
+
     /**
      * This method is the final method, returning the top 50 pages
      * (or all pages if there're less than 50)
@@ -422,13 +500,22 @@ public class Retriever {
     private static HashSet<Page> readIndex(Sequence seq) {
         HashSet<Page> pageSet = new HashSet<Page>();
         String word = seq.getToken();
-        word = StemEnglishWord(word.toLowerCase());
+        word = TermNormalizer.Normalize(word);
 //        System.out.println("stemmed is " + word);
         int count = 0;
         try {
             final int MODULE = 500;
             int wordHash = Math.abs(word.hashCode()) % MODULE;
 //            System.out.println("folder name is " + wordHash);
+            File impactFile = new File(indexPath + wordHash + File.separator + word + ".imp");
+            if (impactFile.exists()) {
+                return readImpactPostings(seq, impactFile);
+            }
+            rankOrdered = false;
+            File postFile = new File(indexPath + wordHash + File.separator + word + ".post");
+            if (postFile.exists()) {
+                return readPostings(seq, postFile);
+            }
             File file = new File(indexPath + wordHash + File.separator + word + ".word");
             BufferedReader reader = new BufferedReader(new FileReader(file));
             String line = null;
@@ -456,6 +543,83 @@ public class Retriever {
         return pageSet;
     }
 
+    /**
+     * Emails are looked up by exact match in the email index, one dictionary probe
+     * and one read, instead of going through the words index
+     */
+    private static HashSet<Page> readEmailIndex(Sequence seq) {
+        HashSet<Page> pageSet = new HashSet<Page>();
+        int count = 0;
+        if (emailIndex != null) {
+            try {
+                PostingsCodec.PostingList postings = emailIndex.Lookup(TermNormalizer.ToLowerCase(seq.getToken()));
+                if (postings != null) {
+                    for (int i = 0; i < postings.Size(); i++) {
+                        String pageID = PostingsCodec.UnpackPageID(postings.Doc(i));
+                        Page page = seenPages.get(pageID);
+                        if (page == null) {
+                            page = new Page(pageID, 0, pagePath);
+                            seenPages.put(pageID, page);
+                        }
+                        page.setTermFrequency(seq, postings.Tf(i));
+                        pageSet.add(page);
+                    }
+                    count = postings.Size();
+                }
+            } catch (IOException e) {
+//                System.out.println("Read email index not successful for " + seq.getToken());
+            }
+        }
+        // email pages have no page rank, they are not in page rank order
+        rankOrdered = false;
+        wordWeights.put(seq.getLeft(), calculateWeight(Math.max(count, 1)));
+        return pageSet;
+    }
+
+    /**
+     * Read the impact ordered postings written by RankJoiner, pages come in page rank
+     * descending order and the returned set keeps this order
+     */
+    private static HashSet<Page> readImpactPostings(Sequence seq, File file) throws IOException {
+        HashSet<Page> pageSet = new LinkedHashSet<Page>();
+        PostingsCodec.ImpactList postings = PostingsCodec.ReadImpactPostings(file);
+        for (int i = 0; i < postings.Size(); i++) {
+            String pageID = PostingsCodec.UnpackPageID(postings.Doc(i));
+            Page page = seenPages.get(pageID);
+            if (page == null) {
+                page = new Page(pageID, postings.Rank(i), pagePath);
+                seenPages.put(pageID, page);
+            }
+            page.setTermFrequency(seq, postings.Tf(i));
+            pageSet.add(page);
+        }
+        wordWeights.put(seq.getLeft(), calculateWeight(postings.Size()));
+        return pageSet;
+    }
+
+    /**
+     * Read the compressed postings written by Indexter, besides page IDs they carry the
+     * term frequency, which is handed to the page so that calculateScore() does not need
+     * to count the word in the page content again. This format has no page rank, so
+     * all pages read here start with page rank 0
+     */
+    private static HashSet<Page> readPostings(Sequence seq, File file) throws IOException {
+        HashSet<Page> pageSet = new HashSet<Page>();
+        PostingsCodec.PostingList postings = PostingsCodec.ReadPostings(file);
+        for (int i = 0; i < postings.Size(); i++) {
+            String pageID = PostingsCodec.UnpackPageID(postings.Doc(i));
+            Page page = seenPages.get(pageID);
+            if (page == null) {
+                page = new Page(pageID, 0, pagePath);
+                seenPages.put(pageID, page);
+            }
+            page.setTermFrequency(seq, postings.Tf(i));
+            pageSet.add(page);
+        }
+        wordWeights.put(seq.getLeft(), calculateWeight(postings.Size()));
+        return pageSet;
+    }
+
     /**
      * Defines a comparator for sequence list
      */
@@ -542,18 +706,32 @@ public class Retriever {
         return 1 + Math.log((double)n / count) / Math.log(2);
     }
 
-    // by Chen Chen
     /**
-     * Convert word to its basic form, because the index files
-     * are named using the basic form
+     * This method reads the pages in the index of a single word as if it is
+     * the only word of a new query, without scoring them
      */
-    private static String StemEnglishWord(String token) {
-        englishStemmer stemmer = new englishStemmer();
-        stemmer.setCurrent(token);
-        if (stemmer.stem()) {
-            return stemmer.getCurrent();
+    public static HashSet<Page> readWord(String word) {
+        if (indexPath == null) {
+            overallInitialize();
+        }
+        queryWords = new ArrayList<String>();
+        queryWords.add(word);
+        wordWeights = new HashMap<Integer, Double>();
+        seqWeight = new HashMap<Sequence, Double>();
+        seenPages = new HashMap<String, Page>();
+        rankOrdered = true;
+        return readIndex(new Sequence(queryWords, 0, 0));
+    }
+
+    /**
+     * Load the email index dictionary once, if the index folder has one
+     */
+    private static void loadEmailIndex() {
+        try {
+            emailIndex = EmailIndex.Open(indexPath);
+        } catch (IOException e) {
+//            System.out.println("Read in email index not successful");
         }
-        return token;
     }
 
     /**
@@ -561,13 +739,7 @@ public class Retriever {
      */
     private static void loadStop(String filePath) {
         try {
-            FileReader fileReader = new FileReader(filePath);
-            BufferedReader reader = new BufferedReader(fileReader);
-            String word = null;
-            while ((word = reader.readLine()) != null) {
-                stopList.add(word);
-            }
-            reader.close();
+            stopList = StopWords.Load(filePath);
             System.out.println("Read in stop list successful");
         } catch (IOException e) {
 //            System.out.println("Read in stop list not successful");
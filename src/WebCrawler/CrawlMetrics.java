@@ -0,0 +1,388 @@
+package WebCrawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a running crawl: fetches, bytes, fetch latency, errors by class, robots
+ * denials and saved pages, in total and per host, plus the sizes the crawler reports
+ * through Gauges (frontier, fetches in flight, pages waiting).
+ *
+ * Every counter is a LongAdder or an atomic array, so the fetcher and the Crawling threads
+ * update them without locks. Latency goes to a histogram of power-of-two buckets (up to
+ * 1 ms, 2 ms, 4 ms... 64 s and slower), percentiles are read from the bucket bounds.
+ * At most maxHosts hosts are counted one by one. When a new host comes and the table is full,
+ * the tenth of the hosts with the least activity (fetches and robots denials) is dropped, and
+ * like in the space-saving algorithm a new host starts from the activity of the busiest host
+ * dropped so far, so a busy host that shows up late takes its place in the top lists instead
+ * of being dropped again at once. The numbers shown for a host are counted since it came in.
+ *
+ * summary() is the line the crawler logs periodically, with the rates since the last one,
+ * and serve() shows report() at http://127.0.0.1:port/ for the whole picture.
+ */
+class CrawlMetrics {
+    private static final int BUCKETS = 18;
+
+    /**
+     * This interface reports the sizes of the crawler when metrics are read
+     */
+    interface Gauges {
+        long frontierUrls();
+
+        int frontierHosts();
+
+        int fetchesInFlight();
+
+        int pagesWaiting();
+    }
+
+    private final Gauges gauges;
+    private final int maxHosts;
+    private final long startTime = System.currentTimeMillis();
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder robotsDenied = new LongAdder();
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder nearDuplicates = new LongAdder();
+    private final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+    private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<String, LongAdder>();
+    private final ConcurrentHashMap<String, HostStats> hosts = new ConcurrentHashMap<String, HostStats>();
+    // the activity a new host starts from, the most of the hosts dropped so far
+    private volatile long floor = 0;
+    // the totals at the last summary line, for the rates
+    private long lastTime = startTime;
+    private long lastFetches;
+    private long lastBytes;
+    private long lastPages;
+
+    public CrawlMetrics(Gauges gauges, int maxHosts) {
+        this.gauges = gauges;
+        this.maxHosts = maxHosts;
+    }
+
+    /**
+     * This method counts a fetch that got a response or failed
+     */
+    public void fetched(String host, Fetcher.Result result) {
+        long length = result.body.length();
+        String error = errorClass(result);
+        fetches.increment();
+        bytes.add(length);
+        latency.incrementAndGet(bucket(result.millis));
+        if (result.status == 304) {
+            notModified.increment();
+        }
+        else if (result.rejected) {
+            rejected.increment();
+        }
+        if (error != null) {
+            count(errors, error);
+        }
+        HostStats stats = host(host);
+        if (stats != null) {
+            stats.fetches.increment();
+            stats.bytes.add(length);
+            stats.millis.add(result.millis);
+            if (error != null) {
+                stats.errors.increment();
+            }
+        }
+    }
+
+    /**
+     * This method counts a url robots.txt does not allow
+     */
+    public void robotsDenied(String host) {
+        robotsDenied.increment();
+        HostStats stats = host(host);
+        if (stats != null) {
+            stats.robotsDenied.increment();
+        }
+    }
+
+    public void pageSaved() {
+        pages.increment();
+    }
+
+    public void nearDuplicate() {
+        nearDuplicates.increment();
+    }
+
+    /**
+     * This method returns the summary line, with the rates since the last time it was called
+     */
+    public synchronized String summary() {
+        long now = System.currentTimeMillis();
+        long totalFetches = fetches.sum();
+        long totalBytes = bytes.sum();
+        long totalPages = pages.sum();
+        double seconds = Math.max(1, now - lastTime) / 1000.0;
+        String line = String.format("Metrics: %d fetches (%.1f/s), %.1f KB/s, %d pages saved (%.1f/s), "
+                        + "latency p50 %d ms p99 %d ms, %d errors, %d robots denied, "
+                        + "frontier %d urls in %d hosts, %d fetching, %d waiting",
+                totalFetches, (totalFetches - lastFetches) / seconds, (totalBytes - lastBytes) / 1024.0 / seconds,
+                totalPages, (totalPages - lastPages) / seconds, percentile(0.5), percentile(0.99),
+                sum(errors), robotsDenied.sum(), gauges.frontierUrls(), gauges.frontierHosts(),
+                gauges.fetchesInFlight(), gauges.pagesWaiting());
+        lastTime = now;
+        lastFetches = totalFetches;
+        lastBytes = totalBytes;
+        lastPages = totalPages;
+        return line;
+    }
+
+    /**
+     * This method returns all the metrics as text: totals, latency histogram, errors by
+     * class, and the topCount hosts with the most fetches and with the most errors
+     */
+    public String report(int topCount) {
+        StringBuilder sb = new StringBuilder();
+        double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+        long totalFetches = fetches.sum();
+        sb.append(String.format("uptime_seconds %.0f%n", seconds));
+        sb.append("fetches ").append(totalFetches).append('\n');
+        sb.append(String.format("fetches_per_second %.2f%n", totalFetches / seconds));
+        sb.append("bytes ").append(bytes.sum()).append('\n');
+        sb.append(String.format("bytes_per_second %.0f%n", bytes.sum() / seconds));
+        sb.append("pages_saved ").append(pages.sum()).append('\n');
+        sb.append("near_duplicates ").append(nearDuplicates.sum()).append('\n');
+        sb.append("not_modified ").append(notModified.sum()).append('\n');
+        sb.append("not_english ").append(rejected.sum()).append('\n');
+        sb.append("robots_denied ").append(robotsDenied.sum()).append('\n');
+        sb.append("frontier_urls ").append(gauges.frontierUrls()).append('\n');
+        sb.append("frontier_hosts ").append(gauges.frontierHosts()).append('\n');
+        sb.append("fetches_in_flight ").append(gauges.fetchesInFlight()).append('\n');
+        sb.append("pages_waiting ").append(gauges.pagesWaiting()).append('\n');
+        sb.append("\n# fetch latency, count of fetches above the previous bound and up to this one\n");
+        for (int i = 0; i < BUCKETS; i++) {
+            sb.append("latency_ms{le=\"").append(i == BUCKETS - 1 ? "inf" : String.valueOf(1L << i))
+                    .append("\"} ").append(latency.get(i)).append('\n');
+        }
+        sb.append("latency_p50_ms ").append(percentile(0.5)).append('\n');
+        sb.append("latency_p90_ms ").append(percentile(0.9)).append('\n');
+        sb.append("latency_p99_ms ").append(percentile(0.99)).append('\n');
+        sb.append("\n# errors by class\n");
+        for (Map.Entry<String, LongAdder> entry : new ArrayList<Map.Entry<String, LongAdder>>(errors.entrySet())) {
+            sb.append("errors{class=\"").append(entry.getKey()).append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+        sb.append("\n# hosts with the most fetches\n");
+        appendHosts(sb, topHosts(topCount, new Comparator<HostStats>() {
+            public int compare(HostStats a, HostStats b) {
+                return Long.compare(b.fetches.sum(), a.fetches.sum());
+            }
+        }, false));
+        sb.append("\n# hosts with the most errors\n");
+        appendHosts(sb, topHosts(topCount, new Comparator<HostStats>() {
+            public int compare(HostStats a, HostStats b) {
+                return Long.compare(b.errors.sum(), a.errors.sum());
+            }
+        }, true));
+        return sb.toString();
+    }
+
+    /**
+     * This method serves report() on 127.0.0.1:port, only to the local machine
+     */
+    public void serve(int port, final int topCount) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = report(topCount).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        // the default executor is the server's own thread
+        server.start();
+    }
+
+    /**
+     * This method returns the name of the error of a fetch, or null if it did not fail:
+     * the failure of the request, or the class of an unexpected status
+     */
+    static String errorClass(Fetcher.Result result) {
+        if (result.status == -1) {
+            return result.error == null ? "io" : result.error;
+        }
+        if (result.status >= 500) {
+            return "5xx";
+        }
+        if (result.status >= 400) {
+            return "4xx";
+        }
+        if (result.status >= 300 && result.status != 304) {
+            return "3xx";
+        }
+        return null;
+    }
+
+    /**
+     * This method returns the stats of a host, and makes room for it if maxHosts hosts are
+     * counted already
+     */
+    private HostStats host(String host) {
+        if (host == null) {
+            return null;
+        }
+        HostStats stats = hosts.get(host);
+        if (stats == null) {
+            if (hosts.size() >= maxHosts) {
+                evict();
+            }
+            HostStats newStats = new HostStats(host, floor);
+            stats = hosts.putIfAbsent(host, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * This method drops the tenth of the hosts with the least activity
+     */
+    private synchronized void evict() {
+        // another thread made room meanwhile
+        if (hosts.size() < maxHosts) {
+            return;
+        }
+        List<HostStats> all = new ArrayList<HostStats>(hosts.values());
+        final long[] activity = new long[all.size()];
+        Integer[] order = new Integer[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            activity[i] = all.get(i).activity();
+            order[i] = i;
+        }
+        // the activity is read once, the counters keep changing while sorting
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(activity[a], activity[b]);
+            }
+        });
+        int count = Math.max(1, all.size() / 10);
+        for (int i = 0; i < count; i++) {
+            hosts.remove(all.get(order[i]).host);
+        }
+        floor = Math.max(floor, activity[order[count - 1]]);
+    }
+
+    /**
+     * This method returns the first topCount hosts in the order of comparator, only those
+     * with errors if onlyErrors is set
+     */
+    private List<HostStats> topHosts(int topCount, Comparator<HostStats> comparator, boolean onlyErrors) {
+        List<HostStats> all = new ArrayList<HostStats>();
+        for (HostStats stats : hosts.values()) {
+            if (!onlyErrors || stats.errors.sum() > 0) {
+                all.add(stats);
+            }
+        }
+        Collections.sort(all, comparator);
+        return all.subList(0, Math.min(topCount, all.size()));
+    }
+
+    private static void appendHosts(StringBuilder sb, List<HostStats> top) {
+        for (HostStats stats : top) {
+            long count = stats.fetches.sum();
+            sb.append(String.format("host{name=\"%s\"} fetches %d bytes %d avg_ms %d errors %d robots_denied %d%n",
+                    stats.host, count, stats.bytes.sum(), count == 0 ? 0 : stats.millis.sum() / count,
+                    stats.errors.sum(), stats.robotsDenied.sum()));
+        }
+    }
+
+    /**
+     * This method returns the bound of the bucket the fraction-th fetch is in
+     */
+    private long percentile(double fraction) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += latency.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += latency.get(i);
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    /**
+     * This method returns the bucket of a latency: the first one whose bound is not below it
+     */
+    private static int bucket(long millis) {
+        if (millis <= 1) {
+            return 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(millis - 1);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    private static void count(ConcurrentHashMap<String, LongAdder> counters, String key) {
+        LongAdder counter = counters.get(key);
+        if (counter == null) {
+            LongAdder newCounter = new LongAdder();
+            counter = counters.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.increment();
+    }
+
+    private static long sum(ConcurrentHashMap<String, LongAdder> counters) {
+        long total = 0;
+        for (LongAdder counter : counters.values()) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    /**
+     * This class is the counters of one host
+     */
+    private static class HostStats {
+        private final String host;
+        private final LongAdder fetches = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder millis = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder robotsDenied = new LongAdder();
+        private final long base;
+
+        HostStats(String host, long base) {
+            this.host = host;
+            this.base = base;
+        }
+
+        long activity() {
+            return base + fetches.sum() + robotsDenied.sum();
+        }
+    }
+}
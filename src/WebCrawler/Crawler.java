@@ -1,60 +1,180 @@
 package WebCrawler;
 
+import Indexter.StreamIndexer;
 import PageCompress.*;
+import PageStore.Manifest;
+import PageStore.PageRecord;
+import PageStore.PageStore;
+import PageStore.SegmentWriter;
 import java.util.*;
 import java.net.*;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * 1) USAGE: java Crawler [-path savePath] [-time duration] [-id jobID]
+ * 1) USAGE: java Crawler [-path savePath] [-time duration] [-id jobID] [-threads processThreads] [-fetches maxFetches]
+ *    [-simhash maxDistance] [-checkpoint interval] [-resume] [-roll interval] [-limit searchLimit] [-metrics port]
+ *    [-proxy host:port] [-canonical rules] [-nodes nodeCount -node nodeID] [-index indexPath] [-publish interval]
  *
- * 2) Please put 'PageCompress' directory besides the 'WebCrawler' directory under the same parent directory, and
- * download "jsoup-1.8.3.jar". For example, to compile and run, please cd to the parent directory and type:
- * javac -cp "../lib/jsoup-1.8.3.jar" PageCompress/*.java
+ * 2) Please put 'PageCompress' and 'PageStore' directories besides the 'WebCrawler' directory under the same parent
+ * directory, and download "jsoup-1.8.3.jar". For example, to compile and run, please cd to the parent directory and type:
+ * javac -cp "../lib/jsoup-1.8.3.jar" PageCompress/*.java PageStore/*.java
+ * (and with '-index', javac -cp "../lib/*:." Parser/*.java PageRank/*.java Indexter/*.java)
  * javac -cp "../lib/jsoup-1.8.3.jar:." WebCrawler/*.java
  * java -cp "../lib/jsoup-1.8.3.jar:." WebCrawler/Crawler -path ../results -time 5 -id 1
  *
- * 3) The unit of duration is minute. Search limit is not used because it may never be reached.
+ * 3) The unit of duration is minute. With '-limit searchLimit' the round also ends once searchLimit pages are saved.
+ * A duration of 0 crawls continuously: the round never ends by itself, its future roots are
+ * crawled as soon as the frontier runs dry, and it is stopped through the control file
+ * 'control/crawler_<jobID>.properties' under 'savePath', which also changes processThreads
+ * (threads), maxFetches (fetches) and the politeness delay (minDelay in ms, delayFactor)
+ * while crawling, e.g. "threads=16", "stop=true".
  *
- * 4) Under the directory variable 'savePath' the user provides, the following two sub-directories should have
+ * 3.1) With '-nodes nodeCount', the crawl is split over nodeCount processes, e.g. on one machine, each
+ * started with the same savePath and jobID and its own nodeID (0 to nodeCount - 1). Node i crawls only
+ * the hosts it owns by hash, in its own directory 'node_i' under 'savePath', and hands the links
+ * to other hosts to their nodes through the spool directory 'exchange' under 'savePath'.
+ *
+ * 3.2) With '-index indexPath', the saved pages are also indexed while crawling, and every
+ * '-publish interval' minutes (default 10) page rank is computed again and the index Retriever
+ * reads, 'indexPath/search', is rewritten, see Indexter.StreamIndexer.
+ *
+ * 4) Under the directory variable 'savePath' the user provides, the following sub-directory should have
  * been created before running: (please use the same capitalization)
- * a directory called 'hashSets', containing the external hashSets from last round, or empty if it's the first round
  * a directory called 'roots', containing url root files named as 'root_1', 'root_2'... the number of such files
  * should be the same with the number of rounds the program to be run, so if we plan to run the program
  * 200 times, then the files 'root_1' - 'root_200' (no extensions) should all exist in this directory
  */
 
 public class Crawler {
-    private static final String USAGE = "USAGE: java Crawler [-path savePath] [-time duration] [-id jobID]";
+    private static final String USAGE = "USAGE: java Crawler [-path savePath] [-time duration] [-id jobID] "
+            + "[-threads processThreads] [-fetches maxFetches] [-simhash maxDistance] [-checkpoint interval] [-resume] "
+            + "[-roll interval] [-limit searchLimit] [-metrics port] [-proxy host:port] [-canonical rules] "
+            + "[-nodes nodeCount -node nodeID] [-index indexPath] [-publish interval]";
     private static String savePath;
     private static int jobID;
     private static final int MAX_DEPTH = 4;
-    private static UrlQueue urlQueue =
-            new UrlQueue();
-    private static HashMap<Integer, HashSet<MyURI>> internalHashMap =
-            new HashMap<Integer, HashSet<MyURI>>();
+    private static Frontier frontier;
+    // urls beyond this number wait in the spill files of the frontier
+    private static final int FRONTIER_IN_MEMORY = 1000000;
+    private static ConcurrentHashMap<Integer, HashSet<MyURI>> internalHashMap =
+            new ConcurrentHashMap<Integer, HashSet<MyURI>>();
+    private static AtomicInteger nextHashSet = new AtomicInteger(0);
+    // fingerprints of all the urls ever queued, kept across rounds
+    private static UrlSeenStore seenStore;
+    // 2^29 bits = 64 MB Bloom filter
+    private static final int SEEN_BLOOM_BITS_LOG2 = 29;
+    // validators and revisit times of the downloaded pages
+    private static RevisitScheduler revisits;
+    private static Set<Long> revisiting = ConcurrentHashMap.newKeySet();
+    private static final int REVISIT_BATCH = 10000;
+    private static final long REVISIT_CHECK = 10 * 60 * 1000L;
+    private static long lastRevisitCheck;
+    // SimHashes of the saved pages, a page within simHashDistance bits of one is not saved again
+    private static NearDuplicateIndex nearDuplicates;
+    private static int simHashDistance = 3;
     private static List<MyURI> nextRoots = new ArrayList<MyURI>();
-    private static int searchLimit = 20000;
-    private static int pageCount = 0;
-    private static final int THREAD_COUNT = 1500;
+    private static int searchLimit = 0;
+    // pages saved in this round, the round ends at searchLimit if it is set
+    private static AtomicInteger pageCount = new AtomicInteger(0);
+    // counters of the crawl, logged every SUMMARY_INTERVAL and served on metricsPort (0 means not served)
+    private static CrawlMetrics metrics;
+    private static final long SUMMARY_INTERVAL = 60 * 1000L;
+    private static final int MAX_METRICS_HOSTS = 100000;
+    private static final int TOP_HOSTS = 20;
+    private static long lastSummary;
+    private static int metricsPort = 0;
+    // pages are fetched through this proxy, e.g. webcache-cup:8080 behind the firewall, or directly if null
+    private static String proxyHost = null;
+    private static int proxyPort;
+    // threads processing the downloaded pages
+    private static int threadCount = Runtime.getRuntime().availableProcessors();
+    // urls being fetched or waiting to be processed
+    private static int maxFetches = 1000;
+    private static final int MAX_FETCHES_PER_HOST = 1;
+    private static final long FETCH_TIMEOUT = 10000;
+    // a page is cut after this many bytes
+    private static final int MAX_PAGE_BYTES = 2 * 1024 * 1024;
+    private static final int FETCHER_THREAD_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final long IDLE_WAIT = 50;
+    private static Fetcher fetcher;
+    // the name robots.txt groups are matched against, and how many hosts' rules are kept
+    private static final String ROBOTS_AGENT = "WSE_Project";
+    private static final int MAX_ROBOTS_HOSTS = 100000;
+    private static RobotsCache robotsCache;
+    private static ResizableSemaphore fetchSlots;
+    private static LinkedBlockingQueue<FetchedPage> pageQueue = new LinkedBlockingQueue<FetchedPage>();
+    // each Crawling thread appends its pages to the segments of its own directory, a segment
+    // is completed every rollInterval (at a checkpoint) or 128 MB, and then published
+    private static SegmentWriter[] segmentWriters;
+    private static long rollInterval = 60 * 60 * 1000L;
+    private static long lastRoll;
+    private static Manifest manifest;
+    // the control file is read again whenever it changes
+    private static final long CONTROL_CHECK = 5000;
+    private static long lastControlCheck;
+    private static long controlModified;
     private static final int EXTERNAL_HASHSET_COUNT = 1000;
+    // every extracted url and root is rewritten by these rules before it is deduplicated
+    private static UrlCanonicalizer canonicalizer = new UrlCanonicalizer(UrlCanonicalizer.DEFAULT_RULES);
     private static final Object[] INTERNAL_HASHSET_LOCK = new Object[EXTERNAL_HASHSET_COUNT];
     private static final Object NEXT_ROOTS_LOCK = new Object();
+    // a crawl split over nodeCount processes: this one owns the hosts of partition nodeID,
+    // keeps its state under savePath/node_[nodeID] and swaps urls with the others in clusterPath/exchange
+    private static int nodeCount = 1;
+    private static int nodeID = -1;
+    private static String clusterPath;
+    private static UrlExchange exchange;
+    private static final int EXCHANGE_BATCH = 1000;
+    private static final long EXCHANGE_INTERVAL = 2000;
+    private static final int EXCHANGE_MAX_BATCHES = 100;
+    // the threads of node n are numbered from n * NODE_THREADS in the pageIDs
+    private static final int NODE_THREADS = 1000;
+    private static long lastExchange = 0;
+    // the pages are indexed as they are saved when indexPath is given
+    private static String indexPath = null;
+    private static long publishInterval = 10 * 60 * 1000L;
+    private static StreamIndexer indexer;
+    private static final int INDEX_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int INDEX_QUEUE = 1000;
+    private static final double PAGE_RANK_F = 0.85;
     private static long startTime;
     private static long duration;
     private static BufferedWriter logWriter;
     private static final Object LOG_WRITER_LOCK = new Object();
     private static BufferedWriter[] urlWriter = new BufferedWriter[EXTERNAL_HASHSET_COUNT];
     private static final Object[] URI_WRITER_LOCK = new Object[EXTERNAL_HASHSET_COUNT];
+    // checkpoints of the crawl state, written every checkpointInterval (0 means never)
+    private static long checkpointInterval = 10 * 60 * 1000L;
+    private static long lastCheckpoint;
+    private static boolean resume = false;
+    private static final int CHECKPOINT_VERSION = 1;
+    // a page is processed with the read lock held, a checkpoint is taken with the write lock
+    private static final ReentrantReadWriteLock CHECKPOINT_LOCK = new ReentrantReadWriteLock();
+    // held while urls move into, out of and inside the frontier
+    private static final Object FRONTIER_LOCK = new Object();
+    // urls polled from the frontier whose pages are not processed yet
+    private static Set<MyURI> inFlight = ConcurrentHashMap.newKeySet();
+    private static Crawling[] crawlings;
+    private static int[] restoredDownloadCounts = new int[0];
 
     /**
      * This method is the overall running process
      */
     private static void run(Scanner readFile) {
         startTime = System.currentTimeMillis();
+        lastCheckpoint = startTime;
+        lastRoll = startTime;
+        lastSummary = startTime;
         output("Crawling round " + jobID + " has started");
         initialize(readFile);
         crawl();
@@ -71,12 +191,42 @@ public class Crawler {
             INTERNAL_HASHSET_LOCK[i] = new Object[i];
             URI_WRITER_LOCK[i] = new Object[i];
         }
-        while (readFile.hasNextLine()) {
+        if (readFile == null) {
+            // resume from the checkpoint instead of the roots
+            restore();
+        }
+        else {
+            while (readFile.hasNextLine()) {
+                try {
+                    MyURI url = new MyURI(canonicalizer.canonicalize(new URI(readFile.nextLine())), 1);
+                    addToInternalHashMap(url);
+                } catch (URISyntaxException e) {
+                    //ignore invalid urls
+                }
+            }
+        }
+        addRevisits();
+    }
+
+    /**
+     * This method adds the downloaded pages whose revisit time has come to the frontier,
+     * they are already in the url-seen store, so they skip the internal hashmap
+     */
+    private static void addRevisits() {
+        lastRevisitCheck = System.currentTimeMillis();
+        for (RevisitScheduler.Record record : revisits.due(lastRevisitCheck, REVISIT_BATCH)) {
+            long fingerprint = UrlSeenStore.fingerprint(record.url);
+            // still waiting in the frontier since the last check
+            if (!revisiting.add(fingerprint)) {
+                continue;
+            }
             try {
-                MyURI url = new MyURI(new URI(readFile.nextLine()), 1);
-                addToInternalHashMap(url);
+                MyURI url = new MyURI(new URI(record.url), fingerprint, record.depth);
+                synchronized (FRONTIER_LOCK) {
+                    frontier.add(url);
+                }
             } catch (URISyntaxException e) {
-                //ignore invalid urls
+                revisiting.remove(fingerprint);
             }
         }
     }
@@ -87,6 +237,15 @@ public class Crawler {
      * its hashCode
      */
     private static void addToInternalHashMap(MyURI url) {
+        // the url of a host of another node is handed to that node
+        if (exchange != null && !exchange.isLocal(url)) {
+            try {
+                exchange.send(url);
+            } catch (IOException e) {
+                output("Send urls to another node not successfully");
+            }
+            return;
+        }
         int hashValue = hash(url);
         HashSet<MyURI> hashSet = null;
         synchronized (INTERNAL_HASHSET_LOCK[hashValue]) {
@@ -102,213 +261,510 @@ public class Crawler {
     }
 
     /**
-     * This method calculates the hashCode of a url
+     * This method calculates the index of a url from its fingerprint
      */
     private static int hash(MyURI url) {
-        return Math.abs(url.getURI().toString().hashCode()) % EXTERNAL_HASHSET_COUNT;
+        return (int) Math.floorMod(url.getFingerprint(), (long) EXTERNAL_HASHSET_COUNT);
     }
 
     /**
-     * This method is the crawling process
+     * This method is the crawling process: threadCount threads process the downloaded pages,
+     * and the calling thread hands urls from the frontier to the fetcher
      */
     private static void crawl() {
-        setProxy();
-        // assume the hashSets directory has been created
-        String dirPath = savePath + "hashSets" + File.separator;
+        fetcher = new Fetcher(maxFetches, MAX_FETCHES_PER_HOST, FETCH_TIMEOUT, FETCHER_THREAD_COUNT, getProxy());
+        fetchSlots = new ResizableSemaphore(maxFetches);
+        robotsCache = new RobotsCache(fetcher, ROBOTS_AGENT, MAX_ROBOTS_HOSTS);
+        metrics = new CrawlMetrics(new CrawlMetrics.Gauges() {
+            public long frontierUrls() {
+                return frontier.size();
+            }
+
+            public int frontierHosts() {
+                return frontier.hostCount();
+            }
+
+            public int fetchesInFlight() {
+                return fetcher.inFlight();
+            }
+
+            public int pagesWaiting() {
+                return pageQueue.size();
+            }
+        }, MAX_METRICS_HOSTS);
+        if (metricsPort > 0) {
+            try {
+                metrics.serve(metricsPort, TOP_HOSTS);
+                output("Metrics of round " + jobID + " on http://127.0.0.1:" + metricsPort + "/");
+            } catch (IOException e) {
+                output("Serve metrics on port " + metricsPort + " not successfully");
+            }
+        }
         // based on the new addToUrlQueue() design, no real need to call addToUrlQueue() here
-        Crawling[] crawlings = new Crawling[THREAD_COUNT];
-        Thread[] threads = new Thread[THREAD_COUNT];
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            crawlings[i] = new Crawling(i);
-            threads[i] = new Thread(crawlings[i]);
-            // run the thread after creation
-            threads[i].start();
+        segmentWriters = new SegmentWriter[0];
+        crawlings = new Crawling[0];
+        adjustThreads();
+        dispatch();
+    }
+
+    /**
+     * This method starts or retires Crawling threads until threadCount of them run.
+     * Thread i always writes to the directory [jobID]_i, so a retired thread is started
+     * again only once it has exited and closed its segment
+     */
+    private static void adjustThreads() {
+        boolean settled = crawlings.length >= threadCount;
+        for (int i = 0; i < crawlings.length && settled; i++) {
+            settled = (i < threadCount) == (crawlings[i] != null && !crawlings[i].isRetired());
+        }
+        if (settled) {
+            return;
+        }
+        CHECKPOINT_LOCK.writeLock().lock();
+        try {
+            if (threadCount > crawlings.length) {
+                crawlings = Arrays.copyOf(crawlings, threadCount);
+                segmentWriters = Arrays.copyOf(segmentWriters, threadCount);
+            }
+            for (int i = 0; i < crawlings.length; i++) {
+                Crawling crawling = crawlings[i];
+                if (i >= threadCount) {
+                    if (crawling != null) {
+                        crawling.retire();
+                    }
+                }
+                else if (crawling == null || (crawling.isRetired() && crawling.hasExited())) {
+                    // create a separate directory for each thread, its pages are appended to segment files there
+                    String dirPath = savePath + "pages" + File.separator + "result_" + jobID + File.separator;
+                    dirPath = dirPath + jobID + "_" + threadNumber(i) + File.separator;
+                    try {
+                        segmentWriters[i] = new SegmentWriter(dirPath, SegmentWriter.DEFAULT_LIMIT);
+                    } catch (IOException e) {
+                        System.out.println("Create page segments in " + dirPath + " not successfully");
+                        System.exit(1);
+                    }
+                    // a resumed round goes on numbering its pages where the checkpoint left
+                    int downloadCount = crawling != null ? crawling.getDownloadCount()
+                            : i < restoredDownloadCounts.length ? restoredDownloadCounts[i] : 0;
+                    crawlings[i] = new Crawling(i, downloadCount, segmentWriters[i]);
+                    // run the thread after creation
+                    crawlings[i].start();
+                }
+                // a retired thread still finishing its last page is started again at a later check
+            }
+        } finally {
+            CHECKPOINT_LOCK.writeLock().unlock();
         }
     }
 
     /**
-     * This method sets proxy and ports here, behind a firewall
+     * This method returns the number of thread i in the names of its directory and pages,
+     * the threads of different nodes never have the same number, so neither do their pageIDs
      */
-    private static void setProxy() {
-        Properties props= new Properties(System.getProperties());
-        props.put("http.proxySet", "true");
-        props.put("http.proxyHost", "webcache-cup");
-        props.put("http.proxyPort", "8080");
-        Properties newprops = new Properties(props);
-        System.setProperties(newprops);
+    private static int threadNumber(int i) {
+        return nodeCount > 1 ? nodeID * NODE_THREADS + i : i;
     }
 
     /**
-     * This method compares the internal hashmap and external hashset, add non-duplicate
-     * urls to both the queue and external hashset, and ignore duplicates
+     * This method returns whether the round goes on
      */
-    @SuppressWarnings("unchecked")
-    private static void addToUrlQueue() {
-        // only randomly pick one index, instead of iterating over the whole hashmap,
-        // so after this, urlQueue.isEmpty() may still be true, but more threads will come
-        int index = (int)(Math.random() * EXTERNAL_HASHSET_COUNT);
-        // only save URI to disk, removing depth and avoiding serializable
-        synchronized (INTERNAL_HASHSET_LOCK[index]) {
-            if (!urlQueue.isEmpty()) {
-                return;
+    private static boolean running() {
+        return duration == 0 || searchLimit <= 0 || pageCount.get() < searchLimit;
+    }
+
+    /**
+     * This method returns whether the duration of the round has passed
+     */
+    private static boolean timeIsUp() {
+        return duration > 0 && System.currentTimeMillis() - startTime > duration;
+    }
+
+    /**
+     * This method keeps the fetcher busy, a url holds one of the maxFetches slots
+     * from being polled until its page is taken by a Crawling thread (or dropped)
+     */
+    private static void dispatch() {
+        while (running()) {
+            fetchSlots.acquireUninterruptibly();
+            MyURI url;
+            synchronized (FRONTIER_LOCK) {
+                url = frontier.poll();
+                if (url != null) {
+                    inFlight.add(url);
+                }
             }
-            if (!internalHashMap.containsKey(index)) {
-                return;
+            if (url != null) {
+                fetch(url);
             }
-            String dirPath = savePath + "hashSets" + File.separator;
-            // index corresponds to the id of the external hashset
-            String externalName = "External" + index + ".ser";
-            File file = new File(dirPath + externalName);
-            HashSet<MyURI> internalHashSet = internalHashMap.get(index);
-            HashSet<URI> externalHashSet = null;
-            if (file.exists()) {
-                // load external hashset
+            else {
+                fetchSlots.release();
+                // if no host is ready, initiate addToUrlQueue() method, and if there is
+                // still nothing to fetch, wait a little for the politeness delays to pass
+                for (int i = 0; i < EXTERNAL_HASHSET_COUNT && !frontier.hasReady(); i++) {
+                    addToUrlQueue();
+                }
+                // a continuous crawl goes on with its future roots instead of ending the round
+                if (duration == 0 && frontier.isEmpty() && inFlight.isEmpty()) {
+                    nextRound();
+                }
+                if (!frontier.hasReady()) {
+                    try {
+                        Thread.sleep(IDLE_WAIT);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+            }
+            if (System.currentTimeMillis() - lastRevisitCheck > REVISIT_CHECK) {
+                addRevisits();
+            }
+            if (exchange != null && System.currentTimeMillis() - lastExchange > EXCHANGE_INTERVAL) {
+                exchangeUrls();
+            }
+            if (checkpointInterval > 0 && System.currentTimeMillis() - lastCheckpoint > checkpointInterval) {
+                checkpoint();
+            }
+            else if (checkpointInterval == 0 && System.currentTimeMillis() - lastRoll > rollInterval) {
+                // without checkpoints nothing is ever cut back, segments are published right away
+                rollSegments();
+                publishSegments();
+            }
+            if (System.currentTimeMillis() - lastControlCheck > CONTROL_CHECK) {
+                readControl();
+                adjustThreads();
+            }
+            if (System.currentTimeMillis() - lastSummary > SUMMARY_INTERVAL) {
+                lastSummary = System.currentTimeMillis();
+                output(metrics.summary());
+                if (exchange != null) {
+                    output("Exchange: " + exchange.sentCount() + " urls sent to other nodes, "
+                            + exchange.receivedCount() + " received");
+                }
+            }
+            if (timeIsUp()) {
                 try {
-                    FileInputStream fis = new FileInputStream(dirPath + externalName);
-                    ObjectInputStream ois = new ObjectInputStream(fis);
-                    externalHashSet = (HashSet<URI>) ois.readObject();
-                    ois.close();
-                    //output("Load external hashset " + index + " successfully");
+                    stop();
                 } catch (IOException e) {
-                    output("Load external hashset " + index + " not successfully");
-                } catch (ClassNotFoundException e) {
-                    output("Load external hashset " + index + " not successfully");
+                    // ignore
                 }
             }
-            // if the external hashset does not exist, create one
-            // but if it exists but fails to load, should overwrite it?
-            if (externalHashSet == null) {
-                externalHashSet = new HashSet<URI>();
-            }
-            // iterate through the internal hashset, if the url is duplicated, just ignore,
-            // if the url is new, add it to both the queue and external hashset
-            for (MyURI url: internalHashSet) {
-                if (!externalHashSet.contains(url)) {
-                    externalHashSet.add(url.getURI());
-                    urlQueue.add(url);
+        }
+        // searchLimit pages are saved
+        try {
+            stop();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * This method checks robots.txt and then downloads the page, both without blocking
+     */
+    private static void fetch(final MyURI url) {
+        final long fetchStart = System.currentTimeMillis();
+        robotsCache.check(url, new RobotsCache.Callback() {
+            public void checked(boolean allowed) {
+                // a page downloaded before is asked for only if it changed since
+                final long fingerprint = url.getFingerprint();
+                final RevisitScheduler.Record record = revisits.get(fingerprint);
+                if (!allowed) {
+                    metrics.robotsDenied(url.getURI().getHost());
+                    revisiting.remove(fingerprint);
+                    if (record != null) {
+                        revisits.failed(fingerprint, record, -1);
+                    }
+                    fetched(url, fetchStart, null);
+                    return;
                 }
+                String[] headers = record == null ? null : record.conditionalHeaders();
+                fetcher.fetch(url.getURI(), MAX_PAGE_BYTES, true, headers, new Fetcher.Listener() {
+                    public void completed(Fetcher.Result pageResult) {
+                        metrics.fetched(url.getURI().getHost(), pageResult);
+                        revisiting.remove(fingerprint);
+                        if (pageResult.status == 304 && record != null) {
+                            revisits.notModified(fingerprint, record);
+                            fetched(url, fetchStart, null);
+                            return;
+                        }
+                        Fetcher.Result page = getPage(pageResult);
+                        if (page == null && record != null) {
+                            revisits.failed(fingerprint, record, pageResult.status);
+                        }
+                        // the same content as last time needs no parsing, saving or indexing again
+                        if (page != null && !revisits.downloaded(fingerprint, url,
+                                page.headers.firstValue("ETag").orElse(null),
+                                page.headers.firstValue("Last-Modified").orElse(null),
+                                page.body.contentHash())) {
+                            page = null;
+                        }
+                        fetched(url, fetchStart, page);
+                    }
+                });
             }
-            // save external hashset back
-            try {
-                FileOutputStream fos = new FileOutputStream(dirPath + externalName);
-                ObjectOutputStream oos = new ObjectOutputStream(fos);
-                oos.writeObject(externalHashSet);
-                oos.close();
-                //output("Save external hashset " + index + " successfully");
-            } catch (IOException e) {
-                output("Save external hashset " + index + " not successfully");
+        });
+    }
+
+    /**
+     * This method gives the host back to the frontier, where it waits for its politeness delay,
+     * and queues the page for the Crawling threads
+     */
+    private static void fetched(MyURI url, long fetchStart, Fetcher.Result page) {
+        frontier.release(url, System.currentTimeMillis() - fetchStart);
+        // page equals null indicates the page was not downloaded successfully
+        // because of various reasons detailed in getPage() method
+        if (page == null) {
+            inFlight.remove(url);
+            fetchSlots.release();
+            return;
+        }
+        pageQueue.offer(new FetchedPage(url, page));
+    }
+
+    /**
+     * This method returns the proxy given by -proxy, or null to connect directly
+     */
+    private static ProxySelector getProxy() {
+        if (proxyHost == null) {
+            return null;
+        }
+        output("Crawling round " + jobID + " fetches through the proxy " + proxyHost + ":" + proxyPort);
+        return ProxySelector.of(new InetSocketAddress(proxyHost, proxyPort));
+    }
+
+    /**
+     * This method writes the urls collected for other nodes to their inboxes, and adds the urls
+     * other nodes sent to this one to the internal hashmap, like the ones extracted here
+     */
+    private static void exchangeUrls() {
+        lastExchange = System.currentTimeMillis();
+        // no checkpoint is taken in between, so the received urls are in the next one
+        CHECKPOINT_LOCK.readLock().lock();
+        try {
+            exchange.flush();
+            for (MyURI url : exchange.receive(EXCHANGE_MAX_BATCHES)) {
+                addToInternalHashMap(url);
+            }
+            // without checkpoints they are never read again
+            if (checkpointInterval == 0) {
+                exchange.commit();
+            }
+        } catch (IOException e) {
+            output("Exchange urls with other nodes not successfully");
+        } finally {
+            CHECKPOINT_LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method checks the urls of one internal hashset against the url-seen store, adds
+     * the new ones to the frontier, and ignores duplicates
+     */
+    private static void addToUrlQueue() {
+        // only pick one index, instead of iterating over the whole hashmap, so after this
+        // the frontier may still have no ready host, and the next call takes the next index
+        int index = Math.floorMod(nextHashSet.getAndIncrement(), EXTERNAL_HASHSET_COUNT);
+        synchronized (FRONTIER_LOCK) {
+            synchronized (INTERNAL_HASHSET_LOCK[index]) {
+                if (frontier.hasReady()) {
+                    return;
+                }
+                HashSet<MyURI> internalHashSet = internalHashMap.get(index);
+                if (internalHashSet == null || internalHashSet.isEmpty()) {
+                    return;
+                }
+                MyURI[] urls = internalHashSet.toArray(new MyURI[internalHashSet.size()]);
+                long[] fingerprints = new long[urls.length];
+                for (int i = 0; i < urls.length; i++) {
+                    fingerprints[i] = urls[i].getFingerprint();
+                }
+                // check and record the whole hashset at once, if the url is duplicated, just ignore,
+                // if the url is new, add it to the queue
+                boolean[] isNew;
+                try {
+                    isNew = seenStore.addAll(fingerprints);
+                } catch (IOException e) {
+                    // keep the hashset, it is tried again later
+                    output("Update url-seen store not successfully");
+                    return;
+                }
+                for (int i = 0; i < urls.length; i++) {
+                    if (isNew[i]) {
+                        frontier.add(urls[i]);
+                    }
+                }
+                // clear the current hashset, not the entire hashmap
+                internalHashSet.clear();
             }
-            // clear the current hashset, not the entire hashmap
-            internalHashSet.clear();
         }
     }
 
     /**
-     * The run() method in this class specifies what each thread is doing
+     * The run() method in this class specifies what each thread is doing:
+     * it takes the downloaded pages and processes them one by one
      */
     private static class Crawling implements Runnable {
         private int threadID;
         private int downloadCount;
+        private SegmentWriter writer;
+        private Thread thread;
+        private volatile boolean retired = false;
 
-        public Crawling(int id) {
+        public Crawling(int id, int downloadCount, SegmentWriter writer) {
             threadID = id;
-            downloadCount = 0;
+            this.downloadCount = downloadCount;
+            this.writer = writer;
+        }
+
+        public void start() {
+            thread = new Thread(this);
+            thread.start();
+        }
+
+        /**
+         * This method makes the thread exit after the page it is processing
+         */
+        public void retire() {
+            retired = true;
+        }
+
+        public boolean isRetired() {
+            return retired;
+        }
+
+        public boolean hasExited() {
+            return !thread.isAlive();
         }
 
         public void run() {
-            // create a separate directory for each thread
-            String dirPath = savePath + "pages" + File.separator + "result_" + jobID + File.separator;
-            dirPath = dirPath + jobID + "_" + threadID + File.separator;
-            File dir = new File(dirPath);
-            if (!dir.exists()) {
-                dir.mkdir();
-            }
-            MyURI url = null;
-            while (pageCount < searchLimit) {
-                while (pageCount < searchLimit && (url = urlQueue.poll()) != null) {
-                    if (!isRobotSafe(url)) {
-                        continue;
-                    }
-                    String page = getPage(url);
-                    // page equals empty indicates the page was not processed successfully
-                    // because of various reasons detailed in getPage() method
-                    if (page.equals("")) {
-                        continue;
-                    }
-                    // use count as the part of the file name, and only when the page is
-                    // saved successfully, the count increments
-                    String fileName = jobID + "_" + threadID + "_" + (downloadCount + 1);
-                    // generate PageFile object, including pageID, title, subURLs and body text
-                    PageCompress pc = new PageCompress(fileName, page);
-                    PageFile pageFile = null;
+            while (running() && !retired) {
+                FetchedPage fetched = null;
+                try {
+                    fetched = pageQueue.poll(IDLE_WAIT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                if (fetched != null) {
+                    fetchSlots.release();
+                    CHECKPOINT_LOCK.readLock().lock();
                     try {
-                        pageFile = pc.GetPageFile();
-                    } catch (Exception e) {
-                        output("process page " + fileName + " not successfully");
-                        continue;
+                        process(fetched.url, fetched.page);
+                        inFlight.remove(fetched.url);
+                    } finally {
+                        CHECKPOINT_LOCK.readLock().unlock();
                     }
-                    if (pageFile == null) {
-                        // to be safe, stop here when pageFile == null
-                        output("process page " + fileName + " not successfully");
-                        continue;
-                    }
-                    // filter out empty content
-                    if (pageFile.getContent().matches("^\\s*$")) {
-                        continue;
-                    }
-                    // examine the sub urls
-                    List<MyURI> newUrls = rmInvalidUrls(url, pageFile.getSubURLs());
-                    newUrls = rmSameDomain(newUrls);
-                    // save page to disk
-                    try {
-                        savePage(fileName, url, newUrls, pageFile.getWordsCount(), pageFile.getTitle(),
-                                pageFile.getContent(), threadID);
-                    } catch (IOException e) {
-                        output("save page " + fileName + " not successfully");
-                        continue;
-                    }
-                    downloadCount++;
-                    //output("thread " + threadID + " downloaded page " + fileName + " with depth " + url.getDepth());
+                }
+                if (timeIsUp()) {
                     try {
-                        writeToMapping(fileName, url);
+                        stop();
                     } catch (IOException e) {
-                        output("save mapping for " + fileName + " not successfully");
-                        continue;
+                        // ignore
                     }
-                    // only when depth does not exceed maximum, add new suburls to queue,
-                    // if newUrl is duplicated in the internal hashmap,
-                    // it will be ignored by addToInternalHashMap(newUrl), and the urls in
-                    // internal hashmap will also be checked against external hashset before
-                    // being added to queue
-                    if (url.getDepth() < MAX_DEPTH) {
-                        for (MyURI newUrl: newUrls) {
-                            addToInternalHashMap(newUrl);
-                        }
+                }
+            }
+            // the Crawling threads end the round too, dispatch() may be waiting for a fetch slot
+            if (!running()) {
+                try {
+                    stop();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            // the segment of a retired thread is complete, it is published with the others
+            if (retired) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    output("Save page segments of thread " + threadID + " not successfully");
+                }
+            }
+        }
+
+        private void process(MyURI url, Fetcher.Result page) {
+            // use count as the part of the file name, and only when the page is
+            // saved successfully, the count increments
+            String fileName = jobID + "_" + threadNumber(threadID) + "_" + (downloadCount + 1);
+            // generate PageFile object, including pageID, title, subURLs and body text
+            PageCompress pc = new PageCompress(fileName, page.body.bytes(), page.body.length(), page.charset);
+            PageFile pageFile = null;
+            try {
+                pageFile = pc.GetPageFile();
+            } catch (Exception e) {
+                output("process page " + fileName + " not successfully");
+                return;
+            }
+            if (pageFile == null) {
+                // to be safe, stop here when pageFile == null
+                output("process page " + fileName + " not successfully");
+                return;
+            }
+            // filter out empty content
+            if (pageFile.getContent().matches("^\\s*$")) {
+                return;
+            }
+            // examine the sub urls
+            List<MyURI> newUrls = rmInvalidUrls(url, pageFile.getSubURLs());
+            newUrls = rmSameDomain(newUrls);
+            // a near-duplicate of a saved page is not saved again, its url is mapped to
+            // that page instead, so the links to it still count for that page
+            String original = null;
+            if (nearDuplicates != null) {
+                original = nearDuplicates.findOrAdd(NearDuplicateIndex.simHash(pageFile.getContent()),
+                        url.getFingerprint(), fileName);
+            }
+            if (original != null) {
+                fileName = original;
+                if (indexer != null) {
+                    indexer.AddAlias(url.getURI().toString(), original);
+                }
+                metrics.nearDuplicate();
+            }
+            else {
+                // save page to disk
+                try {
+                    PageRecord record = savePage(fileName, url, newUrls, pageFile.getWordsCount(),
+                            pageFile.getTitle(), pageFile.getContent(), writer);
+                    if (nearDuplicates != null) {
+                        nearDuplicates.saved(fileName);
                     }
-                    else if (newUrls.size() != 0 && nextRoots.size() < 50) {
-                        // if depth >= MAX_DEPTH, randomly select 50 urls as the roots of potential
-                        // future crawling
-                        synchronized (NEXT_ROOTS_LOCK) {
-                            if (nextRoots.size() < 50) {
-                                nextRoots.add(newUrls.get(0));
-                            }
-                        }
+                    // waits while the indexer is behind, so the crawl never runs far ahead of it
+                    if (indexer != null) {
+                        indexer.Add(record);
                     }
-                    if (System.currentTimeMillis() - startTime > duration) {
-                        try {
-                            stop();
-                        } catch (IOException e) {
-                            // ignore
-                        }
+                } catch (IOException e) {
+                    output("save page " + fileName + " not successfully");
+                    // the next page takes this pageID, near-duplicates must not be mapped to it
+                    if (nearDuplicates != null) {
+                        nearDuplicates.discard(fileName);
                     }
+                    return;
                 }
-                // if the current queue is empty, initiate addToUrlQueue() method
-                addToUrlQueue();
-                if (System.currentTimeMillis() - startTime > duration) {
-                    try {
-                        stop();
-                    } catch (IOException e) {
-                        // ignore
+                downloadCount++;
+                pageCount.incrementAndGet();
+                metrics.pageSaved();
+            }
+            //output("thread " + threadID + " downloaded page " + fileName + " with depth " + url.getDepth());
+            try {
+                writeToMapping(fileName, url);
+            } catch (IOException e) {
+                output("save mapping for " + fileName + " not successfully");
+                return;
+            }
+            // only when depth does not exceed maximum, add new suburls to queue,
+            // if newUrl is duplicated in the internal hashmap,
+            // it will be ignored by addToInternalHashMap(newUrl), and the urls in
+            // internal hashmap will also be checked against external hashset before
+            // being added to queue
+            if (url.getDepth() < MAX_DEPTH) {
+                for (MyURI newUrl: newUrls) {
+                    addToInternalHashMap(newUrl);
+                }
+            }
+            else if (newUrls.size() != 0 && nextRoots.size() < 50) {
+                // if depth >= MAX_DEPTH, randomly select 50 urls as the roots of potential
+                // future crawling
+                synchronized (NEXT_ROOTS_LOCK) {
+                    if (nextRoots.size() < 50) {
+                        nextRoots.add(newUrls.get(0));
                     }
                 }
             }
@@ -320,140 +776,43 @@ public class Crawler {
     }
 
     /**
-     * This method returns whether the page is robot safe
+     * This class is a semaphore whose permits can be taken away, for a lower maxFetches
      */
-    private static boolean isRobotSafe(MyURI myUrl) {
-        URI url = myUrl.getURI();
-        String strHost = url.getHost();
-        if (strHost == null) {
-            return false;
-        }
-        // form url of the robots.txt file
-        String strRobot = "http://" + strHost + "/robots.txt";
-        URI urlRobot;
-        try {
-            urlRobot = new URI(strRobot);
-        } catch (URISyntaxException e) {
-            // something weird is happening, so don't trust it
-            return false;
-        }
-        InputStream urlRobotStream = null;
-        try {
-            URLConnection urlConnection = urlRobot.toURL().openConnection();
-            urlConnection.setConnectTimeout(5000);
-            urlConnection.setReadTimeout(5000);
-            urlRobotStream = urlConnection.getInputStream();
-        } catch (IOException e) {
-            return false;
-        }
-        String strCommands = "";
-        try {
-            // read in entire file
-            byte b[] = new byte[1000];
-            int numRead = urlRobotStream.read(b);
-            while (numRead != -1) {
-                String newCommands = new String(b, 0, numRead);
-                strCommands += newCommands;
-                numRead = urlRobotStream.read(b);
-            }
-            urlRobotStream.close();
-        } catch (IOException e) {
-            // if there is no robots.txt file, it is OK to search
-            return true;
+    private static class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        public ResizableSemaphore(int permits) {
+            super(permits);
         }
-        // assume that this robots.txt refers to us and
-        // search for "Disallow:" commands.
-        String strURI = null;
-        try {
-            strURI = url.toURL().getFile();
-        } catch (MalformedURLException e) {
-            return false;
+
+        public void reduce(int permits) {
+            reducePermits(permits);
         }
-        int index = 0;
-        final String DISALLOW = "Disallow:";
-        while ((index = strCommands.indexOf(DISALLOW, index)) != -1) {
-            index += DISALLOW.length();
-            String strPath = strCommands.substring(index);
-            StringTokenizer st = new StringTokenizer(strPath);
-            if (!st.hasMoreTokens()) {
-                break;
-            }
-            String strBadPath = st.nextToken();
-            // if the URI starts with a disallowed path, it is not safe
-            if (strURI.indexOf(strBadPath) == 0) {
-                return false;
-            }
+    }
+
+    /**
+     * This class is a downloaded page waiting to be processed
+     */
+    private static class FetchedPage {
+        private MyURI url;
+        private Fetcher.Result page;
+
+        public FetchedPage(MyURI url, Fetcher.Result page) {
+            this.url = url;
+            this.page = page;
         }
-        return true;
     }
 
     /**
-     * This method downloads the page into a string
-     * while downloading the page, it should:
-     * (1) determine the type of the page, if it's of non-textual type, no need to continue
-     * (2) determine if the page is in English, it not no need to continue
-     * (3) filter out images etc.
-     * (4) ...
+     * This method returns the downloaded page, or null if it should not be processed:
+     * (1) the response is not 2xx or is of non-textual type (the fetcher drops such bodies)
+     * (2) the page is not in English (the fetcher stops downloading as soon as it knows)
      */
-    private static String getPage(MyURI myUrl) {
-        URI url = myUrl.getURI();
-        try {
-            // try opening the URI
-            URLConnection urlConnection = url.toURL().openConnection();
-            urlConnection.setConnectTimeout(5000);
-            urlConnection.setReadTimeout(5000);
-            urlConnection.setAllowUserInteraction(false);
-            HttpURLConnection http = (HttpURLConnection)urlConnection;
-            String type = null;
-            if (http != null) {
-                type = http.getContentType();
-            }
-            // reference: https://www.w3.org/Protocols/rfc1341/4_Content-Type.html
-            // only get text type now, may add more allowed types later
-            // how to handle type == null? Allow them now because pages with type == null
-            // seems all to be textual type actually
-            if (type != null && !type.toLowerCase().startsWith("text")) {
-                return "";
-            }
-            InputStream urlStream = urlConnection.getInputStream();
-            // search the input stream for links
-            // first, read in the entire URI
-            final int BYTE_COUNT = 1000;
-            byte b[] = new byte[BYTE_COUNT];
-            int numRead = urlStream.read(b);
-            String content = "";
-            boolean notKnownIfEnglish = true;
-            while ((numRead != -1) ) {
-                String newContent = new String(b, 0, numRead);
-                // check if the page is in English right now,
-                // and stop downloading immediately if not
-                // notknownIfEnglish == false indicates already knowing it's in English
-                // only check newContent for efficiency
-                if (notKnownIfEnglish) {
-                    int index = newContent.indexOf("lang=\"");
-                    // if the tag exists
-                    if (index != -1) {
-                        index += 6;
-                        if (index + 2 <= newContent.length() && newContent.substring(index, index + 2).equals("en")) {
-                            notKnownIfEnglish = false;
-                        }
-                        // lang==some other language, return
-                        else if (index + 2 <= newContent.length()) {
-                            return "";
-                        }
-                        // if index + 2 > newContent.length(), it means the tag happens to be in the middle,
-                        // this may have some mistakes, ignore them? is there a better way?
-                    }
-                }
-                content += newContent;
-                numRead = urlStream.read(b);
-                // if lang tag does not exist, allow them. It seems that counting foreign characters
-                // does not work well
-            }
-            return content;
-        } catch (IOException e) {
-            return "";
+    private static Fetcher.Result getPage(Fetcher.Result result) {
+        if (result.status < 200 || result.status >= 300 || result.rejected || result.body.length() == 0) {
+            return null;
         }
+        return result;
     }
 
     /*
@@ -472,7 +831,7 @@ public class Crawler {
                 continue;
             }
             try {
-                results.add(new MyURI(new URI(newUrl.toString()), depth + 1));
+                results.add(new MyURI(canonicalizer.canonicalize(new URI(newUrl.toString())), depth + 1));
             } catch (URISyntaxException e) {
                 //ignore invalid urls
                 continue;
@@ -506,29 +865,19 @@ public class Crawler {
     }
 
     /**
-     * This method saves page to disk (by Chen Chen)
+     * This method saves page to disk (by Chen Chen), as a record appended to the
+     * current segment of the thread, in the same text form as the old .page files
      */
-    private static void savePage(String fileName, MyURI thisUrl, List<MyURI> newUrls, int length,
-                                 String title, String content, int threadID)
+    private static PageRecord savePage(String fileName, MyURI thisUrl, List<MyURI> newUrls, int length,
+                                       String title, String content, SegmentWriter writer)
             throws IOException {
-        String filePath = savePath + "pages" + File.separator + "result_" + jobID + File.separator;
-        filePath = filePath + jobID + "_" + threadID + File.separator;
-        FileWriter writer = new FileWriter(filePath + fileName + ".page");
-        BufferedWriter bufferedWriter = new BufferedWriter(writer);
-        // write its own url
-        bufferedWriter.write("#ThisURL#" + "\n" + thisUrl.getURI().toString() + "\n");
-        // write its suburls
-        bufferedWriter.write("#SubURL#" + "\n");
+        List<String> subUrls = new ArrayList<String>(newUrls.size());
         for (MyURI url: newUrls) {
-            bufferedWriter.write(url.getURI().toString() + "\n");
+            subUrls.add(url.getURI().toString());
         }
-        // write its length
-        bufferedWriter.write("#Length#" + "\n" + length + "\n");
-        // write its title
-        bufferedWriter.write("#Title#" + "\n" + title + "\n");
-        // write its content
-        bufferedWriter.write("#Content#" + "\n" + content + "\n");
-        bufferedWriter.close();
+        PageRecord record = new PageRecord(fileName, thisUrl.getURI().toString(), subUrls, length, title, content);
+        writer.append(record);
+        return record;
     }
 
     /**
@@ -544,81 +893,363 @@ public class Crawler {
     }
 
     /**
-     * This class tries to simulate a concurrent queue
+     * This method prints the message to the console, and write to the work log
      */
-    private static class UrlQueue {
-        // it consists of many small queues
-        final int LIST_COUNT = 1000;
-        int emptyPos = 0;
-        HashMap<Integer, LinkedList<MyURI>> listMap =
-                new HashMap<Integer, LinkedList<MyURI>>();
-        private final Object[] LIST_LOCK = new Object[LIST_COUNT];
+    private static void output(String message) {
+        System.out.println(message);
+        try {
+            synchronized (LOG_WRITER_LOCK) {
+                logWriter.write(message + "\n");
+            }
+        } catch (IOException e) {
+            System.out.println("Write to work log not successfully");
+        }
+    }
 
-        public UrlQueue() {
-            for (int i = 0; i < LIST_COUNT; i++) {
-                listMap.put(i, new LinkedList<MyURI>());
-                LIST_LOCK[i] = new Object();
+    /**
+     * This method saves a checkpoint of the crawl: the length of every file the crawl appends
+     * to, the frontier with the politeness time of each host, the polled urls whose pages are
+     * not processed yet, the internal hashmap, the future roots and the page counters.
+     * No page is processed and no url moves meanwhile, and everything the checkpoint counts
+     * on is written to disk before it, so a crash at any time leaves the previous checkpoint
+     * or this one. What was appended after it is cut off by rollBack() when the round resumes,
+     * so segments are completed here and published only once the checkpoint is saved
+     */
+    private static void checkpoint() {
+        lastCheckpoint = System.currentTimeMillis();
+        CHECKPOINT_LOCK.writeLock().lock();
+        try {
+            synchronized (FRONTIER_LOCK) {
+                if (lastCheckpoint - lastRoll > rollInterval) {
+                    rollSegments();
+                }
+                flushAll();
+                File file = checkpointFile();
+                File tmp = new File(file.getPath() + ".tmp");
+                FileOutputStream fileOut = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+                out.writeInt(CHECKPOINT_VERSION);
+                out.writeInt(jobID);
+                out.writeLong(revisits.logLength());
+                out.writeLong(nearDuplicates == null ? -1 : nearDuplicates.logLength());
+                for (int i = 0; i < EXTERNAL_HASHSET_COUNT; i++) {
+                    out.writeLong(new File(mappingFile(i)).length());
+                }
+                out.writeInt(segmentWriters.length);
+                for (SegmentWriter writer : segmentWriters) {
+                    out.writeInt(writer.segmentID());
+                    out.writeLong(writer.position());
+                }
+                out.writeInt(pageCount.get());
+                // threads not started since the round resumed keep their restored counters
+                int counters = Math.max(crawlings.length, restoredDownloadCounts.length);
+                out.writeInt(counters);
+                for (int i = 0; i < counters; i++) {
+                    out.writeInt(i < crawlings.length ? crawlings[i].getDownloadCount() : restoredDownloadCounts[i]);
+                }
+                frontier.checkpoint(out);
+                writeUrls(out, new ArrayList<MyURI>(inFlight));
+                List<MyURI> internal = new ArrayList<MyURI>();
+                for (int i = 0; i < EXTERNAL_HASHSET_COUNT; i++) {
+                    synchronized (INTERNAL_HASHSET_LOCK[i]) {
+                        HashSet<MyURI> internalHashSet = internalHashMap.get(i);
+                        if (internalHashSet != null) {
+                            internal.addAll(internalHashSet);
+                        }
+                    }
+                }
+                writeUrls(out, internal);
+                synchronized (NEXT_ROOTS_LOCK) {
+                    writeUrls(out, new ArrayList<MyURI>(nextRoots));
+                }
+                out.flush();
+                fileOut.getFD().sync();
+                out.close();
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            // the urls received from other nodes are in the checkpoint now
+            if (exchange != null) {
+                exchange.commit();
             }
+            output("Checkpoint of round " + jobID + " saved, " + frontier.size() + " urls queued");
+            publishSegments();
+        } catch (IOException e) {
+            output("Save checkpoint not successfully");
+        } finally {
+            CHECKPOINT_LOCK.writeLock().unlock();
         }
+    }
 
-        public boolean isEmpty() {
-            return emptyPos != -1;
+    /**
+     * This method starts a new segment in every thread directory whose segment is older than rollInterval
+     */
+    private static void rollSegments() {
+        lastRoll = System.currentTimeMillis();
+        for (SegmentWriter writer : segmentWriters) {
+            try {
+                writer.rollIfOlder(rollInterval);
+            } catch (IOException e) {
+                output("Start a new page segment not successfully");
+            }
         }
+    }
 
-        // there's no lock for emptyPos, so cannot guarantee emptyPos won't change,
-        // but doesn't hurt, and when hit miss is rare, should work well
-        public void add(MyURI url) {
-            int index = emptyPos;
-            if (index == -1) {
-                index = (int)(Math.random() * LIST_COUNT);
+    /**
+     * This method lists the completed segments in the manifest, for PageRank, RemoveDuplicates
+     * and the indexers to read
+     */
+    private static void publishSegments() {
+        int count = 0;
+        for (SegmentWriter writer : segmentWriters) {
+            for (File segment : writer.completedSegments()) {
+                // an empty segment has nothing to read
+                if (segment.length() == 0 || manifest.contains(segment)) {
+                    continue;
+                }
+                try {
+                    manifest.publish(segment);
+                    count++;
+                } catch (IOException e) {
+                    output("Publish " + segment.getPath() + " not successfully");
+                    return;
+                }
             }
-            synchronized (LIST_LOCK[index]) {
-                LinkedList<MyURI> current = listMap.get(index);
-                current.add(url);
+        }
+        if (count > 0) {
+            output(count + " page segments of round " + jobID + " published");
+        }
+    }
+
+    /**
+     * This method goes on with the future roots once the frontier runs dry, as the next
+     * round of a time-boxed crawl would
+     */
+    private static void nextRound() {
+        List<MyURI> roots;
+        synchronized (NEXT_ROOTS_LOCK) {
+            if (nextRoots.isEmpty()) {
+                return;
             }
-            emptyPos = -1;
+            roots = new ArrayList<MyURI>(nextRoots);
+            nextRoots.clear();
         }
+        for (MyURI root : roots) {
+            addToInternalHashMap(new MyURI(root.getURI(), root.getFingerprint(), 1));
+        }
+        output("Crawling round " + jobID + " goes on with " + roots.size() + " new roots");
+    }
 
-        public MyURI poll() {
-            int index = (int)(Math.random() * LIST_COUNT);
-            MyURI url = null;
-            synchronized (LIST_LOCK[index]) {
-                LinkedList<MyURI> current = listMap.get(index);
-                url = current.poll();
+    /**
+     * This method applies the control file if it changed since the last check
+     */
+    private static void readControl() {
+        lastControlCheck = System.currentTimeMillis();
+        File file = controlFile();
+        if (!file.exists() || file.lastModified() == controlModified) {
+            return;
+        }
+        controlModified = file.lastModified();
+        Properties control = new Properties();
+        try {
+            FileReader reader = new FileReader(file);
+            control.load(reader);
+            reader.close();
+        } catch (IOException e) {
+            output("Read " + file.getName() + " not successfully");
+            return;
+        }
+        try {
+            int threads = Integer.parseInt(control.getProperty("threads", String.valueOf(threadCount)).trim());
+            int fetches = Integer.parseInt(control.getProperty("fetches", String.valueOf(maxFetches)).trim());
+            long minDelay = Long.parseLong(control.getProperty("minDelay",
+                    String.valueOf(frontier.getMinDelay())).trim());
+            int delayFactor = Integer.parseInt(control.getProperty("delayFactor",
+                    String.valueOf(frontier.getDelayFactor())).trim());
+            if (threads <= 0 || fetches <= 0 || minDelay < 0 || delayFactor < 0) {
+                output(file.getName() + " ignored, threads and fetches should be positive");
+                return;
             }
-            // if a thread does not get a url from a small queue,
-            // store its index, and the next add() call will add
-            // a url to that position
-            if (url == null) {
-                emptyPos = index;
+            if (fetches != maxFetches) {
+                if (fetches > maxFetches) {
+                    fetchSlots.release(fetches - maxFetches);
+                }
+                else {
+                    fetchSlots.reduce(maxFetches - fetches);
+                }
+                fetcher.setMaxInFlight(fetches);
+                maxFetches = fetches;
             }
-            else {
-                emptyPos = -1;
+            frontier.setPoliteness(minDelay, delayFactor);
+            threadCount = threads;
+            output("Control of round " + jobID + ": threads " + threadCount + ", fetches " + maxFetches
+                    + ", minDelay " + minDelay + ", delayFactor " + delayFactor);
+        } catch (NumberFormatException e) {
+            output(file.getName() + " ignored, its values should be integers");
+            return;
+        }
+        // a stop left in the file by the last run does not stop this one
+        if (Boolean.parseBoolean(control.getProperty("stop", "false").trim()) && controlModified >= startTime) {
+            try {
+                stop();
+            } catch (IOException e) {
+                // ignore
             }
-            return url;
         }
+    }
 
-        public int size() {
-            int index = (int)(Math.random() * LIST_COUNT);
-            synchronized (LIST_LOCK[index]) {
-                LinkedList<MyURI> current = listMap.get(index);
-                return current.size();
+    /**
+     * This method cuts the files the crawl appends to back to their length at the checkpoint,
+     * so the pages, mappings, validators and SimHashes of the pages processed after it are
+     * gone, and those pages are fetched again with the same pageIDs.
+     * It runs before the files are opened
+     */
+    private static void rollBack() {
+        try {
+            DataInputStream in = openCheckpoint();
+            RevisitScheduler.truncate(savePath + "revisit", in.readLong());
+            long simHashLength = in.readLong();
+            if (simHashLength >= 0) {
+                NearDuplicateIndex.truncate(savePath + "simhash", simHashLength);
             }
+            for (int i = 0; i < EXTERNAL_HASHSET_COUNT; i++) {
+                long length = in.readLong();
+                File file = new File(mappingFile(i));
+                if (file.length() > length) {
+                    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    raf.setLength(length);
+                    raf.close();
+                }
+            }
+            int writerCount = in.readInt();
+            for (int i = 0; i < writerCount; i++) {
+                int segmentID = in.readInt();
+                long position = in.readLong();
+                SegmentWriter.truncate(savePath + "pages" + File.separator + "result_" + jobID
+                        + File.separator + jobID + "_" + threadNumber(i), segmentID, position);
+            }
+            in.close();
+        } catch (IOException e) {
+            System.out.println("Roll back to the checkpoint not successfully");
+            System.exit(1);
         }
     }
 
     /**
-     * This method prints the message to the console, and write to the work log
+     * This method continues the round from its checkpoint
      */
-    private static void output(String message) {
-        System.out.println(message);
+    private static void restore() {
         try {
-            synchronized (LOG_WRITER_LOCK) {
-                logWriter.write(message + "\n");
+            DataInputStream in = openCheckpoint();
+            // the file lengths are used by rollBack()
+            in.readLong();
+            in.readLong();
+            for (int i = 0; i < EXTERNAL_HASHSET_COUNT; i++) {
+                in.readLong();
+            }
+            int writerCount = in.readInt();
+            for (int i = 0; i < writerCount; i++) {
+                in.readInt();
+                in.readLong();
+            }
+            pageCount.set(in.readInt());
+            restoredDownloadCounts = new int[in.readInt()];
+            for (int i = 0; i < restoredDownloadCounts.length; i++) {
+                restoredDownloadCounts[i] = in.readInt();
+            }
+            frontier.restore(in);
+            // the polled urls are in the url-seen store already
+            for (MyURI url : readUrls(in)) {
+                frontier.add(url);
             }
+            // the url-seen store is not rolled back, it may have the urls of the internal
+            // hashmap from after the checkpoint, so they skip it: an url that had been seen
+            // before the checkpoint is fetched a second time rather than lost
+            List<MyURI> internal = readUrls(in);
+            long[] fingerprints = new long[internal.size()];
+            for (int i = 0; i < fingerprints.length; i++) {
+                fingerprints[i] = internal.get(i).getFingerprint();
+                frontier.add(internal.get(i));
+            }
+            seenStore.addAll(fingerprints);
+            nextRoots.addAll(readUrls(in));
+            in.close();
         } catch (IOException e) {
-            System.out.println("Write to work log not successfully");
+            System.out.println("Read checkpoint not successfully");
+            System.exit(1);
+        }
+        output("Crawling round " + jobID + " resumed, " + frontier.size() + " urls queued");
+    }
+
+    /**
+     * This method writes everything buffered to disk
+     */
+    private static void flushAll() throws IOException {
+        for (SegmentWriter writer : segmentWriters) {
+            writer.sync();
+        }
+        for (int i = 0; i < EXTERNAL_HASHSET_COUNT; i++) {
+            synchronized (URI_WRITER_LOCK[i]) {
+                urlWriter[i].flush();
+            }
+        }
+        // the validators and the SimHashes are written by logLength()
+        seenStore.flush();
+        // the urls sent to other nodes are in their inboxes before the checkpoint
+        if (exchange != null) {
+            exchange.flush();
+        }
+        synchronized (LOG_WRITER_LOCK) {
+            logWriter.flush();
+        }
+    }
+
+    private static DataInputStream openCheckpoint() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(checkpointFile()), 1 << 16));
+        if (in.readInt() != CHECKPOINT_VERSION || in.readInt() != jobID) {
+            System.out.println("The checkpoint is not of this round or this version");
+            System.exit(1);
+        }
+        return in;
+    }
+
+    private static File controlFile() {
+        return new File(savePath + "control" + File.separator + "crawler_" + jobID + ".properties");
+    }
+
+    private static String mappingFile(int index) {
+        return savePath + "pageID" + File.separator + "urlToId_" + index + ".mapping";
+    }
+
+    private static File checkpointFile() {
+        return new File(savePath + "checkpoint" + File.separator + "checkpoint_" + jobID + ".ckpt");
+    }
+
+    private static void writeUrls(DataOutputStream out, List<MyURI> urls) throws IOException {
+        out.writeInt(urls.size());
+        for (MyURI url : urls) {
+            byte[] bytes = url.getURI().toString().getBytes("UTF-8");
+            out.writeInt(url.getDepth());
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static List<MyURI> readUrls(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<MyURI> urls = new ArrayList<MyURI>(count);
+        for (int i = 0; i < count; i++) {
+            int depth = in.readInt();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            try {
+                urls.add(new MyURI(new URI(new String(bytes, "UTF-8")), depth));
+            } catch (URISyntaxException e) {
+                // was valid when written
+            }
         }
+        return urls;
     }
 
     /**
@@ -626,6 +1257,29 @@ public class Crawler {
      */
     private synchronized static void stop()
             throws IOException {
+        // no page is processed from here on, so the closed segments are complete and
+        // the last checkpoint counts on all of them, then they are all published
+        CHECKPOINT_LOCK.writeLock().lock();
+        output(metrics.summary());
+        for (SegmentWriter writer : segmentWriters) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.out.println("Save page segments not successfully");
+            }
+        }
+        // the last checkpoint, a later -resume goes on from where this round stops
+        if (checkpointInterval > 0) {
+            checkpoint();
+        }
+        else if (exchange != null) {
+            exchange.flush();
+        }
+        publishSegments();
+        // the pages still queued are indexed, and the index is published once more
+        if (indexer != null) {
+            indexer.Close();
+        }
         String dirPath = savePath + "roots" + File.separator;
         String fileName = "root_" + (jobID + 1000);
         BufferedWriter nextWriter = null;
@@ -639,6 +1293,23 @@ public class Crawler {
             nextWriter.write(myUrl.getURI().toString() + "\n");
         }
         nextWriter.close();
+        try {
+            seenStore.close();
+        } catch (IOException e) {
+            System.out.println("Save url-seen store not successfully");
+        }
+        try {
+            revisits.close();
+        } catch (IOException e) {
+            System.out.println("Save page validators not successfully");
+        }
+        if (nearDuplicates != null) {
+            try {
+                nearDuplicates.close();
+            } catch (IOException e) {
+                System.out.println("Save SimHash index not successfully");
+            }
+        }
         for (int i = 0; i < EXTERNAL_HASHSET_COUNT; i++) {
             synchronized (URI_WRITER_LOCK[i]) {
                 urlWriter[i].close();
@@ -651,27 +1322,6 @@ public class Crawler {
         System.exit(0);
     }
 
-    /**
-     * This class adds depth value to URI class
-     */
-    private static class MyURI {
-        private URI url;
-        private int depth;
-
-        public MyURI(URI url, int depth) {
-            this.url = url;
-            this.depth = depth;
-        }
-
-        public URI getURI() {
-            return url;
-        }
-
-        public int getDepth() {
-            return depth;
-        }
-    }
-
     /**
      * This method checks the inputs and exits the program if inputs are not valid
      */
@@ -683,7 +1333,9 @@ public class Crawler {
             // ignore
         }
         final int ARG_COUNT = 6;
-        if (args.length != ARG_COUNT) {
+        // -threads and -fetches are optional, -resume is the only flag without a value
+        boolean resumeFlag = Arrays.asList(args).contains("-resume");
+        if (args.length < ARG_COUNT || (args.length - (resumeFlag ? 1 : 0)) % 2 != 0) {
             System.out.println(USAGE);
             System.exit(1);
         }
@@ -729,24 +1381,205 @@ public class Crawler {
                     System.exit(1);
                 }
             }
+            else if (args[index].equals("-threads")) {
+                try {
+                    threadCount = Integer.parseInt(args[index + 1]);
+                    index += 2;
+                } catch (NumberFormatException e) {
+                    System.out.println("Please provide an integer value for processThreads");
+                    System.exit(1);
+                }
+            }
+            else if (args[index].equals("-fetches")) {
+                try {
+                    maxFetches = Integer.parseInt(args[index + 1]);
+                    index += 2;
+                } catch (NumberFormatException e) {
+                    System.out.println("Please provide an integer value for maxFetches");
+                    System.exit(1);
+                }
+            }
+            else if (args[index].equals("-checkpoint")) {
+                try {
+                    checkpointInterval = Long.parseLong(args[index + 1]) * 60 * 1000;
+                    index += 2;
+                } catch (NumberFormatException e) {
+                    System.out.println("Please provide an integer value for checkpoint interval");
+                    System.exit(1);
+                }
+            }
+            else if (args[index].equals("-roll")) {
+                try {
+                    rollInterval = Long.parseLong(args[index + 1]) * 60 * 1000;
+                    index += 2;
+                } catch (NumberFormatException e) {
+                    System.out.println("Please provide an integer value for roll interval");
+                    System.exit(1);
+                }
+            }
+            else if (args[index].equals("-limit")) {
+                try {
+                    searchLimit = Integer.parseInt(args[index + 1]);
+                    index += 2;
+                } catch (NumberFormatException e) {
+                    System.out.println("Please provide an integer value for searchLimit");
+                    System.exit(1);
+                }
+            }
+            else if (args[index].equals("-metrics")) {
+                try {
+                    metricsPort = Integer.parseInt(args[index + 1]);
+                    index += 2;
+                } catch (NumberFormatException e) {
+                    System.out.println("Please provide an integer value for port");
+                    System.exit(1);
+                }
+            }
+            else if (args[index].equals("-proxy")) {
+                String[] parts = args[index + 1].split(":");
+                try {
+                    proxyHost = parts[0];
+                    proxyPort = Integer.parseInt(parts[1]);
+                    index += 2;
+                } catch (RuntimeException e) {
+                    System.out.println("Please provide the proxy as host:port");
+                    System.exit(1);
+                }
+            }
+            else if (args[index].equals("-index")) {
+                indexPath = args[index + 1];
+                index += 2;
+            }
+            else if (args[index].equals("-publish")) {
+                try {
+                    publishInterval = Long.parseLong(args[index + 1]) * 60 * 1000;
+                    index += 2;
+                } catch (NumberFormatException e) {
+                    System.out.println("Please provide an integer value for publish interval");
+                    System.exit(1);
+                }
+            }
+            else if (args[index].equals("-canonical")) {
+                try {
+                    canonicalizer = new UrlCanonicalizer(args[index + 1]);
+                    index += 2;
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage() + ", the rules are " + UrlCanonicalizer.DEFAULT_RULES + " or none");
+                    System.exit(1);
+                }
+            }
+            else if (args[index].equals("-nodes")) {
+                try {
+                    nodeCount = Integer.parseInt(args[index + 1]);
+                    index += 2;
+                } catch (NumberFormatException e) {
+                    System.out.println("Please provide an integer value for nodeCount");
+                    System.exit(1);
+                }
+            }
+            else if (args[index].equals("-node")) {
+                try {
+                    nodeID = Integer.parseInt(args[index + 1]);
+                    index += 2;
+                } catch (NumberFormatException e) {
+                    System.out.println("Please provide an integer value for nodeID");
+                    System.exit(1);
+                }
+            }
+            else if (args[index].equals("-resume")) {
+                resume = true;
+                index++;
+            }
+            else if (args[index].equals("-simhash")) {
+                try {
+                    simHashDistance = Integer.parseInt(args[index + 1]);
+                    index += 2;
+                } catch (NumberFormatException e) {
+                    System.out.println("Please provide an integer value for maxDistance");
+                    System.exit(1);
+                }
+            }
             else {
                 System.out.println(USAGE);
                 System.exit(1);
             }
         }
+        if (publishInterval <= 0) {
+            System.out.println("publish interval should be positive");
+            System.exit(1);
+        }
+        if (duration < 0 || rollInterval <= 0) {
+            System.out.println("duration should not be negative (0 crawls continuously), roll interval should be positive");
+            System.exit(1);
+        }
+        if (threadCount <= 0 || maxFetches <= 0) {
+            System.out.println("processThreads and maxFetches should be positive");
+            System.exit(1);
+        }
+        if (simHashDistance > 7) {
+            System.out.println("maxDistance should be at most 7, or negative to keep near-duplicates");
+            System.exit(1);
+        }
+        if (nodeCount < 1 || nodeCount > 65 || (nodeCount > 1 && (nodeID < 0 || nodeID >= nodeCount))) {
+            System.out.println("nodeCount should be 1 - 65, and nodeID 0 - (nodeCount - 1)");
+            System.exit(1);
+        }
+        if (nodeCount > 1 && threadCount > NODE_THREADS) {
+            System.out.println("processThreads should be at most " + NODE_THREADS + " on a node");
+            System.exit(1);
+        }
+        // a node keeps everything of its own in its directory, and shares the roots and the exchange
+        if (nodeCount > 1) {
+            clusterPath = savePath;
+            savePath = clusterPath + "node_" + nodeID + File.separator;
+            new File(savePath + "roots").mkdirs();
+            if (indexPath != null) {
+                indexPath = indexPath + File.separator + "node_" + nodeID;
+            }
+        }
     }
 
     /**
      * This method creates all the necessary directories and creates file reader and writer
      */
     public static Scanner prepare() {
+        // create the directory for the checkpoints, a resumed round starts from its checkpoint
+        // and does not need its root file
+        File checkpointDir = new File(savePath + "checkpoint");
+        if (!checkpointDir.exists()) {
+            checkpointDir.mkdir();
+        }
+        if (resume && !checkpointFile().exists()) {
+            System.out.println("There is no checkpoint of round " + jobID + ", start from the root file");
+            resume = false;
+        }
+        if (resume) {
+            rollBack();
+        }
         // assume the roots directory has been created, read in the root file
         Scanner readFile = null;
-        try {
-            readFile = new Scanner(new FileReader(savePath + "roots" + File.separator + "root_" + jobID));
-        } catch (FileNotFoundException e) {
-            System.out.println("The root file does not exist");
-            System.exit(1);
+        if (!resume) {
+            // a node reads its own root file, the future roots it saved in an earlier round, or the
+            // shared one, the roots of the other nodes in it are handed to them
+            String rootFile = savePath + "roots" + File.separator + "root_" + jobID;
+            if (clusterPath != null && !new File(rootFile).exists()) {
+                rootFile = clusterPath + "roots" + File.separator + "root_" + jobID;
+            }
+            try {
+                readFile = new Scanner(new FileReader(rootFile));
+            } catch (FileNotFoundException e) {
+                System.out.println("The root file does not exist");
+                System.exit(1);
+            }
+        }
+        // open the inbox of this node, the other nodes may have written to it already
+        if (clusterPath != null) {
+            try {
+                exchange = new UrlExchange(clusterPath + "exchange", nodeCount, nodeID, EXCHANGE_BATCH);
+            } catch (IOException e) {
+                System.out.println("Open the url exchange of node " + nodeID + " not successfully");
+                System.exit(1);
+            }
         }
         // create the directory to save pages for this round of crawling
         String resultPath = savePath + "pages" + File.separator;
@@ -760,6 +1593,61 @@ public class Crawler {
         if (!resultDir.exists()) {
             resultDir.mkdir();
         }
+        // completed segments are listed in its manifest
+        try {
+            manifest = new Manifest(resultDir);
+        } catch (IOException e) {
+            System.out.println("Read the manifest of " + resultPath + " not successfully");
+            System.exit(1);
+        }
+        if (indexPath != null) {
+            startIndexer(resultDir);
+        }
+        // the control file of a running crawl, created by the user when needed
+        File controlDir = new File(savePath + "control");
+        if (!controlDir.exists()) {
+            controlDir.mkdir();
+        }
+        // create the directory for the spill files of the frontier, urls spilled by
+        // an earlier run are not read again, so start with an empty one
+        String frontierPath = savePath + "frontier" + File.separator;
+        File frontierDir = new File(frontierPath);
+        if (!frontierDir.exists()) {
+            frontierDir.mkdir();
+        }
+        frontierPath += "frontier_" + jobID + File.separator;
+        frontierDir = new File(frontierPath);
+        if (!frontierDir.exists()) {
+            frontierDir.mkdir();
+        }
+        File[] spilled = frontierDir.listFiles();
+        if (spilled != null) {
+            for (File file : spilled) {
+                file.delete();
+            }
+        }
+        frontier = new Frontier(MAX_DEPTH, FRONTIER_IN_MEMORY, frontierPath);
+        // open the url-seen store, it is created if it does not exist
+        try {
+            seenStore = new UrlSeenStore(savePath + "seen", SEEN_BLOOM_BITS_LOG2);
+        } catch (IOException e) {
+            System.out.println("Open url-seen store not successfully");
+            System.exit(1);
+        }
+        try {
+            revisits = new RevisitScheduler(savePath + "revisit");
+        } catch (IOException e) {
+            System.out.println("Open page validators not successfully");
+            System.exit(1);
+        }
+        if (simHashDistance >= 0) {
+            try {
+                nearDuplicates = new NearDuplicateIndex(savePath + "simhash", simHashDistance);
+            } catch (IOException e) {
+                System.out.println("Open SimHash index not successfully");
+                System.exit(1);
+            }
+        }
         // create the directory to save pageID - url mapping
         String mappingPath = savePath + "pageID" + File.separator;
         File mappingDir = new File(mappingPath);
@@ -776,14 +1664,14 @@ public class Crawler {
         }
         // initialize log writer
         try {
-            FileWriter writer = new FileWriter(dirPath + "workLog_" + jobID + ".log");
+            FileWriter writer = new FileWriter(dirPath + "workLog_" + jobID + ".log", resume);
             logWriter = new BufferedWriter(writer);
         } catch (IOException e) {
             System.out.println("Create workLog_" + jobID + " not successfully");
         }
         // initialize url writer
         for (int i = 0; i < EXTERNAL_HASHSET_COUNT; i++) {
-            String fileName = savePath + "pageID" + File.separator + "urlToId_" + i + ".mapping";
+            String fileName = mappingFile(i);
             try {
                 FileWriter writer = new FileWriter(fileName, true);
                 urlWriter[i] = new BufferedWriter(writer);
@@ -794,6 +1682,37 @@ public class Crawler {
         return readFile;
     }
 
+    /**
+     * This method starts indexing the saved pages, beginning with those already saved in this round,
+     * e.g. before the checkpoint it resumes from, the only time they are read back
+     */
+    private static void startIndexer(File resultDir) {
+        indexer = new StreamIndexer(indexPath, INDEX_THREADS, INDEX_QUEUE, publishInterval, PAGE_RANK_F);
+        try {
+            indexer.Start();
+        } catch (IOException e) {
+            System.out.println("Create the index in " + indexPath + " not successfully");
+            System.exit(1);
+        }
+        int count = 0;
+        File[] threadDirs = resultDir.listFiles();
+        for (File threadDir : threadDirs) {
+            if (!threadDir.isDirectory()) {
+                continue;
+            }
+            try {
+                count += PageStore.scanAllSegments(threadDir, new PageStore.Visitor() {
+                    public void visit(PageRecord page) {
+                        indexer.Add(page);
+                    }
+                });
+            } catch (IOException e) {
+                System.out.println("Read the pages in " + threadDir + " not successfully");
+            }
+        }
+        System.out.println("Indexing round " + jobID + " in " + indexPath + ", " + count + " pages saved before");
+    }
+
     public static void main(String[] args) {
         checkArgs(args);
         Scanner readFile = prepare();
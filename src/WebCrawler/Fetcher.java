@@ -0,0 +1,474 @@
+package WebCrawler;
+
+import java.net.ConnectException;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import javax.net.ssl.SSLException;
+
+/**
+ * The asynchronous fetch engine of the crawler, built on java.net.http.HttpClient.
+ *
+ * fetch() never blocks: the request is queued and sent as soon as both limits allow it,
+ * at most maxInFlight requests in total and at most maxPerHost for one host.
+ * The client keeps connections alive and reuses them, and speaks HTTP/2 when the server does.
+ * A few threads are enough to drive thousands of requests, so the number of outstanding
+ * fetches does not depend on the number of threads any more.
+ * The listener is called on one of those threads, so it should only hand the result over.
+ * timeout bounds the connection and the wait for the response headers, and the whole exchange,
+ * body included, must end within EXCHANGE_TIMEOUTS times timeout, or it is cancelled as "timeout".
+ */
+class Fetcher {
+    private static final String USER_AGENT = "WSE_Project crawler";
+    // the language of a page is decided within its first 16 KB
+    private static final int LANGUAGE_PROBE = 16 * 1024;
+    private static final int EXCHANGE_TIMEOUTS = 3;
+
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private volatile int maxInFlight;
+    private final int maxPerHost;
+    private final Duration timeout;
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<Request>();
+    private final ConcurrentHashMap<String, HostSlot> hostSlots = new ConcurrentHashMap<String, HostSlot>();
+
+    /**
+     * This interface receives the result of a fetch
+     */
+    interface Listener {
+        void completed(Result result);
+    }
+
+    /**
+     * This class is the result of a fetch, status is -1 if no response was received,
+     * and error then tells why: "invalid", "timeout", "connect", "tls" or "io".
+     * body is empty unless the response is 2xx with a textual (or missing) content type,
+     * and holds at most maxBytes bytes (truncated is set if there were more).
+     * rejected is set if the download was stopped because the page is not in English
+     */
+    static class Result {
+        final URI uri;
+        final int status;
+        final HttpHeaders headers;
+        final PageBuffer body;
+        final Charset charset;
+        final boolean truncated;
+        final boolean rejected;
+        final long millis;
+        final String error;
+
+        Result(URI uri, int status, HttpHeaders headers, Body body, long millis) {
+            this(uri, status, headers, body, millis, null);
+        }
+
+        Result(URI uri, int status, HttpHeaders headers, Body body, long millis, String error) {
+            this.uri = uri;
+            this.error = error;
+            this.status = status;
+            this.headers = headers;
+            this.body = body == null ? new PageBuffer(0) : body.buffer;
+            this.charset = headers == null ? StandardCharsets.UTF_8
+                    : this.body.charset(headers.firstValue("Content-Type").orElse(null));
+            this.truncated = body != null && body.truncated;
+            this.rejected = body != null && body.rejected;
+            this.millis = millis;
+        }
+
+        /**
+         * This method decodes the body, only for small bodies such as robots.txt
+         */
+        String text() {
+            return new String(body.bytes(), 0, body.length(), charset);
+        }
+    }
+
+    /**
+     * proxy can be null for direct connections, e.g. to a local test server
+     */
+    public Fetcher(int maxInFlight, int maxPerHost, long timeoutMillis, int threadCount, ProxySelector proxy) {
+        this.maxInFlight = maxInFlight;
+        this.maxPerHost = maxPerHost;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "fetcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(timeout)
+                .executor(executor);
+        if (proxy != null) {
+            builder.proxy(proxy);
+        }
+        client = builder.build();
+    }
+
+    /**
+     * This method queues a GET request for uri, listener is called exactly once.
+     * At most maxBytes of the body are read, and if checkLanguage is set, the download
+     * stops as soon as the page turns out not to be in English
+     */
+    public void fetch(URI uri, int maxBytes, boolean checkLanguage, Listener listener) {
+        fetch(uri, maxBytes, checkLanguage, null, listener);
+    }
+
+    /**
+     * headers are extra request headers as name, value pairs, e.g. If-None-Match, or null
+     */
+    public void fetch(URI uri, int maxBytes, boolean checkLanguage, String[] headers, Listener listener) {
+        Request request = new Request(uri, maxBytes, checkLanguage, headers, listener);
+        String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase();
+        while (true) {
+            HostSlot slot = hostSlots.get(host);
+            if (slot == null) {
+                HostSlot newSlot = new HostSlot(host);
+                slot = hostSlots.putIfAbsent(host, newSlot);
+                if (slot == null) {
+                    slot = newSlot;
+                }
+            }
+            synchronized (slot) {
+                if (slot.removed) {
+                    // it has just been dropped by finish(), get or create the current one
+                    continue;
+                }
+                request.slot = slot;
+                if (slot.active >= maxPerHost) {
+                    slot.waiting.add(request);
+                    return;
+                }
+                slot.active++;
+                break;
+            }
+        }
+        pending.offer(request);
+        drain();
+    }
+
+    /**
+     * This method changes the limit of requests on the wire, a lower one is reached as requests complete
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        drain();
+    }
+
+    /**
+     * This method returns the number of requests on the wire
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * This method sends queued requests while the global limit allows
+     */
+    private void drain() {
+        while (true) {
+            int count = inFlight.get();
+            if (count >= maxInFlight) {
+                // the next completion drains again
+                return;
+            }
+            if (!inFlight.compareAndSet(count, count + 1)) {
+                continue;
+            }
+            Request request = pending.poll();
+            if (request == null) {
+                inFlight.decrementAndGet();
+                // another thread may have queued a request after our poll but seen the counter full
+                if (pending.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            send(request);
+        }
+    }
+
+    private void send(final Request request) {
+        final long begin = System.currentTimeMillis();
+        HttpRequest httpRequest;
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(request.uri)
+                    .timeout(timeout)
+                    .header("User-Agent", USER_AGENT)
+                    .GET();
+            if (request.headers != null) {
+                builder.headers(request.headers);
+            }
+            httpRequest = builder.build();
+        } catch (IllegalArgumentException e) {
+            // e.g. a scheme other than http or https
+            finish(request, new Result(request.uri, -1, null, null, 0, "invalid"));
+            return;
+        }
+        final BodyHandler handler = new BodyHandler(request.maxBytes, request.checkLanguage);
+        // the request timeout ends with the headers, a server may still stall the body
+        client.sendAsync(httpRequest, handler)
+                .orTimeout(EXCHANGE_TIMEOUTS * timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete(new BiConsumer<HttpResponse<Body>, Throwable>() {
+                    public void accept(HttpResponse<Body> response, Throwable error) {
+                        long millis = System.currentTimeMillis() - begin;
+                        if (response == null) {
+                            handler.cancel();
+                            finish(request, new Result(request.uri, -1, null, null, millis, errorClass(error)));
+                        }
+                        else {
+                            finish(request, new Result(request.uri, response.statusCode(), response.headers(),
+                                    response.body(), millis));
+                        }
+                    }
+                });
+    }
+
+    /**
+     * This method names the kind of failure of a request that got no response
+     */
+    private static String errorClass(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof HttpTimeoutException || error instanceof TimeoutException) {
+            return "timeout";
+        }
+        if (error instanceof ConnectException) {
+            return "connect";
+        }
+        if (error instanceof SSLException) {
+            return "tls";
+        }
+        return "io";
+    }
+
+    /**
+     * This method frees the slots of a request, starts what waits for them, then calls the listener
+     */
+    private void finish(Request request, Result result) {
+        inFlight.decrementAndGet();
+        Request next = null;
+        HostSlot slot = request.slot;
+        synchronized (slot) {
+            next = slot.waiting.poll();
+            if (next == null) {
+                slot.active--;
+                if (slot.active == 0) {
+                    slot.removed = true;
+                    hostSlots.remove(slot.host, slot);
+                }
+            }
+        }
+        if (next != null) {
+            pending.offer(next);
+        }
+        drain();
+        try {
+            request.listener.completed(result);
+        } catch (RuntimeException e) {
+            System.out.println("Handle " + request.uri + " not successfully: " + e);
+        }
+    }
+
+    /**
+     * This class only reads the body of successful textual responses, like getPage() did
+     * with URLConnection, and drops the connection for the others instead of downloading them
+     */
+    private static class BodyHandler implements HttpResponse.BodyHandler<Body> {
+        private final int maxBytes;
+        private final boolean checkLanguage;
+        private volatile BodySubscriber subscriber = null;
+
+        BodyHandler(int maxBytes, boolean checkLanguage) {
+            this.maxBytes = maxBytes;
+            this.checkLanguage = checkLanguage;
+        }
+
+        public HttpResponse.BodySubscriber<Body> apply(HttpResponse.ResponseInfo info) {
+            if (info.statusCode() < 200 || info.statusCode() >= 300) {
+                subscriber = new BodySubscriber(0, false);
+                return subscriber;
+            }
+            String type = info.headers().firstValue("Content-Type").orElse(null);
+            // reference: https://www.w3.org/Protocols/rfc1341/4_Content-Type.html
+            // pages with type == null seem all to be textual type actually
+            if (type != null && !type.toLowerCase().startsWith("text")) {
+                subscriber = new BodySubscriber(0, false);
+                return subscriber;
+            }
+            int capacity = (int) Math.min(maxBytes, info.headers().firstValueAsLong("Content-Length").orElse(8192));
+            Body body = new Body(capacity);
+            subscriber = new BodySubscriber(body, maxBytes, checkLanguage);
+            return subscriber;
+        }
+
+        /**
+         * This method stops the download of the body, if it has started
+         */
+        void cancel() {
+            BodySubscriber current = subscriber;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
+    /**
+     * This class is a downloaded body
+     */
+    static class Body {
+        final PageBuffer buffer;
+        boolean truncated = false;
+        boolean rejected = false;
+
+        Body(int capacity) {
+            buffer = new PageBuffer(capacity);
+        }
+    }
+
+    /**
+     * This class copies the body into a PageBuffer as it arrives, and cancels the download
+     * once maxBytes are read or the first lang attribute says the page is not in English
+     */
+    private static class BodySubscriber implements HttpResponse.BodySubscriber<Body> {
+        private final CompletableFuture<Body> result = new CompletableFuture<Body>();
+        private final Body body;
+        private final int maxBytes;
+        private boolean checkLanguage;
+        private volatile Flow.Subscription subscription;
+
+        BodySubscriber(int maxBytes, boolean checkLanguage) {
+            this(new Body(0), maxBytes, checkLanguage);
+        }
+
+        BodySubscriber(Body body, int maxBytes, boolean checkLanguage) {
+            this.body = body;
+            this.maxBytes = maxBytes;
+            this.checkLanguage = checkLanguage;
+        }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        public void onNext(List<ByteBuffer> items) {
+            if (result.isDone()) {
+                return;
+            }
+            for (ByteBuffer item : items) {
+                if (!body.buffer.append(item, maxBytes)) {
+                    body.truncated = true;
+                    stop();
+                    return;
+                }
+            }
+            if (checkLanguage) {
+                int english = body.buffer.isEnglish(LANGUAGE_PROBE);
+                if (english == 0) {
+                    body.rejected = true;
+                    stop();
+                    return;
+                }
+                // if lang tag does not exist, allow them. It seems that counting foreign characters
+                // does not work well
+                if (english == 1 || body.buffer.length() >= LANGUAGE_PROBE) {
+                    checkLanguage = false;
+                }
+            }
+            subscription.request(1);
+        }
+
+        public void onError(Throwable error) {
+            result.completeExceptionally(error);
+        }
+
+        public void onComplete() {
+            result.complete(body);
+        }
+
+        public CompletionStage<Body> getBody() {
+            return result;
+        }
+
+        private void stop() {
+            result.complete(body);
+            subscription.cancel();
+        }
+
+        /**
+         * This method drops the connection when the exchange took too long, the body is not used
+         */
+        void cancel() {
+            result.completeExceptionally(new TimeoutException("body not received in time"));
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
+    private static class Request {
+        final URI uri;
+        final int maxBytes;
+        final boolean checkLanguage;
+        final String[] headers;
+        final Listener listener;
+        HostSlot slot;
+
+        Request(URI uri, int maxBytes, boolean checkLanguage, String[] headers, Listener listener) {
+            this.uri = uri;
+            this.maxBytes = maxBytes;
+            this.checkLanguage = checkLanguage;
+            this.headers = headers;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * This class counts the requests of one host and holds the ones over maxPerHost
+     */
+    private static class HostSlot {
+        final String host;
+        int active = 0;
+        boolean removed = false;
+        final ArrayDeque<Request> waiting = new ArrayDeque<Request>();
+
+        HostSlot(String host) {
+            this.host = host;
+        }
+    }
+}
@@ -0,0 +1,554 @@
+package WebCrawler;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The crawl frontier: one FIFO queue per host, and a scheduler keyed by the time
+ * each host may be fetched again.
+ *
+ * A host is always in exactly one of four states:
+ * IDLE    - nothing queued
+ * READY   - has urls and may be fetched now, sits in one of the ready queues
+ * ACTIVE  - handed to a fetcher, which must call release() when done
+ * WAITING - has urls but must wait for its politeness delay, sits in the delay queue
+ *
+ * So at most one thread fetches from a host at a time, and the next fetch starts no sooner
+ * than max(minDelay, delayFactor * last fetch time) later, both can be changed while crawling.
+ * Ready hosts are handed to fetchers through lock-free queues, one per depth, and
+ * hosts whose next url is shallower are served first.
+ * When more than maxInMemory urls are held in memory, new urls are appended to a spill
+ * file of their host and read back in batches once the host's memory queue runs empty.
+ * At most MAX_OPEN_SPILLS spill files are open for appending at a time, the one written
+ * least recently is closed to open another, and reopened when its host spills again.
+ * Hosts that are idle, empty and past their politeness delay are dropped every EVICT_INTERVAL,
+ * so the map of hosts only holds the ones still being crawled.
+ * checkpoint() writes all the queued urls (spilled ones included) and the politeness time
+ * of every host to one stream, which restore() reads back into an empty frontier.
+ */
+class Frontier {
+    private static final int IDLE = 0;
+    private static final int READY = 1;
+    private static final int ACTIVE = 2;
+    private static final int WAITING = 3;
+    public static final long MIN_DELAY = 1000;
+    public static final int DELAY_FACTOR = 4;
+    private static final int SPILL_BATCH = 1000;
+    private static final long EVICT_INTERVAL = 60 * 1000;
+    private static final int MAX_OPEN_SPILLS = 100;
+
+    private final int maxDepth;
+    private final int maxInMemory;
+    private final String spillPath;
+    private final ConcurrentHashMap<String, HostQueue> hosts = new ConcurrentHashMap<String, HostQueue>();
+    // ready[d] holds the ready hosts whose next url has depth d
+    private final ConcurrentLinkedQueue<HostQueue>[] ready;
+    private final DelayQueue<HostQueue> waiting = new DelayQueue<HostQueue>();
+    private final AtomicInteger inMemory = new AtomicInteger(0);
+    private final AtomicLong size = new AtomicLong(0);
+    private final AtomicInteger spillID = new AtomicInteger(0);
+    // the spill files open for appending, the one written least recently first, guarded by itself
+    private final LinkedHashMap<SpillWriter, Boolean> openSpills = new LinkedHashMap<SpillWriter, Boolean>(16, 0.75f, true);
+    private final AtomicLong nextEviction = new AtomicLong(System.currentTimeMillis() + EVICT_INTERVAL);
+    private volatile long minDelay = MIN_DELAY;
+    private volatile int delayFactor = DELAY_FACTOR;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Frontier(int maxDepth, int maxInMemory, String spillPath) {
+        this.maxDepth = maxDepth;
+        this.maxInMemory = maxInMemory;
+        this.spillPath = spillPath;
+        ready = new ConcurrentLinkedQueue[maxDepth + 1];
+        for (int i = 0; i <= maxDepth; i++) {
+            ready[i] = new ConcurrentLinkedQueue<HostQueue>();
+        }
+    }
+
+    /**
+     * This method adds a url to the queue of its host
+     */
+    public void add(MyURI url) {
+        String host = url.getURI().getHost();
+        if (host == null) {
+            return;
+        }
+        host = host.toLowerCase();
+        while (true) {
+            HostQueue hostQueue = hostQueue(host);
+            synchronized (hostQueue) {
+                if (hostQueue.evicted) {
+                    // dropped by evictIdle() meanwhile, take the new one
+                    continue;
+                }
+                hostQueue.add(url);
+                size.incrementAndGet();
+                if (hostQueue.state == IDLE) {
+                    schedule(hostQueue, System.currentTimeMillis());
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * This method returns the queue of host, creating it if there is none
+     */
+    private HostQueue hostQueue(String host) {
+        HostQueue hostQueue = hosts.get(host);
+        if (hostQueue == null) {
+            HostQueue newQueue = new HostQueue(host);
+            hostQueue = hosts.putIfAbsent(host, newQueue);
+            if (hostQueue == null) {
+                hostQueue = newQueue;
+            }
+        }
+        return hostQueue;
+    }
+
+    /**
+     * This method returns the next url that may be fetched now, or null if no host is ready.
+     * The caller must call release() with the same url once the fetch is over
+     */
+    public MyURI poll() {
+        long now = System.currentTimeMillis();
+        long eviction = nextEviction.get();
+        if (now >= eviction && nextEviction.compareAndSet(eviction, now + EVICT_INTERVAL)) {
+            evictIdle(now);
+        }
+        HostQueue due;
+        while ((due = waiting.poll()) != null) {
+            synchronized (due) {
+                due.state = READY;
+                ready[due.headDepth()].offer(due);
+            }
+        }
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            HostQueue hostQueue = ready[depth].poll();
+            if (hostQueue != null) {
+                synchronized (hostQueue) {
+                    MyURI url = hostQueue.poll();
+                    if (url == null) {
+                        // its spill file could not be read
+                        hostQueue.state = IDLE;
+                        continue;
+                    }
+                    hostQueue.state = ACTIVE;
+                    size.decrementAndGet();
+                    return url;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method gives the host of url back to the scheduler, fetchMillis is how long the fetch took
+     */
+    public void release(MyURI url, long fetchMillis) {
+        HostQueue hostQueue = hosts.get(url.getURI().getHost().toLowerCase());
+        if (hostQueue == null) {
+            return;
+        }
+        synchronized (hostQueue) {
+            long now = System.currentTimeMillis();
+            hostQueue.nextFetch = now + Math.max(minDelay, delayFactor * fetchMillis);
+            if (hostQueue.isEmpty()) {
+                hostQueue.state = IDLE;
+            }
+            else {
+                schedule(hostQueue, now);
+            }
+        }
+    }
+
+    /**
+     * This method returns the number of queued urls, including the spilled ones
+     */
+    public long size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /**
+     * This method returns whether some host can be fetched right now
+     */
+    public boolean hasReady() {
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            if (!ready[depth].isEmpty()) {
+                return true;
+            }
+        }
+        HostQueue head = waiting.peek();
+        return head != null && head.getDelay(TimeUnit.MILLISECONDS) <= 0;
+    }
+
+    /**
+     * This method changes the politeness delay, from the next release() of each host on
+     */
+    public void setPoliteness(long minDelay, int delayFactor) {
+        this.minDelay = minDelay;
+        this.delayFactor = delayFactor;
+    }
+
+    public long getMinDelay() {
+        return minDelay;
+    }
+
+    public int getDelayFactor() {
+        return delayFactor;
+    }
+
+    public int hostCount() {
+        return hosts.size();
+    }
+
+    /**
+     * This method writes every host with queued urls or a politeness delay still running:
+     * the host, its next fetch time, and its urls in the order they would be polled.
+     * Nothing but release() may change the frontier meanwhile
+     */
+    public void checkpoint(DataOutputStream out) throws IOException {
+        long now = System.currentTimeMillis();
+        for (HostQueue hostQueue : hosts.values()) {
+            synchronized (hostQueue) {
+                if (hostQueue.isEmpty() && hostQueue.nextFetch <= now) {
+                    continue;
+                }
+                out.writeBoolean(true);
+                out.writeUTF(hostQueue.host);
+                out.writeLong(hostQueue.nextFetch);
+                hostQueue.writeTo(out);
+            }
+        }
+        out.writeBoolean(false);
+    }
+
+    /**
+     * This method reads back the hosts written by checkpoint()
+     */
+    public void restore(DataInputStream in) throws IOException {
+        while (in.readBoolean()) {
+            String host = in.readUTF();
+            long nextFetch = in.readLong();
+            HostQueue hostQueue = hostQueue(host);
+            synchronized (hostQueue) {
+                hostQueue.nextFetch = Math.max(hostQueue.nextFetch, nextFetch);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int depth = in.readInt();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                try {
+                    add(new MyURI(new URI(new String(bytes, StandardCharsets.UTF_8)), depth));
+                } catch (URISyntaxException e) {
+                    // was valid when written
+                }
+            }
+        }
+    }
+
+    /**
+     * This method drops the hosts that have nothing queued and may be fetched again already,
+     * a url of such a host added later starts a new queue without breaking its politeness
+     */
+    private void evictIdle(long now) {
+        for (HostQueue hostQueue : hosts.values()) {
+            synchronized (hostQueue) {
+                if (hostQueue.state == IDLE && hostQueue.isEmpty() && hostQueue.nextFetch <= now) {
+                    hostQueue.evicted = true;
+                    hosts.remove(hostQueue.host, hostQueue);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method puts a non-empty host into the ready or the waiting queue, the caller holds its lock
+     */
+    private void schedule(HostQueue hostQueue, long now) {
+        if (hostQueue.nextFetch <= now) {
+            hostQueue.state = READY;
+            ready[hostQueue.headDepth()].offer(hostQueue);
+        }
+        else {
+            hostQueue.state = WAITING;
+            waiting.offer(hostQueue);
+        }
+    }
+
+    /**
+     * This class holds the urls of one host, one FIFO per depth, and its spill file.
+     * All the methods are called with the lock of the object held
+     */
+    private class HostQueue implements Delayed {
+        private final String host;
+        private final ArrayDeque<MyURI>[] queues;
+        private int state = IDLE;
+        private long nextFetch = 0;
+        private int queued = 0;
+        private boolean evicted = false;
+        private File spillFile = null;
+        private SpillWriter spillWriter = null;
+        private long spillWritten = 0;
+        private long spillRead = 0;
+        private int spillCount = 0;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        HostQueue(String host) {
+            this.host = host;
+            queues = new ArrayDeque[maxDepth + 1];
+        }
+
+        void add(MyURI url) {
+            int depth = Math.max(0, Math.min(maxDepth, url.getDepth()));
+            // once a host has spilled, keep appending to the file so that its order is kept
+            if (spillWritten > spillRead || inMemory.get() >= maxInMemory) {
+                if (spill(url)) {
+                    return;
+                }
+            }
+            if (queues[depth] == null) {
+                queues[depth] = new ArrayDeque<MyURI>();
+            }
+            queues[depth].add(url);
+            queued++;
+            inMemory.incrementAndGet();
+        }
+
+        MyURI poll() {
+            if (queued == 0) {
+                unspill();
+            }
+            for (ArrayDeque<MyURI> queue : queues) {
+                if (queue != null && !queue.isEmpty()) {
+                    queued--;
+                    inMemory.decrementAndGet();
+                    return queue.poll();
+                }
+            }
+            return null;
+        }
+
+        boolean isEmpty() {
+            return queued == 0 && spillWritten == spillRead;
+        }
+
+        /**
+         * This method writes the number of urls, then each url as depth, length and UTF-8 bytes,
+         * the ones in memory first and then the unread part of the spill file
+         */
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(queued + spillCount);
+            for (ArrayDeque<MyURI> queue : queues) {
+                if (queue == null) {
+                    continue;
+                }
+                for (MyURI url : queue) {
+                    byte[] bytes = url.getURI().toString().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(url.getDepth());
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            if (spillWritten == spillRead) {
+                return;
+            }
+            // the spill file has the same record layout
+            InputStream in = openSpill();
+            try {
+                byte[] buffer = new byte[1 << 16];
+                long left = spillWritten - spillRead;
+                while (left > 0) {
+                    int count = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                    if (count == -1) {
+                        throw new EOFException("Spill file of " + host + " is shorter than written");
+                    }
+                    out.write(buffer, 0, count);
+                    left -= count;
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * This method returns the depth of the url poll() will return next
+         */
+        int headDepth() {
+            if (queued == 0) {
+                unspill();
+            }
+            for (int depth = 0; depth <= maxDepth; depth++) {
+                if (queues[depth] != null && !queues[depth].isEmpty()) {
+                    return depth;
+                }
+            }
+            return maxDepth;
+        }
+
+        /**
+         * This method appends the url to the spill file, a record is depth, length and the url in UTF-8
+         */
+        private boolean spill(MyURI url) {
+            byte[] bytes = url.getURI().toString().getBytes(StandardCharsets.UTF_8);
+            if (spillFile == null) {
+                spillFile = new File(spillPath + "host_" + spillID.incrementAndGet() + ".spill");
+                spillWriter = new SpillWriter(spillFile);
+            }
+            try {
+                spillWriter.write(url.getDepth(), bytes);
+            } catch (IOException e) {
+                System.out.println("Spill urls of " + host + " not successfully");
+                if (spillWritten == spillRead) {
+                    // nothing to read back, do not keep the file open
+                    spillWriter.close();
+                }
+                return false;
+            }
+            spillWritten += 8 + bytes.length;
+            spillCount++;
+            return true;
+        }
+
+        /**
+         * This method reads the next batch of spilled urls back into memory
+         */
+        private void unspill() {
+            if (spillWritten == spillRead) {
+                return;
+            }
+            try {
+                DataInputStream in = new DataInputStream(openSpill());
+                for (int i = 0; i < SPILL_BATCH && spillRead < spillWritten; i++) {
+                    int depth = in.readInt();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    spillRead += 8 + bytes.length;
+                    spillCount--;
+                    int index = Math.max(0, Math.min(maxDepth, depth));
+                    if (queues[index] == null) {
+                        queues[index] = new ArrayDeque<MyURI>();
+                    }
+                    try {
+                        queues[index].add(new MyURI(new URI(new String(bytes, StandardCharsets.UTF_8)), depth));
+                        queued++;
+                        inMemory.incrementAndGet();
+                    } catch (URISyntaxException e) {
+                        // was valid when spilled
+                        size.decrementAndGet();
+                    }
+                }
+                in.close();
+            } catch (IOException e) {
+                System.out.println("Read spilled urls of " + host + " not successfully");
+                // drop what cannot be read rather than retrying it forever
+                size.addAndGet(-spillCount);
+                spillRead = spillWritten;
+            }
+            if (spillRead == spillWritten) {
+                spillWriter.close();
+                spillWriter = null;
+                spillFile.delete();
+                spillFile = null;
+                spillRead = 0;
+                spillWritten = 0;
+                spillCount = 0;
+            }
+        }
+
+        /**
+         * This method flushes what was spilled so far and opens the spill file at the first unread record
+         */
+        private InputStream openSpill() throws IOException {
+            spillWriter.flush();
+            FileInputStream in = new FileInputStream(spillFile);
+            in.getChannel().position(spillRead);
+            return new BufferedInputStream(in);
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(nextFetch - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        public int compareTo(Delayed other) {
+            return Long.compare(nextFetch, ((HostQueue) other).nextFetch);
+        }
+    }
+
+    /**
+     * This class appends to one spill file, it is opened when written to and may be closed
+     * by another host's spill at any time to stay under MAX_OPEN_SPILLS, it only locks itself
+     */
+    private class SpillWriter {
+        private final File file;
+        private DataOutputStream out = null;
+
+        SpillWriter(File file) {
+            this.file = file;
+        }
+
+        void write(int depth, byte[] bytes) throws IOException {
+            synchronized (this) {
+                if (out == null) {
+                    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+                }
+                out.writeInt(depth);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            // outside of the lock of this writer, so two writers never wait for each other
+            SpillWriter eldest = null;
+            synchronized (openSpills) {
+                openSpills.put(this, Boolean.TRUE);
+                if (openSpills.size() > MAX_OPEN_SPILLS) {
+                    eldest = openSpills.keySet().iterator().next();
+                    openSpills.remove(eldest);
+                }
+            }
+            if (eldest != null) {
+                eldest.close();
+            }
+        }
+
+        synchronized void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        /**
+         * This method closes the file, what was written is kept and the next write reopens it
+         */
+        void close() {
+            synchronized (openSpills) {
+                openSpills.remove(this);
+            }
+            synchronized (this) {
+                if (out == null) {
+                    return;
+                }
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    System.out.println("Close spill file " + file.getName() + " not successfully");
+                }
+                out = null;
+            }
+        }
+    }
+}
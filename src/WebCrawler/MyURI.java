@@ -0,0 +1,49 @@
+package WebCrawler;
+
+import java.net.URI;
+
+/**
+ * This class adds depth value to URI class, and the 64-bit fingerprint of the url, computed
+ * once, which the url-seen store, the revisit log and the internal hashmap are keyed by.
+ * Two MyURIs are equal if their urls are, whatever their depth
+ */
+class MyURI {
+    private URI url;
+    private long fingerprint;
+    private int depth;
+
+    public MyURI(URI url, int depth) {
+        this(url, UrlSeenStore.fingerprint(url.toString()), depth);
+    }
+
+    /**
+     * fingerprint must be UrlSeenStore.fingerprint(url.toString())
+     */
+    MyURI(URI url, long fingerprint, int depth) {
+        this.url = url;
+        this.fingerprint = fingerprint;
+        this.depth = depth;
+    }
+
+    public URI getURI() {
+        return url;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MyURI && ((MyURI) o).fingerprint == fingerprint;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+}
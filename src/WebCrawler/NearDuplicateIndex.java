@@ -0,0 +1,281 @@
+package WebCrawler;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The SimHash of every saved page, to find pages whose content is almost the same as one
+ * saved before (mirrors, the same article under another url, pages that only differ in a
+ * date or a counter).
+ *
+ * The SimHash of a page is 64 bits, each bit is the sign of the sum of that bit over the
+ * hashes of all its 3-word shingles, so pages sharing most shingles differ in few bits.
+ * Two pages are near-duplicates when their SimHashes differ in at most maxDistance bits.
+ * The 64 bits are split into maxDistance + 1 bands, and two such SimHashes are the same in
+ * at least one band, so only the pages in the same bucket of some band are compared.
+ *
+ * A page never matches an earlier version of itself (the same url fingerprint), so a revisited
+ * page that changed a little is saved again.
+ *
+ * Every band is a hash table of chains over the entry numbers: heads[band][bucket] is the
+ * last entry in the bucket and next[band][entry] the one before it, -1 ends a chain.
+ * findOrAdd() adds an entry at once, so other threads match it while its page is being saved,
+ * then saved() appends it (SimHash, url fingerprint, pageID) to simhash.log under dirPath,
+ * or discard() drops it if the page could not be saved. The log is read back when it is opened again.
+ * A checkpoint of the crawler keeps logLength(), truncate() goes back to it.
+ */
+class NearDuplicateIndex {
+    private static final String LOG_NAME = "simhash.log";
+    private static final int SHINGLE = 3;
+
+    private final String dirPath;
+    private final int maxDistance;
+    private final int bands;
+    private final int[] bandShift;
+    private final long[] bandMask;
+    private long[] hashes = new long[1024];
+    private long[] urls = new long[1024];
+    private String[] pageIDs = new String[1024];
+    private int[][] next;
+    private int[][] heads;
+    private int size = 0;
+    private DataOutputStream log;
+    // pageID -> entry added by findOrAdd() whose page is not saved yet
+    private final HashMap<String, Integer> pending = new HashMap<String, Integer>();
+
+    /**
+     * maxDistance is the most bits two near-duplicate SimHashes differ in, from 0 to 7
+     */
+    public NearDuplicateIndex(String dirPath, int maxDistance) throws IOException {
+        if (!dirPath.endsWith(File.separator)) {
+            dirPath += File.separator;
+        }
+        this.dirPath = dirPath;
+        this.maxDistance = maxDistance;
+        bands = maxDistance + 1;
+        bandShift = new int[bands];
+        bandMask = new long[bands];
+        int shift = 0;
+        for (int i = 0; i < bands; i++) {
+            // the first 64 % bands bands take one more bit
+            int width = 64 / bands + (i < 64 % bands ? 1 : 0);
+            bandShift[i] = shift;
+            bandMask[i] = width == 64 ? -1L : (1L << width) - 1;
+            shift += width;
+        }
+        next = new int[bands][hashes.length];
+        heads = new int[bands][hashes.length * 2];
+        for (int[] head : heads) {
+            Arrays.fill(head, -1);
+        }
+        File dir = new File(dirPath);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File file = new File(dirPath + LOG_NAME);
+        long valid = 0;
+        if (file.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                while (true) {
+                    long hash = in.readLong();
+                    long url = in.readLong();
+                    String pageID = in.readUTF();
+                    add(hash, url, pageID);
+                    valid += 8 + 8 + 2 + pageID.getBytes("UTF-8").length;
+                }
+            } catch (IOException e) {
+                // end of the log, or an entry cut by a crash
+            } finally {
+                in.close();
+            }
+        }
+        // drop a broken last entry, so new entries are appended after the valid ones
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(valid);
+        raf.close();
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    /**
+     * This method computes the SimHash of a page's text
+     */
+    static long simHash(String content) {
+        int[] weights = new int[64];
+        // hashes of the last SHINGLE words, the shingle hash combines them
+        long[] window = new long[SHINGLE];
+        int words = 0;
+        int length = content.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(content.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            long word = 0xcbf29ce484222325L;
+            while (i < length && Character.isLetterOrDigit(content.charAt(i))) {
+                word ^= Character.toLowerCase(content.charAt(i));
+                word *= 0x100000001b3L;
+                i++;
+            }
+            window[words % SHINGLE] = word;
+            words++;
+            if (words >= SHINGLE) {
+                long shingle = 0;
+                for (int k = 0; k < SHINGLE; k++) {
+                    shingle = shingle * 0x9e3779b97f4a7c15L + window[(words + k) % SHINGLE];
+                }
+                addFeature(weights, UrlSeenStore.mix(shingle));
+            }
+        }
+        // a page shorter than a shingle is its words
+        for (int k = 0; k < words && words < SHINGLE; k++) {
+            addFeature(weights, UrlSeenStore.mix(window[k]));
+        }
+        long hash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                hash |= 1L << bit;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * This method returns the pageID of a page of another url within maxDistance bits of hash,
+     * or records the page and returns null if there is none, both under one lock, so two
+     * threads never save the same near-duplicate. A page recorded must be given to saved() or discard()
+     */
+    public synchronized String findOrAdd(long hash, long url, String pageID) {
+        String original = find(hash, url);
+        if (original == null) {
+            pending.put(pageID, add(hash, url, pageID));
+        }
+        return original;
+    }
+
+    /**
+     * This method logs the entry of pageID recorded by findOrAdd(), once the page is saved
+     */
+    public synchronized void saved(String pageID) {
+        Integer entry = pending.remove(pageID);
+        if (entry == null) {
+            return;
+        }
+        try {
+            log.writeLong(hashes[entry]);
+            log.writeLong(urls[entry]);
+            log.writeUTF(pageID);
+        } catch (IOException e) {
+            System.out.println("Write SimHash of " + pageID + " not successfully");
+        }
+    }
+
+    /**
+     * This method drops the entry of pageID recorded by findOrAdd(), the page could not be saved
+     */
+    public synchronized void discard(String pageID) {
+        Integer entry = pending.remove(pageID);
+        if (entry != null) {
+            // stays in the chains, but find() skips it
+            pageIDs[entry] = null;
+        }
+    }
+
+    private String find(long hash, long url) {
+        for (int band = 0; band < bands; band++) {
+            long key = (hash >>> bandShift[band]) & bandMask[band];
+            int entry = heads[band][bucket(key, heads[band].length)];
+            while (entry != -1) {
+                if (pageIDs[entry] != null && urls[entry] != url && ((hashes[entry] >>> bandShift[band]) & bandMask[band]) == key
+                        && Long.bitCount(hashes[entry] ^ hash) <= maxDistance) {
+                    return pageIDs[entry];
+                }
+                entry = next[band][entry];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method adds an entry to the tables and returns its number
+     */
+    private int add(long hash, long url, String pageID) {
+        if (size == hashes.length) {
+            grow();
+        }
+        hashes[size] = hash;
+        urls[size] = url;
+        pageIDs[size] = pageID;
+        link(size);
+        return size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * This method writes the log to disk and returns its length
+     */
+    public synchronized long logLength() throws IOException {
+        log.flush();
+        return new File(dirPath + LOG_NAME).length();
+    }
+
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+
+    /**
+     * This method cuts the log under dirPath back to length, before it is opened
+     */
+    static void truncate(String dirPath, long length) throws IOException {
+        File file = new File(dirPath, LOG_NAME);
+        if (file.exists() && file.length() > length) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(length);
+            raf.close();
+        }
+    }
+
+    private void link(int entry) {
+        for (int band = 0; band < bands; band++) {
+            long key = (hashes[entry] >>> bandShift[band]) & bandMask[band];
+            int bucket = bucket(key, heads[band].length);
+            next[band][entry] = heads[band][bucket];
+            heads[band][bucket] = entry;
+        }
+    }
+
+    /**
+     * This method doubles the entry arrays and the bucket tables, and links the entries again
+     */
+    private void grow() {
+        int capacity = hashes.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        urls = Arrays.copyOf(urls, capacity);
+        pageIDs = Arrays.copyOf(pageIDs, capacity);
+        next = new int[bands][capacity];
+        heads = new int[bands][capacity * 2];
+        for (int[] head : heads) {
+            Arrays.fill(head, -1);
+        }
+        for (int entry = 0; entry < size; entry++) {
+            link(entry);
+        }
+    }
+
+    private static int bucket(long key, int tableSize) {
+        return (int) UrlSeenStore.mix(key) & (tableSize - 1);
+    }
+
+    private static void addFeature(int[] weights, long feature) {
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += ((feature >>> bit) & 1) == 1 ? 1 : -1;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package WebCrawler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer for a downloaded body, with the byte level checks the crawler
+ * makes before decoding anything: the charset, and the language of an html page.
+ * Both only look for ASCII markup, which is the same in every charset a page can
+ * declare itself in (except UTF-16, which has a BOM).
+ */
+class PageBuffer {
+    // the <meta> charset declaration must be within this many bytes, as in the html spec
+    private static final int META_PROBE = 1024;
+
+    private byte[] bytes;
+    private int length = 0;
+
+    public PageBuffer(int initialCapacity) {
+        bytes = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * This method appends at most limit - length() bytes of buffer, and returns false if
+     * something had to be left out
+     */
+    public boolean append(ByteBuffer buffer, int limit) {
+        int count = Math.min(buffer.remaining(), limit - length);
+        if (length + count > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.min(limit, Math.max(length + count, bytes.length * 2)));
+        }
+        buffer.get(bytes, length, count);
+        length += count;
+        return !buffer.hasRemaining();
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * This method returns a 64-bit hash of the bytes, to tell whether a page has changed
+     */
+    public long contentHash() {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash ^= bytes[i] & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return UrlSeenStore.mix(hash);
+    }
+
+    /**
+     * This method returns the charset of the body: a byte order mark, then the charset in
+     * the Content-Type header, then a <meta> declaration, and UTF-8 if there is none
+     */
+    public Charset charset(String contentType) {
+        if (length >= 3 && (bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB && (bytes[2] & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (length >= 2 && (bytes[0] & 0xFF) == 0xFE && (bytes[1] & 0xFF) == 0xFF) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (length >= 2 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xFE) {
+            return StandardCharsets.UTF_16LE;
+        }
+        Charset charset = null;
+        if (contentType != null) {
+            charset = charsetAfter(contentType, contentType.toLowerCase().indexOf("charset="));
+        }
+        if (charset == null) {
+            charset = metaCharset();
+        }
+        return charset == null ? StandardCharsets.UTF_8 : charset;
+    }
+
+    /**
+     * This method looks at the first lang="xx" attribute within the first probe bytes:
+     * returns 1 if it is English, 0 if it is another language, and -1 if it is not known yet
+     * (no attribute, or it is cut by the end of the buffer)
+     */
+    public int isEnglish(int probe) {
+        int end = Math.min(length, probe);
+        int index = indexOf("lang=\"", 0, end);
+        if (index == -1 || index + 8 > length) {
+            return -1;
+        }
+        index += 6;
+        return bytes[index] == 'e' && bytes[index + 1] == 'n' ? 1 : 0;
+    }
+
+    /**
+     * This method returns the position of an ASCII pattern (ignoring case) in [from, to), or -1
+     */
+    int indexOf(String pattern, int from, int to) {
+        to = Math.min(to, length) - pattern.length();
+        for (int i = Math.max(0, from); i <= to; i++) {
+            int j = 0;
+            while (j < pattern.length() && lower(bytes[i + j]) == pattern.charAt(j)) {
+                j++;
+            }
+            if (j == pattern.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This method finds charset= in a <meta> tag within the first META_PROBE bytes
+     */
+    private Charset metaCharset() {
+        int end = Math.min(length, META_PROBE);
+        int index = 0;
+        while ((index = indexOf("<meta", index, end)) != -1) {
+            int close = indexOf(">", index, length);
+            if (close == -1) {
+                return null;
+            }
+            int charset = indexOf("charset=", index, close);
+            if (charset != -1) {
+                return charsetAfter(new String(bytes, charset, close - charset, StandardCharsets.ISO_8859_1), 0);
+            }
+            index = close;
+        }
+        return null;
+    }
+
+    /**
+     * This method reads the charset name after "charset=" at index of text
+     */
+    private static Charset charsetAfter(String text, int index) {
+        if (index == -1) {
+            return null;
+        }
+        int begin = index + 8;
+        while (begin < text.length() && (text.charAt(begin) == '"' || text.charAt(begin) == '\''
+                || text.charAt(begin) == ' ')) {
+            begin++;
+        }
+        int end = begin;
+        while (end < text.length() && " \"';>/".indexOf(text.charAt(end)) == -1) {
+            end++;
+        }
+        try {
+            return Charset.forName(text.substring(begin, end));
+        } catch (RuntimeException e) {
+            // unknown or illegal charset name
+            return null;
+        }
+    }
+
+    private static char lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (char) (b + 32) : (char) (b & 0xFF);
+    }
+}
@@ -0,0 +1,288 @@
+package WebCrawler;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What the crawler remembers about every page it has downloaded, so that later rounds
+ * can ask the server whether it changed and come back to it at the right time.
+ *
+ * For each url: its ETag and Last-Modified validators, a hash of its content, when it was
+ * last fetched, and its revisit interval. The interval starts at INITIAL_INTERVAL, is halved
+ * every time the page is found changed and grows by half every time it is not, within
+ * [MIN_INTERVAL, MAX_INTERVAL], so it follows the page's own change rate. A revisit that
+ * brings no page (robots.txt denies it, an error status, a page no longer in English) also
+ * counts as a visit and grows the interval, and a url which answers a client error
+ * MAX_FAILURES times in a row is forgotten.
+ *
+ * Records are appended to validators.log under dirPath, a later record of a url replaces the
+ * earlier one when the log is read (a record with an empty url removes it), and the log is rewritten with only the latest ones when
+ * it is opened. A checkpoint of the crawler keeps logLength(), truncate() goes back to it.
+ */
+class RevisitScheduler {
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long MIN_INTERVAL = HOUR;
+    private static final long INITIAL_INTERVAL = 24 * HOUR;
+    private static final long MAX_INTERVAL = 30 * 24 * HOUR;
+    private static final int MAX_FAILURES = 3;
+    private static final String LOG_NAME = "validators.log";
+    // writeUTF takes at most 65535 bytes, which 16384 chars always fit in
+    private static final int MAX_LENGTH = 16384;
+
+    private final String dirPath;
+    private final ConcurrentHashMap<Long, Record> records = new ConcurrentHashMap<Long, Record>();
+    private DataOutputStream log;
+
+    /**
+     * This class is what is known about one url
+     */
+    static class Record {
+        final String url;
+        final int depth;
+        final String etag;
+        final String lastModified;
+        final long contentHash;
+        final long lastFetch;
+        final long interval;
+        final int failures;     // client errors in a row
+
+        Record(String url, int depth, String etag, String lastModified, long contentHash,
+               long lastFetch, long interval, int failures) {
+            this.url = url;
+            this.depth = depth;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+            this.lastFetch = lastFetch;
+            this.interval = interval;
+            this.failures = failures;
+        }
+
+        /**
+         * This method returns the headers of a conditional GET, or null if there are no validators
+         */
+        String[] conditionalHeaders() {
+            if (etag.length() > 0 && lastModified.length() > 0) {
+                return new String[]{"If-None-Match", etag, "If-Modified-Since", lastModified};
+            }
+            if (etag.length() > 0) {
+                return new String[]{"If-None-Match", etag};
+            }
+            if (lastModified.length() > 0) {
+                return new String[]{"If-Modified-Since", lastModified};
+            }
+            return null;
+        }
+
+        long nextVisit() {
+            return lastFetch + interval;
+        }
+    }
+
+    public RevisitScheduler(String dirPath) throws IOException {
+        if (!dirPath.endsWith(File.separator)) {
+            dirPath += File.separator;
+        }
+        this.dirPath = dirPath;
+        File dir = new File(dirPath);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File file = new File(dirPath + LOG_NAME);
+        if (file.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                while (true) {
+                    long fingerprint = in.readLong();
+                    Record record = read(in);
+                    if (record.url.isEmpty()) {
+                        records.remove(fingerprint);
+                    }
+                    else {
+                        records.put(fingerprint, record);
+                    }
+                }
+            } catch (IOException e) {
+                // end of the log, or a record cut by a crash
+            } finally {
+                in.close();
+            }
+        }
+        // start from a clean log, so nothing is appended after a broken record
+        rewrite();
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    /**
+     * This method returns the record of url, or null if it was never downloaded
+     */
+    public Record get(long fingerprint) {
+        return records.get(fingerprint);
+    }
+
+    /**
+     * This method records that the page was fetched again and the server answered 304
+     */
+    public void notModified(long fingerprint, Record record) {
+        put(fingerprint, new Record(record.url, record.depth, record.etag, record.lastModified,
+                record.contentHash, System.currentTimeMillis(), longer(record.interval), 0));
+    }
+
+    /**
+     * This method records a revisit that brought no page, the page is asked for again after a
+     * longer interval, or never again after MAX_FAILURES client errors in a row
+     */
+    public void failed(long fingerprint, Record record, int status) {
+        // 408 and 429 only ask to come back later
+        boolean clientError = status >= 400 && status < 500 && status != 408 && status != 429;
+        int failures = clientError ? record.failures + 1 : record.failures;
+        if (failures >= MAX_FAILURES) {
+            remove(fingerprint);
+            return;
+        }
+        put(fingerprint, new Record(record.url, record.depth, record.etag, record.lastModified,
+                record.contentHash, System.currentTimeMillis(), longer(record.interval), failures));
+    }
+
+    /**
+     * This method records a downloaded page, and returns false if its content is the same as
+     * last time, so it does not need to be processed again
+     */
+    public boolean downloaded(long fingerprint, MyURI url, String etag, String lastModified, long contentHash) {
+        String strUrl = url.getURI().toString();
+        if (strUrl.length() > MAX_LENGTH) {
+            // too long to be written, and not worth remembering
+            return true;
+        }
+        // validators that do not fit are dropped, the content hash still works
+        if (etag == null || etag.length() > MAX_LENGTH) {
+            etag = "";
+        }
+        if (lastModified == null || lastModified.length() > MAX_LENGTH) {
+            lastModified = "";
+        }
+        Record old = records.get(fingerprint);
+        boolean changed = old == null || old.contentHash != contentHash;
+        long interval = old == null ? INITIAL_INTERVAL : (changed ? shorter(old.interval) : longer(old.interval));
+        put(fingerprint, new Record(strUrl, url.getDepth(), etag, lastModified, contentHash,
+                System.currentTimeMillis(), interval, 0));
+        return changed;
+    }
+
+    /**
+     * This method returns at most max records whose revisit time has come, earliest first
+     */
+    public List<Record> due(long now, int max) {
+        List<Record> due = new ArrayList<Record>();
+        for (Record record : records.values()) {
+            if (record.nextVisit() <= now) {
+                due.add(record);
+            }
+        }
+        due.sort(new Comparator<Record>() {
+            public int compare(Record a, Record b) {
+                return Long.compare(a.nextVisit(), b.nextVisit());
+            }
+        });
+        return due.size() > max ? new ArrayList<Record>(due.subList(0, max)) : due;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public synchronized void flush() throws IOException {
+        log.flush();
+    }
+
+    /**
+     * This method writes the log to disk and returns its length
+     */
+    public synchronized long logLength() throws IOException {
+        log.flush();
+        return new File(dirPath + LOG_NAME).length();
+    }
+
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+
+    /**
+     * This method cuts the log under dirPath back to length, before it is opened
+     */
+    static void truncate(String dirPath, long length) throws IOException {
+        File file = new File(dirPath, LOG_NAME);
+        if (file.exists() && file.length() > length) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(length);
+            raf.close();
+        }
+    }
+
+    /**
+     * This method rewrites the log with the latest record of each url
+     */
+    private void rewrite() throws IOException {
+        File file = new File(dirPath + LOG_NAME);
+        File tmp = new File(dirPath + LOG_NAME + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        for (Map.Entry<Long, Record> entry : records.entrySet()) {
+            out.writeLong(entry.getKey());
+            write(out, entry.getValue());
+        }
+        out.close();
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Rename " + tmp + " not successfully");
+        }
+    }
+
+    private synchronized void remove(long fingerprint) {
+        if (records.remove(fingerprint) == null) {
+            return;
+        }
+        try {
+            log.writeLong(fingerprint);
+            write(log, new Record("", 0, "", "", 0, 0, 0, 0));
+        } catch (IOException e) {
+            System.out.println("Remove validators not successfully");
+        }
+    }
+
+    private synchronized void put(long fingerprint, Record record) {
+        records.put(fingerprint, record);
+        try {
+            log.writeLong(fingerprint);
+            write(log, record);
+        } catch (IOException e) {
+            System.out.println("Write validators of " + record.url + " not successfully");
+        }
+    }
+
+    private static void write(DataOutputStream out, Record record) throws IOException {
+        out.writeUTF(record.url);
+        out.writeInt(record.depth);
+        out.writeUTF(record.etag);
+        out.writeUTF(record.lastModified);
+        out.writeLong(record.contentHash);
+        out.writeLong(record.lastFetch);
+        out.writeLong(record.interval);
+        out.writeInt(record.failures);
+    }
+
+    private static Record read(DataInputStream in) throws IOException {
+        return new Record(in.readUTF(), in.readInt(), in.readUTF(), in.readUTF(), in.readLong(),
+                in.readLong(), in.readLong(), in.readInt());
+    }
+
+    private static long shorter(long interval) {
+        return Math.max(MIN_INTERVAL, interval / 2);
+    }
+
+    private static long longer(long interval) {
+        return Math.min(MAX_INTERVAL, interval + interval / 2);
+    }
+}
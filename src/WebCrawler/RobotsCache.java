@@ -0,0 +1,163 @@
+package WebCrawler;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The robots.txt rules of every host, fetched once and kept for a while.
+ *
+ * A robots.txt that was read is kept for TTL, a missing one (4xx) means no rules and is
+ * kept as long, and an unreachable host or a 5xx means everything is disallowed for
+ * the shorter NEGATIVE_TTL, after which the file is asked again.
+ * At most maxHosts hosts are kept, the least recently used one is dropped first.
+ * While a host's file is being fetched, the other checks for that host wait for it
+ * instead of fetching it again.
+ */
+class RobotsCache {
+    private static final long TTL = 24 * 60 * 60 * 1000L;
+    private static final long NEGATIVE_TTL = 10 * 60 * 1000L;
+    // only the first 500 KB of a robots.txt file are read
+    private static final int MAX_LENGTH = 500 * 1024;
+
+    private final Fetcher fetcher;
+    private final String userAgent;
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * This interface receives the result of a check
+     */
+    interface Callback {
+        void checked(boolean allowed);
+    }
+
+    public RobotsCache(Fetcher fetcher, String userAgent, final int maxHosts) {
+        this.fetcher = fetcher;
+        this.userAgent = userAgent;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                // never drop a host whose file is being fetched, its callbacks are in there
+                return size() > maxHosts && eldest.getValue().rules != null;
+            }
+        };
+    }
+
+    /**
+     * This method calls callback with whether the page may be fetched, right away if the
+     * rules of its host are known, otherwise once robots.txt has been fetched
+     */
+    public void check(MyURI myUrl, Callback callback) {
+        URI url = myUrl.getURI();
+        final String key = key(url);
+        if (key == null) {
+            callback.checked(false);
+            return;
+        }
+        String path = url.getRawPath();
+        if (url.getRawQuery() != null) {
+            path += "?" + url.getRawQuery();
+        }
+        RobotsRules rules = null;
+        boolean fetch = false;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null || (entry.rules != null && entry.expires < System.currentTimeMillis())) {
+                entry = new Entry();
+                entries.put(key, entry);
+                fetch = true;
+            }
+            if (entry.rules == null) {
+                entry.waiting.add(new Waiting(path, callback));
+            }
+            else {
+                rules = entry.rules;
+            }
+        }
+        if (rules != null) {
+            callback.checked(rules.isAllowed(path));
+            return;
+        }
+        if (fetch) {
+            URI robots;
+            try {
+                robots = new URI(key + "/robots.txt");
+            } catch (URISyntaxException e) {
+                // something weird is happening, so don't trust it
+                loaded(key, RobotsRules.DISALLOW_ALL, NEGATIVE_TTL);
+                return;
+            }
+            fetcher.fetch(robots, MAX_LENGTH, false, new Fetcher.Listener() {
+                public void completed(Fetcher.Result result) {
+                    if (result.status == -1 || result.status >= 500) {
+                        loaded(key, RobotsRules.DISALLOW_ALL, NEGATIVE_TTL);
+                    }
+                    else if (result.status >= 400) {
+                        // if there is no robots.txt file, it is OK to search
+                        loaded(key, RobotsRules.ALLOW_ALL, TTL);
+                    }
+                    else {
+                        loaded(key, RobotsRules.parse(result.text(), userAgent), TTL);
+                    }
+                }
+            });
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * This method stores the rules of a host and answers the checks waiting for them
+     */
+    private void loaded(String key, RobotsRules rules, long ttl) {
+        List<Waiting> waiting;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            entry.rules = rules;
+            entry.expires = System.currentTimeMillis() + ttl;
+            waiting = entry.waiting;
+            entry.waiting = new ArrayList<Waiting>(0);
+        }
+        for (Waiting check : waiting) {
+            check.callback.checked(rules.isAllowed(check.path));
+        }
+    }
+
+    /**
+     * This method returns "scheme://host:port" of a url, robots.txt is per scheme, host and port
+     */
+    private static String key(URI url) {
+        String host = url.getHost();
+        if (host == null) {
+            return null;
+        }
+        String scheme = "https".equalsIgnoreCase(url.getScheme()) ? "https" : "http";
+        return scheme + "://" + host.toLowerCase() + (url.getPort() == -1 ? "" : ":" + url.getPort());
+    }
+
+    private static class Entry {
+        private RobotsRules rules = null;
+        private long expires = 0;
+        private List<Waiting> waiting = new ArrayList<Waiting>(1);
+    }
+
+    private static class Waiting {
+        private String path;
+        private Callback callback;
+
+        Waiting(String path, Callback callback) {
+            this.path = path;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package WebCrawler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parsed robots.txt rules that apply to one user agent.
+ *
+ * The group whose User-agent is the longest one contained in our agent name is used,
+ * or the '*' group if none matches. Within the group the longest matching Allow or
+ * Disallow path wins, and Allow wins a tie, as most crawlers do.
+ * Plain paths are kept in a trie, so a check is one walk down the path.
+ * Paths with '*' or a trailing '$' are rare and are matched one by one.
+ */
+class RobotsRules {
+    static final RobotsRules ALLOW_ALL = new RobotsRules();
+    static final RobotsRules DISALLOW_ALL = new RobotsRules();
+    private static final byte ALLOW = 1;
+    private static final byte DISALLOW = 2;
+
+    static {
+        DISALLOW_ALL.root.rule = DISALLOW;
+    }
+
+    private final Node root = new Node();
+    private final List<String> patterns = new ArrayList<String>();
+    private final List<Boolean> patternAllows = new ArrayList<Boolean>();
+
+    private RobotsRules() {
+    }
+
+    /**
+     * This method parses the content of robots.txt for userAgent, e.g. "WSE_Project"
+     */
+    static RobotsRules parse(String content, String userAgent) {
+        String agent = userAgent.toLowerCase();
+        // first find the group to use
+        boolean inRules = false;
+        int groupIndex = -1;
+        int bestGroup = -1;
+        int bestLength = -1;
+        String[] lines = content.split("\r\n|\r|\n");
+        for (String line : lines) {
+            String[] field = field(line);
+            if (field == null) {
+                continue;
+            }
+            if (field[0].equals("user-agent")) {
+                // consecutive user-agent lines share one group
+                if (inRules || groupIndex == -1) {
+                    groupIndex++;
+                    inRules = false;
+                }
+                String name = field[1].toLowerCase();
+                int length = name.equals("*") ? 0 : (agent.contains(name) && name.length() > 0 ? name.length() : -1);
+                if (length > bestLength) {
+                    bestLength = length;
+                    bestGroup = groupIndex;
+                }
+            }
+            else if (field[0].equals("allow") || field[0].equals("disallow")) {
+                inRules = true;
+            }
+        }
+        if (bestGroup == -1) {
+            return ALLOW_ALL;
+        }
+        RobotsRules rules = new RobotsRules();
+        // then read the rules of that group
+        inRules = false;
+        groupIndex = -1;
+        for (String line : lines) {
+            String[] field = field(line);
+            if (field == null) {
+                continue;
+            }
+            if (field[0].equals("user-agent")) {
+                if (inRules || groupIndex == -1) {
+                    groupIndex++;
+                    inRules = false;
+                }
+            }
+            else if (field[0].equals("allow") || field[0].equals("disallow")) {
+                inRules = true;
+                // an empty Disallow allows everything, which is the default anyway
+                if (groupIndex == bestGroup && field[1].length() > 0) {
+                    rules.add(field[1], field[0].equals("allow"));
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * This method returns whether path (with its query) may be fetched
+     */
+    boolean isAllowed(String path) {
+        if (path == null || path.length() == 0) {
+            path = "/";
+        }
+        // longest plain rule on the way down the trie
+        int bestLength = root.rule == 0 ? -1 : 0;
+        boolean allowed = root.rule != DISALLOW;
+        Node node = root;
+        for (int i = 0; i < path.length() && node != null; i++) {
+            node = node.child(path.charAt(i));
+            if (node != null && node.rule != 0) {
+                bestLength = i + 1;
+                allowed = node.rule == ALLOW;
+            }
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+            String pattern = patterns.get(i);
+            if (pattern.length() >= bestLength && matches(pattern, 0, path, 0)) {
+                if (pattern.length() > bestLength || patternAllows.get(i)) {
+                    bestLength = pattern.length();
+                    allowed = patternAllows.get(i);
+                }
+            }
+        }
+        return allowed;
+    }
+
+    private void add(String path, boolean allow) {
+        if (path.indexOf('*') != -1 || path.endsWith("$")) {
+            patterns.add(path);
+            patternAllows.add(allow);
+            return;
+        }
+        Node node = root;
+        for (int i = 0; i < path.length(); i++) {
+            node = node.childOrNew(path.charAt(i));
+        }
+        // allow wins a tie
+        if (allow || node.rule == 0) {
+            node.rule = allow ? ALLOW : DISALLOW;
+        }
+    }
+
+    /**
+     * This method matches a path against a pattern with '*' and a trailing '$'
+     */
+    private static boolean matches(String pattern, int p, String path, int i) {
+        while (p < pattern.length()) {
+            char c = pattern.charAt(p);
+            if (c == '*') {
+                for (int k = i; k <= path.length(); k++) {
+                    if (matches(pattern, p + 1, path, k)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (c == '$' && p == pattern.length() - 1) {
+                return i == path.length();
+            }
+            if (i >= path.length() || path.charAt(i) != c) {
+                return false;
+            }
+            p++;
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * This method splits "Name: value # comment" into {lowercase name, value}, or returns null
+     */
+    private static String[] field(String line) {
+        int comment = line.indexOf('#');
+        if (comment != -1) {
+            line = line.substring(0, comment);
+        }
+        int colon = line.indexOf(':');
+        if (colon == -1) {
+            return null;
+        }
+        String name = line.substring(0, colon).trim().toLowerCase();
+        return new String[]{name, line.substring(colon + 1).trim()};
+    }
+
+    /**
+     * This class is a node of the path trie, children are kept in small parallel arrays
+     */
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private byte rule = 0;
+
+        Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node childOrNew(char c) {
+            Node node = child(c);
+            if (node == null) {
+                node = new Node();
+                char[] newKeys = new char[keys.length + 1];
+                Node[] newChildren = new Node[keys.length + 1];
+                System.arraycopy(keys, 0, newKeys, 0, keys.length);
+                System.arraycopy(children, 0, newChildren, 0, keys.length);
+                newKeys[keys.length] = c;
+                newChildren[keys.length] = node;
+                keys = newKeys;
+                children = newChildren;
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package WebCrawler;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+
+/**
+ * Rewrites urls to one canonical form, so a page linked under different spellings of its
+ * url is fetched, counted in the url-seen store and mapped to a pageID only once.
+ *
+ * The rules, each of which can be left out:
+ * fragment - drop the #fragment, it is never sent to the server
+ * case     - lower-case the scheme and the host
+ * port     - drop the default port, 80 for http and 443 for https
+ * dots     - resolve "." and ".." path segments, and an empty path becomes "/"
+ * index    - drop a last path segment index.html, index.htm, index.php, index.asp, default.asp(x)
+ * tracking - drop tracking and session parameters (utm_*, gclid, fbclid, jsessionid...)
+ *            from the query and the path, and an empty query
+ * The path and the query are otherwise kept byte for byte, percent-escapes included.
+ */
+class UrlCanonicalizer {
+    static final String DEFAULT_RULES = "fragment,case,port,dots,index,tracking";
+    private static final HashSet<String> INDEX_PAGES = new HashSet<String>(Arrays.asList(
+            "index.html", "index.htm", "index.php", "index.asp", "default.asp", "default.aspx"));
+    private static final HashSet<String> TRACKING_PARAMETERS = new HashSet<String>(Arrays.asList(
+            "gclid", "dclid", "fbclid", "msclkid", "yclid", "mc_cid", "mc_eid", "_ga", "_gl",
+            "jsessionid", "phpsessid", "sessionid", "sid"));
+
+    private boolean fragment;
+    private boolean lowerCase;
+    private boolean port;
+    private boolean dots;
+    private boolean index;
+    private boolean tracking;
+
+    /**
+     * rules is a comma separated list of the rules above, or "none"
+     */
+    public UrlCanonicalizer(String rules) {
+        for (String rule : rules.toLowerCase(Locale.ROOT).split(",")) {
+            rule = rule.trim();
+            if (rule.equals("fragment")) {
+                fragment = true;
+            }
+            else if (rule.equals("case")) {
+                lowerCase = true;
+            }
+            else if (rule.equals("port")) {
+                port = true;
+            }
+            else if (rule.equals("dots")) {
+                dots = true;
+            }
+            else if (rule.equals("index")) {
+                index = true;
+            }
+            else if (rule.equals("tracking")) {
+                tracking = true;
+            }
+            else if (!rule.equals("none") && rule.length() > 0) {
+                throw new IllegalArgumentException("unknown canonicalization rule " + rule);
+            }
+        }
+    }
+
+    /**
+     * This method returns the canonical form of url, url itself if no rule changes it
+     */
+    public URI canonicalize(URI url) {
+        // a url without a host (mailto:, javascript:...) is left as it is, it is never fetched
+        if (url.isOpaque() || url.getHost() == null) {
+            return url;
+        }
+        if (dots) {
+            url = url.normalize();
+        }
+        String scheme = url.getScheme();
+        String host = url.getHost();
+        if (lowerCase) {
+            scheme = scheme.toLowerCase(Locale.ROOT);
+            host = host.toLowerCase(Locale.ROOT);
+        }
+        int portNumber = url.getPort();
+        if (port && ((portNumber == 80 && scheme.equalsIgnoreCase("http"))
+                || (portNumber == 443 && scheme.equalsIgnoreCase("https")))) {
+            portNumber = -1;
+        }
+        String path = url.getRawPath();
+        if (path == null) {
+            path = "";
+        }
+        if (tracking) {
+            path = removePathParameters(path);
+        }
+        if (index) {
+            int slash = path.lastIndexOf('/');
+            if (slash != -1 && INDEX_PAGES.contains(path.substring(slash + 1).toLowerCase(Locale.ROOT))) {
+                path = path.substring(0, slash + 1);
+            }
+        }
+        if (dots && path.isEmpty()) {
+            path = "/";
+        }
+        String query = url.getRawQuery();
+        if (tracking && query != null) {
+            query = removeTrackingParameters(query);
+        }
+        StringBuilder sb = new StringBuilder(url.toString().length());
+        sb.append(scheme).append("://");
+        if (url.getRawUserInfo() != null) {
+            sb.append(url.getRawUserInfo()).append('@');
+        }
+        sb.append(host);
+        if (portNumber != -1) {
+            sb.append(':').append(portNumber);
+        }
+        sb.append(path);
+        if (query != null) {
+            sb.append('?').append(query);
+        }
+        if (!fragment && url.getRawFragment() != null) {
+            sb.append('#').append(url.getRawFragment());
+        }
+        String canonical = sb.toString();
+        if (canonical.equals(url.toString())) {
+            return url;
+        }
+        try {
+            return new URI(canonical);
+        } catch (URISyntaxException e) {
+            // built from the parts of a valid url, should not happen
+            return url;
+        }
+    }
+
+    /**
+     * This method drops the query parameters that only track the visitor, and returns null
+     * if none is left
+     */
+    private static String removeTrackingParameters(String query) {
+        StringBuilder sb = new StringBuilder(query.length());
+        for (String parameter : query.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            int equals = parameter.indexOf('=');
+            String name = (equals == -1 ? parameter : parameter.substring(0, equals)).toLowerCase(Locale.ROOT);
+            if (name.startsWith("utm_") || TRACKING_PARAMETERS.contains(name)) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(parameter);
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /**
+     * This method drops session ids given as path parameters, e.g. /a;jsessionid=12AB/b
+     */
+    private static String removePathParameters(String path) {
+        if (path.indexOf(';') == -1) {
+            return path;
+        }
+        StringBuilder sb = new StringBuilder(path.length());
+        for (String segment : path.split("/", -1)) {
+            if (sb.length() > 0 || path.startsWith("/")) {
+                sb.append('/');
+            }
+            int semicolon = segment.indexOf(';');
+            if (semicolon != -1) {
+                String name = segment.substring(semicolon + 1).split("=", 2)[0].toLowerCase(Locale.ROOT);
+                if (TRACKING_PARAMETERS.contains(name)) {
+                    segment = segment.substring(0, semicolon);
+                }
+            }
+            sb.append(segment);
+        }
+        // the first split part is the empty one before the leading "/"
+        return path.startsWith("/") ? sb.substring(1) : sb.toString();
+    }
+}
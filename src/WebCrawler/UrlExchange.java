@@ -0,0 +1,198 @@
+package WebCrawler;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Hands urls to the crawler node that owns their host, when a crawl is split over several
+ * processes. Node i of nodeCount owns the hosts whose fingerprint is i modulo nodeCount, so
+ * every host is fetched, deduplicated and kept polite by exactly one node.
+ *
+ * The nodes share a spool directory with an inbox per node, 'node_[i]'. Urls for another
+ * node are collected in a batch, which is written as one file in its inbox once it holds
+ * batchSize urls or when flush() is called, first under a temporary name and then renamed,
+ * so a reader never sees half a batch:
+ *
+ * from_[sender]_[start time]_[sequence].urls, one "[depth]\t[url]" line per url
+ *
+ * A batch read by receive() stays in the inbox until commit(), which the crawler calls once
+ * its urls are in a checkpoint, so a node that crashes reads them again when it resumes.
+ */
+class UrlExchange {
+    private static final String SUFFIX = ".urls";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final int nodeCount;
+    private final int node;
+    private final int batchSize;
+    private final File spoolDir;
+    private final File inbox;
+    private final String senderName;
+    private final StringBuilder[] batches;
+    private final int[] batchCounts;
+    private long sequence = 0;
+    private long sentCount = 0;
+    private long receivedCount = 0;
+    // batches read but not committed yet, they are skipped until they are deleted
+    private final HashSet<String> received = new HashSet<String>();
+    private final List<File> uncommitted = new ArrayList<File>();
+
+    public UrlExchange(String spoolPath, int nodeCount, int node, int batchSize) throws IOException {
+        this.nodeCount = nodeCount;
+        this.node = node;
+        this.batchSize = batchSize;
+        spoolDir = new File(spoolPath);
+        inbox = inbox(node);
+        if (!inbox.isDirectory() && !inbox.mkdirs()) {
+            throw new IOException("Cannot create " + inbox);
+        }
+        senderName = "from_" + node + "_" + System.currentTimeMillis() + "_";
+        batches = new StringBuilder[nodeCount];
+        batchCounts = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            batches[i] = new StringBuilder();
+        }
+    }
+
+    /**
+     * This method returns the node that owns the host of url, a url without a host is kept
+     */
+    public int owner(URI url) {
+        String host = url.getHost();
+        if (host == null) {
+            return node;
+        }
+        return (int) Math.floorMod(UrlSeenStore.fingerprint(host.toLowerCase(Locale.ROOT)), (long) nodeCount);
+    }
+
+    public boolean isLocal(MyURI url) {
+        return owner(url.getURI()) == node;
+    }
+
+    /**
+     * This method adds url to the batch of its owner, and writes the batch once it is full
+     */
+    public synchronized void send(MyURI url) throws IOException {
+        int owner = owner(url.getURI());
+        batches[owner].append(url.getDepth()).append('\t').append(url.getURI().toString()).append('\n');
+        batchCounts[owner]++;
+        sentCount++;
+        if (batchCounts[owner] >= batchSize) {
+            write(owner);
+        }
+    }
+
+    /**
+     * This method writes all the batches that are not empty
+     */
+    public synchronized void flush() throws IOException {
+        for (int i = 0; i < nodeCount; i++) {
+            if (batchCounts[i] > 0) {
+                write(i);
+            }
+        }
+    }
+
+    /**
+     * This method returns the urls of the batches in the inbox not read yet, at most
+     * maxBatches of them, the oldest first
+     */
+    public synchronized List<MyURI> receive(int maxBatches) throws IOException {
+        List<MyURI> urls = new ArrayList<MyURI>();
+        File[] files = inbox.listFiles();
+        if (files == null) {
+            return urls;
+        }
+        Arrays.sort(files);
+        int count = 0;
+        for (File file : files) {
+            if (count >= maxBatches) {
+                break;
+            }
+            if (!file.getName().endsWith(SUFFIX) || received.contains(file.getName())) {
+                continue;
+            }
+            int before = urls.size();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                    StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab <= 0) {
+                        continue;
+                    }
+                    try {
+                        urls.add(new MyURI(new URI(line.substring(tab + 1)), Integer.parseInt(line.substring(0, tab))));
+                    } catch (URISyntaxException e) {
+                        // was valid when sent
+                    } catch (NumberFormatException e) {
+                        // ignore
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            receivedCount += urls.size() - before;
+            received.add(file.getName());
+            uncommitted.add(file);
+            count++;
+        }
+        return urls;
+    }
+
+    /**
+     * This method deletes the batches read so far, their urls are safe in the crawler
+     */
+    public synchronized void commit() {
+        for (File file : uncommitted) {
+            file.delete();
+            received.remove(file.getName());
+        }
+        uncommitted.clear();
+    }
+
+    public synchronized long sentCount() {
+        return sentCount;
+    }
+
+    public synchronized long receivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * This method writes the batch of node owner to its inbox, and starts a new one
+     */
+    private void write(int owner) throws IOException {
+        File dir = inbox(owner);
+        if (!dir.isDirectory()) {
+            // the owner has not started yet
+            dir.mkdirs();
+        }
+        String name = senderName + String.format("%010d", sequence++);
+        File tmp = new File(dir, name + TMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(batches[owner].toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), new File(dir, name + SUFFIX).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        batches[owner].setLength(0);
+        batchCounts[owner] = 0;
+    }
+
+    private File inbox(int i) {
+        return new File(spoolDir, "node_" + i);
+    }
+}
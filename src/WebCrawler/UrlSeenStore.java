@@ -0,0 +1,336 @@
+package WebCrawler;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The set of every url the crawler has ever queued, kept as 64-bit fingerprints on disk.
+ *
+ * Files under dirPath:
+ * bloom.bin    - a memory-mapped Bloom filter of all the fingerprints
+ * run_N.fp     - sorted runs of fingerprints (big-endian longs), memory-mapped for binary search
+ *
+ * New fingerprints first go to an in-memory hash set, which is sorted and written as a new
+ * run when it is full, and the runs are merged into one when there are more than MAX_RUNS.
+ * A fingerprint the Bloom filter has never seen is new without touching the runs, so only
+ * urls that were (probably) seen before cost a few binary searches.
+ * The runs are the truth, a false positive of the Bloom filter never drops a url.
+ * If the Bloom file is missing or was made with another size, it is rebuilt from the runs.
+ * A run is mapped as one buffer, so it holds at most 268 million fingerprints (2 GB).
+ */
+class UrlSeenStore {
+    private static final int HASH_COUNT = 7;
+    private static final int BUFFER_LIMIT = 1 << 20;
+    private static final int MAX_RUNS = 8;
+    private static final String BLOOM_NAME = "bloom.bin";
+    private static final String RUN_PREFIX = "run_";
+    private static final String RUN_SUFFIX = ".fp";
+
+    private final String dirPath;
+    private final RandomAccessFile bloomFile;
+    private final MappedByteBuffer bloom;
+    private final long bitMask;
+    private final List<Run> runs = new ArrayList<Run>();
+    private int nextRunID = 0;
+    // fingerprints added since the last run was written, open addressing, 0 means empty
+    private long[] buffer = new long[BUFFER_LIMIT * 2];
+    private int bufferSize = 0;
+    private long size = 0;
+
+    /**
+     * bloomBitsLog2 is log2 of the size of the Bloom filter in bits, at most 33,
+     * e.g. 29 (64 MB) keeps false positives around 1% up to about 40 million urls
+     */
+    public UrlSeenStore(String dirPath, int bloomBitsLog2) throws IOException {
+        if (!dirPath.endsWith(File.separator)) {
+            dirPath += File.separator;
+        }
+        this.dirPath = dirPath;
+        File dir = new File(dirPath);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(RUN_PREFIX) && name.endsWith(RUN_SUFFIX)) {
+                    int id = Integer.parseInt(name.substring(RUN_PREFIX.length(), name.length() - RUN_SUFFIX.length()));
+                    nextRunID = Math.max(nextRunID, id + 1);
+                    Run run = new Run(file);
+                    runs.add(run);
+                    size += run.count;
+                }
+                else if (name.endsWith(".tmp")) {
+                    // an unfinished merge
+                    file.delete();
+                }
+            }
+        }
+        long bits = 1L << bloomBitsLog2;
+        bitMask = bits - 1;
+        File file = new File(dirPath + BLOOM_NAME);
+        boolean rebuild = !file.exists() || file.length() != bits / 8;
+        if (rebuild) {
+            file.delete();
+        }
+        bloomFile = new RandomAccessFile(file, "rw");
+        bloomFile.setLength(bits / 8);
+        bloom = bloomFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bits / 8);
+        if (rebuild) {
+            for (Run run : runs) {
+                for (int i = 0; i < run.count; i++) {
+                    setBloom(run.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * This method adds a batch of fingerprints and returns which of them were not seen before,
+     * a fingerprint repeated in the batch is new only the first time
+     */
+    public synchronized boolean[] addAll(long[] fingerprints) throws IOException {
+        boolean[] isNew = new boolean[fingerprints.length];
+        for (int i = 0; i < fingerprints.length; i++) {
+            long fingerprint = fingerprints[i] == 0 ? 1 : fingerprints[i];
+            if (mightContain(fingerprint) && contains(fingerprint)) {
+                continue;
+            }
+            isNew[i] = true;
+            setBloom(fingerprint);
+            bufferAdd(fingerprint);
+            size++;
+            if (bufferSize >= BUFFER_LIMIT) {
+                writeRun();
+            }
+        }
+        return isNew;
+    }
+
+    /**
+     * This method returns the number of distinct fingerprints
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * This method writes the in-memory fingerprints as a run and the Bloom filter to disk
+     */
+    public synchronized void flush() throws IOException {
+        writeRun();
+        bloom.force();
+    }
+
+    public synchronized void close() throws IOException {
+        flush();
+        bloomFile.close();
+    }
+
+    /**
+     * This method computes the 64-bit fingerprint of a url string
+     */
+    static long fingerprint(String url) {
+        // FNV-1a over the chars, then the MurmurHash3 finalizer to spread the bits
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private boolean mightContain(long fingerprint) {
+        long step = mix(fingerprint) | 1;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = (fingerprint + i * step) & bitMask;
+            if ((bloom.get((int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setBloom(long fingerprint) {
+        long step = mix(fingerprint) | 1;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = (fingerprint + i * step) & bitMask;
+            int index = (int) (bit >>> 3);
+            bloom.put(index, (byte) (bloom.get(index) | (1 << (bit & 7))));
+        }
+    }
+
+    private boolean contains(long fingerprint) {
+        if (bufferContains(fingerprint)) {
+            return true;
+        }
+        for (Run run : runs) {
+            if (run.contains(fingerprint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean bufferContains(long fingerprint) {
+        int mask = buffer.length - 1;
+        for (int slot = (int) mix(fingerprint) & mask; buffer[slot] != 0; slot = (slot + 1) & mask) {
+            if (buffer[slot] == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void bufferAdd(long fingerprint) {
+        int mask = buffer.length - 1;
+        int slot = (int) mix(fingerprint) & mask;
+        while (buffer[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        buffer[slot] = fingerprint;
+        bufferSize++;
+    }
+
+    /**
+     * This method sorts the in-memory fingerprints into a new run file
+     */
+    private void writeRun() throws IOException {
+        if (bufferSize == 0) {
+            return;
+        }
+        long[] sorted = new long[bufferSize];
+        int count = 0;
+        for (long fingerprint : buffer) {
+            if (fingerprint != 0) {
+                sorted[count++] = fingerprint;
+            }
+        }
+        Arrays.sort(sorted);
+        File file = new File(dirPath + RUN_PREFIX + nextRunID + RUN_SUFFIX);
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        for (long fingerprint : sorted) {
+            out.writeLong(fingerprint);
+        }
+        out.close();
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Rename " + tmp + " not successfully");
+        }
+        nextRunID++;
+        runs.add(new Run(file));
+        Arrays.fill(buffer, 0);
+        bufferSize = 0;
+        if (runs.size() > MAX_RUNS) {
+            mergeRuns();
+        }
+    }
+
+    /**
+     * This method merges all the runs into one, the old run files are deleted afterwards
+     */
+    private void mergeRuns() throws IOException {
+        File file = new File(dirPath + RUN_PREFIX + nextRunID + RUN_SUFFIX);
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        // each entry is {value, run index, position}
+        PriorityQueue<long[]> heads = new PriorityQueue<long[]>(runs.size(), new Comparator<long[]>() {
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            if (runs.get(i).count > 0) {
+                heads.add(new long[]{runs.get(i).get(0), i, 0});
+            }
+        }
+        boolean first = true;
+        long last = 0;
+        while (!heads.isEmpty()) {
+            long[] head = heads.poll();
+            if (first || head[0] != last) {
+                out.writeLong(head[0]);
+                last = head[0];
+                first = false;
+            }
+            Run run = runs.get((int) head[1]);
+            long next = head[2] + 1;
+            if (next < run.count) {
+                heads.add(new long[]{run.get(next), head[1], next});
+            }
+        }
+        out.close();
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Rename " + tmp + " not successfully");
+        }
+        nextRunID++;
+        for (Run run : runs) {
+            run.file.delete();
+        }
+        runs.clear();
+        Run merged = new Run(file);
+        runs.add(merged);
+        size = merged.count;
+    }
+
+    /**
+     * This class is a sorted run file mapped into memory
+     */
+    private static class Run {
+        private final File file;
+        private final LongBuffer values;
+        private final long count;
+
+        Run(File file) throws IOException {
+            this.file = file;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            count = raf.length() / 8;
+            values = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, count * 8)
+                    .order(ByteOrder.BIG_ENDIAN).asLongBuffer();
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+
+        long get(long index) {
+            return values.get((int) index);
+        }
+
+        boolean contains(long fingerprint) {
+            long low = 0;
+            long high = count - 1;
+            while (low <= high) {
+                long middle = (low + high) >>> 1;
+                long value = values.get((int) middle);
+                if (value < fingerprint) {
+                    low = middle + 1;
+                }
+                else if (value > fingerprint) {
+                    high = middle - 1;
+                }
+                else {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}